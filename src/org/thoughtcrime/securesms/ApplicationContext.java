@@ -31,10 +31,13 @@ import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.dependencies.SignalCommunicationModule;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.dependencies.DependencyInjector;
-import org.thoughtcrime.securesms.jobmanager.persistence.JavaJobSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.BinaryJobSerializer;
 import org.thoughtcrime.securesms.jobmanager.requirements.NetworkRequirementProvider;
 import org.thoughtcrime.securesms.jobs.CreateSignedPreKeyJob;
 import org.thoughtcrime.securesms.jobs.GcmRefreshJob;
+import org.thoughtcrime.securesms.jobs.MultiDeviceReadUpdateJob;
+import org.thoughtcrime.securesms.jobs.PushDecryptJob;
+import org.thoughtcrime.securesms.jobs.SendReadReceiptJob;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirementProvider;
 import org.thoughtcrime.securesms.jobs.requirements.ServiceRequirementProvider;
 import org.thoughtcrime.securesms.jobs.requirements.SqlCipherMigrationRequirementProvider;
@@ -43,6 +46,7 @@ import org.thoughtcrime.securesms.service.DirectoryRefreshListener;
 import org.thoughtcrime.securesms.service.ExpiringMessageManager;
 import org.thoughtcrime.securesms.service.LocalBackupListener;
 import org.thoughtcrime.securesms.service.RotateSignedPreKeyListener;
+import org.thoughtcrime.securesms.service.SearchIndexManager;
 import org.thoughtcrime.securesms.service.UpdateApkRefreshListener;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.webrtc.PeerConnectionFactory;
@@ -71,6 +75,7 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
   private static final String TAG = ApplicationContext.class.getName();
 
   private ExpiringMessageManager expiringMessageManager;
+  private SearchIndexManager     searchIndexManager;
   private JobManager             jobManager;
   private ObjectGraph            objectGraph;
 
@@ -86,6 +91,7 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
     initializeDependencyInjection();
     initializeJobManager();
     initializeExpiringMessageManager();
+    initializeSearchIndexManager();
     initializeGcmCheck();
     initializeSignedPreKeyCheck();
     initializePeriodicTasks();
@@ -120,7 +126,9 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
     this.jobManager = JobManager.newBuilder(this)
                                 .withName("TextSecureJobs")
                                 .withDependencyInjector(this)
-                                .withJobSerializer(new JavaJobSerializer())
+                                .withJobSerializer(new BinaryJobSerializer().withCodec(1, PushDecryptJob.class, new PushDecryptJob.Codec())
+                                                                            .withCodec(2, SendReadReceiptJob.class, new SendReadReceiptJob.Codec())
+                                                                            .withCodec(3, MultiDeviceReadUpdateJob.class, new MultiDeviceReadUpdateJob.Codec()))
                                 .withRequirementProviders(new MasterSecretRequirementProvider(this),
                                                           new ServiceRequirementProvider(this),
                                                           new NetworkRequirementProvider(this),
@@ -154,6 +162,10 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
     this.expiringMessageManager = new ExpiringMessageManager(this);
   }
 
+  private void initializeSearchIndexManager() {
+    this.searchIndexManager = new SearchIndexManager(this);
+  }
+
   private void initializePeriodicTasks() {
     RotateSignedPreKeyListener.schedule(this);
     DirectoryRefreshListener.schedule(this);
@@ -176,7 +176,7 @@ public class ConfirmIdentityDialog extends AlertDialog {
 
             ApplicationContext.getInstance(getContext())
                               .getJobManager()
-                              .add(new PushDecryptJob(getContext(), pushId, messageRecord.getId()));
+                              .add(new PushDecryptJob(getContext(), pushId, messageRecord.getId(), envelope.getSource()));
           } catch (IOException e) {
             throw new AssertionError(e);
           }
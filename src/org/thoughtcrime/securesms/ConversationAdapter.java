@@ -33,6 +33,7 @@ import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.ConversationAdapter.HeaderViewHolder;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+import org.thoughtcrime.securesms.database.ConversationAttachmentCache;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.FastCursorRecyclerViewAdapter;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
@@ -91,14 +92,15 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   private final Set<MessageRecord> batchSelected = Collections.synchronizedSet(new HashSet<MessageRecord>());
 
-  private final @Nullable ItemClickListener clickListener;
-  private final @NonNull  GlideRequests     glideRequests;
-  private final @NonNull  Locale            locale;
-  private final @NonNull  Recipient         recipient;
-  private final @NonNull  MmsSmsDatabase    db;
-  private final @NonNull  LayoutInflater    inflater;
-  private final @NonNull  Calendar          calendar;
-  private final @NonNull  MessageDigest     digest;
+  private final @Nullable ItemClickListener           clickListener;
+  private final @NonNull  GlideRequests               glideRequests;
+  private final @NonNull  Locale                      locale;
+  private final @NonNull  Recipient                   recipient;
+  private final @NonNull  MmsSmsDatabase              db;
+  private       @Nullable ConversationAttachmentCache attachmentCache;
+  private final @NonNull  LayoutInflater              inflater;
+  private final @NonNull  Calendar                    calendar;
+  private final @NonNull  MessageDigest               digest;
 
   private MessageRecord recordToPulseHighlight;
 
@@ -143,14 +145,14 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   ConversationAdapter(Context context, Cursor cursor) {
     super(context, cursor);
     try {
-      this.glideRequests = null;
-      this.locale        = null;
-      this.clickListener = null;
-      this.recipient     = null;
-      this.inflater      = null;
-      this.db            = null;
-      this.calendar      = null;
-      this.digest        = MessageDigest.getInstance("SHA1");
+      this.glideRequests   = null;
+      this.locale          = null;
+      this.clickListener   = null;
+      this.recipient       = null;
+      this.inflater        = null;
+      this.db              = null;
+      this.calendar        = null;
+      this.digest          = MessageDigest.getInstance("SHA1");
     } catch (NoSuchAlgorithmException nsae) {
       throw new AssertionError("SHA1 isn't supported!");
     }
@@ -166,14 +168,15 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     super(context, cursor);
 
     try {
-      this.glideRequests = glideRequests;
-      this.locale        = locale;
-      this.clickListener = clickListener;
-      this.recipient     = recipient;
-      this.inflater      = LayoutInflater.from(context);
-      this.db            = DatabaseFactory.getMmsSmsDatabase(context);
-      this.calendar      = Calendar.getInstance();
-      this.digest        = MessageDigest.getInstance("SHA1");
+      this.glideRequests   = glideRequests;
+      this.locale          = locale;
+      this.clickListener   = clickListener;
+      this.recipient       = recipient;
+      this.inflater        = LayoutInflater.from(context);
+      this.db              = DatabaseFactory.getMmsSmsDatabase(context);
+      this.attachmentCache = ConversationAttachmentCache.getFor(cursor);
+      this.calendar        = Calendar.getInstance();
+      this.digest          = MessageDigest.getInstance("SHA1");
 
       setHasStableIds(true);
     } catch (NoSuchAlgorithmException nsae) {
@@ -184,6 +187,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   @Override
   public void changeCursor(Cursor cursor) {
     messageRecordCache.clear();
+    attachmentCache = ConversationAttachmentCache.getFor(cursor);
     super.cleanFastRecords();
     super.changeCursor(cursor);
   }
@@ -305,7 +309,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
       if (record != null) return record;
     }
 
-    final MessageRecord messageRecord = db.readerFor(cursor).getCurrent();
+    final MessageRecord messageRecord = db.readerFor(cursor, attachmentCache).getCurrent();
     messageRecordCache.put(type + messageId, new SoftReference<>(messageRecord));
 
     return messageRecord;
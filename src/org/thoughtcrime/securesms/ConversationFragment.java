@@ -93,6 +93,7 @@ public class ConversationFragment extends Fragment
 {
   private static final String TAG       = ConversationFragment.class.getSimpleName();
   private static final String KEY_LIMIT = "limit";
+  private static final String KEY_PAGES = "pages";
 
   private static final int PARTIAL_CONVERSATION_LIMIT = 500;
   private static final int SCROLL_ANIMATION_THRESHOLD = 50;
@@ -108,6 +109,7 @@ public class ConversationFragment extends Fragment
   private long                        lastSeen;
   private int                         startingPosition;
   private int                         previousOffset;
+  private int                         loadedPages;
   private boolean                     firstLoad;
   private long                        loaderStartTime;
   private ActionMode                  actionMode;
@@ -216,7 +218,13 @@ public class ConversationFragment extends Fragment
   private void initializeLoadMoreView(ViewSwitcher loadMoreView) {
     loadMoreView.setOnClickListener(v -> {
       Bundle args = new Bundle();
-      args.putInt(KEY_LIMIT, 0);
+
+      if (loadMoreView == topLoadMoreView && loadedPages > 0) {
+        args.putInt(KEY_PAGES, loadedPages + 1);
+      } else {
+        args.putInt(KEY_LIMIT, 0);
+      }
+
       getLoaderManager().restartLoader(0, args, ConversationFragment.this);
       loadMoreView.showNext();
       loadMoreView.setOnClickListener(null);
@@ -449,13 +457,14 @@ public class ConversationFragment extends Fragment
     loaderStartTime = System.currentTimeMillis();
 
     int limit  = args.getInt(KEY_LIMIT, PARTIAL_CONVERSATION_LIMIT);
+    int pages  = args.getInt(KEY_PAGES, 1);
     int offset = 0;
     if (limit != 0 && startingPosition > limit) {
       offset = Math.max(startingPosition - (limit / 2) + 1, 0);
       startingPosition -= offset - 1;
     }
 
-    return new ConversationLoader(getActivity(), threadId, offset, limit, lastSeen);
+    return new ConversationLoader(getActivity(), threadId, offset, limit, pages, lastSeen);
   }
 
   @Override
@@ -470,7 +479,14 @@ public class ConversationFragment extends Fragment
       return;
     }
 
-    if (cursor.getCount() >= PARTIAL_CONVERSATION_LIMIT && loader.hasLimit()) {
+    loadedPages = loader.isPaged() ? loader.getPageCount() : 0;
+
+    if (loader.hasMore()) {
+      if (topLoadMoreView.getDisplayedChild() != 0) {
+        topLoadMoreView.setDisplayedChild(0);
+        initializeLoadMoreView(topLoadMoreView);
+      }
+
       adapter.setFooterView(topLoadMoreView);
     } else {
       adapter.setFooterView(null);
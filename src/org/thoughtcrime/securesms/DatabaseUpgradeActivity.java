@@ -343,7 +343,8 @@ public class DatabaseUpgradeActivity extends BaseActivity {
           ApplicationContext.getInstance(getApplicationContext())
                             .getJobManager()
                             .add(new PushDecryptJob(getApplicationContext(),
-                                                    pushReader.getLong(pushReader.getColumnIndexOrThrow(PushDatabase.ID))));
+                                                    pushReader.getLong(pushReader.getColumnIndexOrThrow(PushDatabase.ID)), -1,
+                                                    pushReader.getString(pushReader.getColumnIndexOrThrow(PushDatabase.SOURCE))));
         }
       } finally {
         if (pushReader != null)
@@ -8,6 +8,7 @@ import android.util.Log;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.DynamicTheme;
 import org.whispersystems.libpastelog.SubmitLogFragment;
 
@@ -25,6 +26,8 @@ public class LogSubmitActivity extends BaseActionBarActivity implements SubmitLo
     super.onCreate(icicle);
     setContentView(R.layout.log_submit_activity);
     getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+    Log.i(TAG, "Job metrics:\n" + ApplicationContext.getInstance(this).getJobManager().getMetricsSnapshot());
+    Log.i(TAG, "Recipient cache: " + Recipient.getCacheStatistics());
     SubmitLogFragment fragment = SubmitLogFragment.newInstance();
     FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
     transaction.replace(R.id.fragment_container, fragment);
@@ -373,9 +373,9 @@ public class RegistrationActivity extends BaseActionBarActivity implements Verif
                 String         passphrase = prompt.getText().toString();
                 SQLiteDatabase database   = DatabaseFactory.getBackupDatabase(context);
 
-                FullBackupImporter.importFile(context,
-                                              AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                              database, backup.getFile(), passphrase);
+                FullBackupImporter.importFiles(context,
+                                               AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                               database, BackupUtil.getBackupChain(backup.getFile()), passphrase);
 
                 DatabaseFactory.upgradeRestored(context, database);
 
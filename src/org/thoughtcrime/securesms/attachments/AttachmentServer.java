@@ -4,43 +4,65 @@ package org.thoughtcrime.securesms.attachments;
 import android.content.Context;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.spongycastle.util.encoders.Hex;
+import org.thoughtcrime.securesms.crypto.DecryptingPartChannel;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.Util;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Properties;
-import java.util.StringTokenizer;
 
 /**
+ * Serves a single attachment over HTTP on the loopback interface, so that players which only take
+ * a Uri can stream it without it ever being written out in the clear.
+ *
+ * All connections are handled on one selector thread. Range requests are answered by decrypting
+ * from the requested offset directly (see {@link DecryptingPartChannel}), so players can start and
+ * seek anywhere in a large file right away. Connections are kept alive between requests, and
+ * responses go out through a small pool of reusable direct buffers.
+ *
  * @author      Stefan "frostymarvelous" Froelich <stefan d0t froelich At whisppa DoT com>
  */
 public class AttachmentServer implements Runnable {
 
   private static final String TAG = AttachmentServer.class.getSimpleName();
 
-  private final Context      context;
-  private final Attachment   attachment;
-  private final ServerSocket socket;
-  private final int          port;
-  private final String       auth;
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private static final int REQUEST_BUFFER_SIZE  = 8 * 1024;
+  private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_BUFFERS   = 4;
+
+  private final Context             context;
+  private final Attachment          attachment;
+  private final ServerSocketChannel serverChannel;
+  private final Selector            selector;
+  private final int                 port;
+  private final String              auth;
+
+  private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+  private final byte[]                 scratch    = new byte[16 * 1024];
+
+  private @Nullable DecryptingPartChannel partChannel;
 
   private volatile boolean isRunning;
 
@@ -48,13 +70,17 @@ public class AttachmentServer implements Runnable {
       throws IOException
   {
     try {
-      this.context      = context;
-      this.attachment   = attachment;
-      this.socket       = new ServerSocket(0, 0, InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
-      this.port         = socket.getLocalPort();
-      this.auth         = new String(Hex.encode(Util.getSecretBytes(16)));
+      this.context       = context;
+      this.attachment    = attachment;
+      this.serverChannel = ServerSocketChannel.open();
+      this.selector      = Selector.open();
+      this.auth          = new String(Hex.encode(Util.getSecretBytes(16)));
 
-      this.socket.setSoTimeout(5000);
+      serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, 0, 1}), 0));
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+      this.port = serverChannel.socket().getLocalPort();
     } catch (UnknownHostException e) {
       throw new AssertionError(e);
     }
@@ -66,308 +92,396 @@ public class AttachmentServer implements Runnable {
 
   public void start() {
     isRunning = true;
-    new Thread(this).start();
+    new Thread(this, TAG).start();
   }
 
   public void stop() {
     isRunning = false;
+    selector.wakeup();
   }
 
   @Override
   public void run() {
-    while (isRunning) {
-      Socket client = null;
+    try {
+      while (isRunning) {
+        selector.select();
 
-      try {
-        client = socket.accept();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
 
-        if (client != null) {
-          StreamToMediaPlayerTask task = new StreamToMediaPlayerTask(client, "/" + auth);
+          if (!key.isValid()) continue;
 
-          if (task.processRequest()) {
-            task.execute();
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            Connection connection = (Connection)key.attachment();
+
+            try {
+              if (key.isReadable())                   connection.onReadable();
+              if (key.isValid() && key.isWritable()) connection.onWritable();
+            } catch (IOException e) {
+              Log.w(TAG, "Closing connection: " + e.getMessage());
+              connection.close();
+            }
           }
         }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    } finally {
+      shutdown();
+    }
 
-      } catch (SocketTimeoutException e) {
-        Log.w(TAG, e);
+    Log.d(TAG, "Proxy interrupted. Shutting down.");
+  }
+
+  private void accept() throws IOException {
+    SocketChannel client = serverChannel.accept();
+
+    if (client == null) return;
+
+    client.configureBlocking(false);
+
+    Connection connection = new Connection(client);
+    connection.key = client.register(selector, SelectionKey.OP_READ, connection);
+  }
+
+  private void shutdown() {
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Connection) {
+        ((Connection)key.attachment()).close();
+      }
+    }
+
+    try {
+      selector.close();
+      serverChannel.close();
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+
+    if (partChannel != null) {
+      try {
+        partChannel.close();
       } catch (IOException e) {
-        Log.e(TAG, "Error connecting to client", e);
-      } finally {
-        try {if (client != null) client.close();} catch (IOException e) {}
+        Log.w(TAG, e);
       }
     }
 
-    Log.d(TAG, "Proxy interrupted. Shutting down.");
+    bufferPool.clear();
   }
 
+  /**
+   * Attachments in the database are decrypted through one channel that all connections share, so
+   * the key is only derived once and seeks land in the same chunk cache.
+   */
+  private @Nullable DecryptingPartChannel getPartChannel() throws IOException {
+    if (partChannel == null && attachment instanceof DatabaseAttachment) {
+      partChannel = DatabaseFactory.getAttachmentDatabase(context)
+                                   .getAttachmentChannel(((DatabaseAttachment)attachment).getAttachmentId());
+    }
+
+    return partChannel;
+  }
+
+  private @NonNull ByteBuffer obtainBuffer() {
+    ByteBuffer buffer = bufferPool.poll();
 
-  private class StreamToMediaPlayerTask {
+    if (buffer == null) buffer = ByteBuffer.allocateDirect(RESPONSE_BUFFER_SIZE);
+    else                buffer.clear();
 
-    private final @NonNull Socket client;
-    private final @NonNull String auth;
+    return buffer;
+  }
+
+  private void recycleBuffer(@NonNull ByteBuffer buffer) {
+    if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+      bufferPool.push(buffer);
+    }
+  }
 
-    private long       cbSkip;
-    private Properties parameters;
-    private Properties request;
-    private Properties requestHeaders;
-//    private String filePath;
+  private class Connection {
 
-    public StreamToMediaPlayerTask(@NonNull Socket client, @NonNull String auth) {
+    private final SocketChannel client;
+    private final ByteBuffer    request = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+
+    private SelectionKey key;
+
+    private @Nullable ByteBuffer  response;
+    private @Nullable InputStream stream;
+    private long                  position;
+    private long                  remaining;
+    private boolean               closeWhenDone;
+
+    private Connection(@NonNull SocketChannel client) {
       this.client = client;
-      this.auth   = auth;
     }
 
-    public boolean processRequest() throws IOException {
-            InputStream is         = client.getInputStream();
-      final int         bufferSize = 8192;
-            byte[]      buffer     = new byte[bufferSize];
-            int         splitByte  = 0;
-            int         readLength = 0;
-
-      {
-        int read = is.read(buffer, 0, bufferSize);
-        while (read > 0) {
-          readLength += read;
-          splitByte = findHeaderEnd(buffer, readLength);
-          if (splitByte > 0)
-            break;
-          read = is.read(buffer, readLength, bufferSize - readLength);
+    void onReadable() throws IOException {
+      if (client.read(request) == -1) {
+        close();
+        return;
+      }
+
+      processRequest();
+    }
+
+    void onWritable() throws IOException {
+      if (response == null) return;
+
+      while (true) {
+        if (!response.hasRemaining()) {
+          if (remaining == 0) {
+            finishResponse();
+            return;
+          }
+
+          response.clear();
+          fillBody(response);
+          response.flip();
         }
+
+        if (client.write(response) == 0) return;
+      }
+    }
+
+    void close() {
+      if (response != null) {
+        recycleBuffer(response);
+        response = null;
       }
 
-      // Create a BufferedReader for parsing the header.
-      ByteArrayInputStream hbis = new ByteArrayInputStream(buffer, 0, readLength);
-      BufferedReader       hin  = new BufferedReader(new InputStreamReader(hbis));
+      Util.close(stream);
+      stream = null;
 
-      request        = new Properties();
-      parameters     = new Properties();
-      requestHeaders = new Properties();
+      if (key != null) key.cancel();
 
       try {
-        decodeHeader(hin, request, parameters, requestHeaders);
-      } catch (InterruptedException e1) {
-        Log.e(TAG, "Exception: " + e1.getMessage());
-        e1.printStackTrace();
+        client.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    private void processRequest() throws IOException {
+      if (response != null) return;
+
+      int headerEnd = findHeaderEnd(request);
+
+      if (headerEnd == -1) {
+        if (!request.hasRemaining()) sendError("431 Request Header Fields Too Large");
+        return;
       }
 
-      for (Map.Entry<Object, Object> e : requestHeaders.entrySet()) {
-        Log.i(TAG, "Header: " + e.getKey() + " : " + e.getValue());
+      String header = new String(request.array(), 0, headerEnd, ISO_8859_1);
+
+      request.flip();
+      request.position(headerEnd);
+      request.compact();
+
+      String[] lines       = header.split("\r\n");
+      String[] requestLine = lines[0].split(" ");
+
+      if (requestLine.length < 3) {
+        sendError("400 Bad Request");
+        return;
       }
 
-      String range = requestHeaders.getProperty("range");
+      String method     = requestLine[0];
+      String path       = requestLine[1];
+      String version    = requestLine[2];
+      String range      = null;
+      String connection = null;
 
-      if (range != null) {
-        Log.i(TAG, "range is: " + range);
-        range = range.substring(6);
-        int charPos = range.indexOf('-');
-        if (charPos > 0) {
-          range = range.substring(0, charPos);
-        }
-        cbSkip = Long.parseLong(range);
-        Log.i(TAG, "range found!! " + cbSkip);
+      for (int i = 1; i < lines.length; i++) {
+        int separator = lines[i].indexOf(':');
+
+        if (separator <= 0) continue;
+
+        String name  = lines[i].substring(0, separator).trim().toLowerCase(Locale.ROOT);
+        String value = lines[i].substring(separator + 1).trim();
+
+        if      (name.equals("range"))      range      = value;
+        else if (name.equals("connection")) connection = value;
       }
 
-      if (!"GET".equals(request.get("method"))) {
-        Log.e(TAG, "Only GET is supported: " + request.get("method"));
-        return false;
+      if ("HTTP/1.0".equals(version)) closeWhenDone = !"keep-alive".equalsIgnoreCase(connection);
+      else                            closeWhenDone = "close".equalsIgnoreCase(connection);
+
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        Log.w(TAG, "Only GET is supported: " + method);
+        sendError("405 Method Not Allowed");
+        return;
       }
 
-      String receivedAuth = request.getProperty("uri");
+      int query = path.indexOf('?');
+      if (query >= 0) path = path.substring(0, query);
 
-      if (receivedAuth == null || !MessageDigest.isEqual(receivedAuth.getBytes(), auth.getBytes())) {
+      if (!MessageDigest.isEqual(path.getBytes(), ("/" + auth).getBytes())) {
         Log.w(TAG, "Bad auth token!");
-        return false;
+        sendError("403 Forbidden");
+        return;
       }
 
-//      filePath = request.getProperty("uri");
+      DecryptingPartChannel channel = getPartChannel();
+      long                  size    = channel != null ? channel.size() : attachment.getSize();
+      long[]                bounds  = range != null ? parseRange(range, size) : new long[] {0, size - 1};
 
-      return true;
-    }
+      if (bounds == null) {
+        sendResponse("416 Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n", 0, 0, true);
+        return;
+      }
 
-    protected void execute() throws IOException {
-      InputStream inputStream = PartAuthority.getAttachmentStream(context, attachment.getDataUri());
-      long        fileSize    = attachment.getSize();
-
-      String headers = "";
-      if (cbSkip > 0) {// It is a seek or skip request if there's a Range
-        // header
-        headers += "HTTP/1.1 206 Partial Content\r\n";
-        headers += "Content-Type: " + attachment.getContentType() + "\r\n";
-        headers += "Accept-Ranges: bytes\r\n";
-        headers += "Content-Length: " + (fileSize - cbSkip) + "\r\n";
-        headers += "Content-Range: bytes " + cbSkip + "-" + (fileSize - 1) + "/" + fileSize + "\r\n";
-        headers += "Connection: Keep-Alive\r\n";
-        headers += "\r\n";
-      } else {
-        headers += "HTTP/1.1 200 OK\r\n";
-        headers += "Content-Type: " + attachment.getContentType() + "\r\n";
-        headers += "Accept-Ranges: bytes\r\n";
-        headers += "Content-Length: " + fileSize + "\r\n";
-        headers += "Connection: Keep-Alive\r\n";
-        headers += "\r\n";
+      long          start   = bounds[0];
+      long          length  = bounds[1] - bounds[0] + 1;
+      StringBuilder headers = new StringBuilder();
+
+      headers.append("Content-Type: ").append(attachment.getContentType()).append("\r\n");
+      headers.append("Accept-Ranges: bytes\r\n");
+      headers.append("Content-Length: ").append(length).append("\r\n");
+
+      if (range != null) {
+        headers.append("Content-Range: bytes ").append(start).append('-').append(bounds[1]).append('/').append(size).append("\r\n");
       }
 
-      Log.i(TAG, "headers: " + headers);
+      if (channel == null && !"HEAD".equals(method)) {
+        stream = PartAuthority.getAttachmentStream(context, attachment.getDataUri(), start);
+      }
 
-      OutputStream output = null;
-      byte[] buff = new byte[64 * 1024];
-      try {
-        output = new BufferedOutputStream(client.getOutputStream(), 32 * 1024);
-        output.write(headers.getBytes());
+      sendResponse(range != null ? "206 Partial Content" : "200 OK", headers.toString(), start,
+                   "HEAD".equals(method) ? 0 : length, closeWhenDone);
+    }
+
+    private void sendError(@NonNull String status) throws IOException {
+      sendResponse(status, "", 0, 0, true);
+    }
+
+    private void sendResponse(@NonNull String status, @NonNull String headers, long position, long length, boolean close)
+        throws IOException
+    {
+      String head = "HTTP/1.1 " + status + "\r\n" +
+                    headers +
+                    (headers.contains("Content-Length:") ? "" : "Content-Length: 0\r\n") +
+                    "Connection: " + (close ? "close" : "keep-alive") + "\r\n" +
+                    "\r\n";
+
+      this.position      = position;
+      this.remaining     = length;
+      this.closeWhenDone = close;
+      this.response      = obtainBuffer();
+
+      response.put(head.getBytes(ISO_8859_1));
+      fillBody(response);
+      response.flip();
+
+      key.interestOps(SelectionKey.OP_WRITE);
+      onWritable();
+    }
 
-        inputStream.skip(cbSkip);
-//        dataSource.skipFully(data, cbSkip);//try to skip as much as possible
+    private void fillBody(@NonNull ByteBuffer buffer) throws IOException {
+      while (remaining > 0 && buffer.hasRemaining()) {
+        int limit = buffer.limit();
+        int read;
 
-        // Loop as long as there's stuff to send and client has not closed
-        int cbRead;
-        while (!client.isClosed() && (cbRead = inputStream.read(buff, 0, buff.length)) != -1) {
-          output.write(buff, 0, cbRead);
+        if (buffer.remaining() > remaining) {
+          buffer.limit(buffer.position() + (int)remaining);
         }
-      }
-      catch (SocketException socketException) {
-        Log.e(TAG, "SocketException() thrown, proxy client has probably closed. This can exit harmlessly");
-      }
-      catch (Exception e) {
-        Log.e(TAG, "Exception thrown from streaming task:");
-        Log.e(TAG, e.getClass().getName() + " : " + e.getLocalizedMessage());
-      }
 
-      // Cleanup
-      try {
-        if (output != null) {
-          output.close();
+        try {
+          if (partChannel != null) {
+            read = partChannel.read(position, buffer);
+          } else if (stream != null) {
+            read = stream.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+            if (read > 0) buffer.put(scratch, 0, read);
+          } else {
+            throw new AssertionError("No source for response body");
+          }
+        } finally {
+          buffer.limit(limit);
         }
-        client.close();
-      }
-      catch (IOException e) {
-        Log.e(TAG, "IOException while cleaning up streaming task:");
-        Log.e(TAG, e.getClass().getName() + " : " + e.getLocalizedMessage());
-        e.printStackTrace();
+
+        if (read == -1) throw new EOFException("Attachment ended " + remaining + " bytes early");
+
+        position  += read;
+        remaining -= read;
       }
     }
 
-    /**
-     * Find byte index separating header from body. It must be the last byte of
-     * the first two sequential new lines.
-     **/
-    private int findHeaderEnd(final byte[] buf, int rlen) {
-      int splitbyte = 0;
-      while (splitbyte + 3 < rlen) {
-        if (buf[splitbyte] == '\r' && buf[splitbyte + 1] == '\n'
-            && buf[splitbyte + 2] == '\r' && buf[splitbyte + 3] == '\n')
-          return splitbyte + 4;
-        splitbyte++;
+    private void finishResponse() throws IOException {
+      if (response != null) {
+        recycleBuffer(response);
+        response = null;
       }
-      return 0;
-    }
 
+      Util.close(stream);
+      stream = null;
 
-    /**
-     * Decodes the sent headers and loads the data into java Properties' key -
-     * value pairs
-     **/
-    private void decodeHeader(BufferedReader in, Properties pre,
-                              Properties parms, Properties header) throws InterruptedException {
-      try {
-        // Read the request line
-        String inLine = in.readLine();
-        if (inLine == null)
-          return;
-        StringTokenizer st = new StringTokenizer(inLine);
-        if (!st.hasMoreTokens())
-          Log.e(TAG,
-                "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-
-        String method = st.nextToken();
-        pre.put("method", method);
-
-        if (!st.hasMoreTokens())
-          Log.e(TAG,
-                "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-
-        String uri = st.nextToken();
-
-        // Decode parameters from the URI
-        int qmi = uri.indexOf('?');
-        if (qmi >= 0) {
-          decodeParms(uri.substring(qmi + 1), parms);
-          uri = decodePercent(uri.substring(0, qmi));
-        } else
-          uri = decodePercent(uri);
-
-        // If there's another token, it's protocol version,
-        // followed by HTTP headers. Ignore version but parse headers.
-        // NOTE: this now forces header names lowercase since they are
-        // case insensitive and vary by client.
-        if (st.hasMoreTokens()) {
-          String line = in.readLine();
-          while (line != null && line.trim().length() > 0) {
-            int p = line.indexOf(':');
-            if (p >= 0)
-              header.put(line.substring(0, p).trim().toLowerCase(),
-                         line.substring(p + 1).trim());
-            line = in.readLine();
-          }
+      if (closeWhenDone) {
+        close();
+      } else {
+        try {
+          key.interestOps(SelectionKey.OP_READ);
+        } catch (IllegalStateException e) {
+          throw new ClosedChannelException();
         }
 
-        pre.put("uri", uri);
-      } catch (IOException ioe) {
-        Log.e(TAG,
-              "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+        processRequest();
       }
     }
+  }
 
-    /**
-     * Decodes parameters in percent-encoded URI-format ( e.g.
-     * "name=Jack%20Daniels&pass=Single%20Malt" ) and adds them to given
-     * Properties. NOTE: this doesn't support multiple identical keys due to the
-     * simplicity of Properties -- if you need multiples, you might want to
-     * replace the Properties with a Hashtable of Vectors or such.
-     */
-    private void decodeParms(String parms, Properties p)
-        throws InterruptedException {
-      if (parms == null)
-        return;
+  /**
+   * @return The index just past the blank line that ends the request headers, or -1 if they
+   *         haven't all arrived yet.
+   */
+  private static int findHeaderEnd(@NonNull ByteBuffer request) {
+    byte[] buffer = request.array();
 
-      StringTokenizer st = new StringTokenizer(parms, "&");
-      while (st.hasMoreTokens()) {
-        String e = st.nextToken();
-        int sep = e.indexOf('=');
-        if (sep >= 0)
-          p.put(decodePercent(e.substring(0, sep)).trim(),
-                decodePercent(e.substring(sep + 1)));
+    for (int i = 0; i + 3 < request.position(); i++) {
+      if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+        return i + 4;
       }
     }
 
-    /**
-     * Decodes the percent encoding scheme. <br/>
-     * For example: "an+example%20string" -> "an example string"
-     */
-    private String decodePercent(String str) throws InterruptedException {
-      try {
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < str.length(); i++) {
-          char c = str.charAt(i);
-          switch (c) {
-            case '+':
-              sb.append(' ');
-              break;
-            case '%':
-              sb.append((char) Integer.parseInt(
-                  str.substring(i + 1, i + 3), 16));
-              i += 2;
-              break;
-            default:
-              sb.append(c);
-              break;
-          }
-        }
-        return sb.toString();
-      } catch (Exception e) {
-        Log.e(TAG, "BAD REQUEST: Bad percent-encoding.");
-        return null;
+    return -1;
+  }
+
+  /**
+   * Parses a single "bytes=" range, including open ended and suffix ranges.
+   *
+   * @return The first and last byte of the range, or null if it can't be satisfied.
+   */
+  private static @Nullable long[] parseRange(@NonNull String range, long size) {
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+      return new long[] {0, size - 1};
+    }
+
+    String spec      = range.substring("bytes=".length()).trim();
+    int    separator = spec.indexOf('-');
+
+    if (separator < 0) return new long[] {0, size - 1};
+
+    try {
+      String first = spec.substring(0, separator).trim();
+      String last  = spec.substring(separator + 1).trim();
+
+      if (first.isEmpty()) {
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0 || size == 0) return null;
+        return new long[] {Math.max(0, size - suffix), size - 1};
       }
+
+      long start = Long.parseLong(first);
+      long end   = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+
+      if (start >= size || end < start) return null;
+
+      return new long[] {start, end};
+    } catch (NumberFormatException e) {
+      Log.w(TAG, "Bad range: " + range);
+      return new long[] {0, size - 1};
     }
   }
-}
\ No newline at end of file
+}
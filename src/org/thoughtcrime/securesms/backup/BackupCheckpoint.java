@@ -0,0 +1,111 @@
+package org.thoughtcrime.securesms.backup;
+
+
+import android.support.annotation.NonNull;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.thoughtcrime.securesms.util.JsonUtils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes what a local backup contains, so that the next backup can be written as a delta
+ * against it.
+ *
+ * A chain is a full backup followed by any number of deltas. Every file in a chain carries the
+ * chain id and its position in the chain, and the checkpoint remembers the files written so far,
+ * the time the last one was started, and the highest row id it saw in each of the tables that are
+ * backed up incrementally.
+ */
+public class BackupCheckpoint {
+
+  @JsonProperty
+  private long chainId;
+
+  @JsonProperty
+  private int sequence;
+
+  @JsonProperty
+  private long timestamp;
+
+  @JsonProperty
+  private int databaseVersion;
+
+  @JsonProperty
+  private Map<String, Long> maxIds = new HashMap<>();
+
+  @JsonProperty
+  private List<String> files = new LinkedList<>();
+
+  BackupCheckpoint(long chainId, int sequence, long timestamp, int databaseVersion,
+                   @NonNull Map<String, Long> maxIds, @NonNull List<String> files)
+  {
+    this.chainId         = chainId;
+    this.sequence        = sequence;
+    this.timestamp       = timestamp;
+    this.databaseVersion = databaseVersion;
+    this.maxIds          = maxIds;
+    this.files           = files;
+  }
+
+  @SuppressWarnings("unused")
+  public BackupCheckpoint() {
+
+  }
+
+  @JsonIgnore
+  long getChainId() {
+    return chainId;
+  }
+
+  @JsonIgnore
+  public int getSequence() {
+    return sequence;
+  }
+
+  @JsonIgnore
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  @JsonIgnore
+  public int getDatabaseVersion() {
+    return databaseVersion;
+  }
+
+  @JsonIgnore
+  long getMaxId(@NonNull String table) {
+    Long maxId = maxIds.get(table);
+    return maxId != null ? maxId : 0;
+  }
+
+  /**
+   * @return The names of the files in this chain, oldest first.
+   */
+  @JsonIgnore
+  public @NonNull List<String> getFiles() {
+    return files;
+  }
+
+  public void addFile(@NonNull String name) {
+    files.add(name);
+  }
+
+  public @NonNull String serialize() {
+    try {
+      return JsonUtils.toJson(this);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public static @NonNull BackupCheckpoint fromString(@NonNull String value) throws IOException {
+    return JsonUtils.fromJson(value, BackupCheckpoint.class);
+  }
+}
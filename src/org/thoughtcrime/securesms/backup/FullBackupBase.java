@@ -15,6 +15,12 @@ public abstract class FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupBase.class.getSimpleName();
 
+  /**
+   * Not a real preferences file. A preference frame with this file name marks which chain a backup
+   * belongs to (the key) and its position in that chain (the value).
+   */
+  static final String CHAIN_PREFERENCES = "__backup_chain__";
+
   static class BackupStream {
     static @NonNull byte[] getBackupKey(@NonNull String passphrase, @Nullable byte[] salt) {
       try {
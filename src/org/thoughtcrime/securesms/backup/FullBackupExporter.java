@@ -15,7 +15,6 @@ import com.google.protobuf.ByteString;
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.greenrobot.eventbus.EventBus;
-import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
@@ -35,17 +34,30 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -60,52 +72,221 @@ public class FullBackupExporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupExporter.class.getSimpleName();
 
-  public static void export(@NonNull Context context,
-                            @NonNull AttachmentSecret attachmentSecret,
-                            @NonNull SQLiteDatabase input,
-                            @NonNull File output,
-                            @NonNull String passphrase)
+  private static final int  QUEUE_CAPACITY    = 64;
+  private static final int  MAX_OPEN_STREAMS  = 16;
+  private static final int  CHUNK_SIZE        = 64 * 1024;
+  private static final int  CHUNK_QUEUE_SIZE  = 8;
+  private static final long POLL_INTERVAL     = 100;
+  private static final long PROGRESS_INTERVAL = 250;
+  private static final int  DELETE_BATCH_SIZE = 100;
+
+  private static final String   ROW_ID             = "_id";
+  private static final String[] INCREMENTAL_TABLES = new String[] {SmsDatabase.TABLE_NAME,
+                                                                   MmsDatabase.TABLE_NAME,
+                                                                   AttachmentDatabase.TABLE_NAME,
+                                                                   GroupReceiptDatabase.TABLE_NAME,
+                                                                   GroupReceiptDatabase.BITMAP_TABLE_NAME};
+
+  public static @NonNull BackupCheckpoint export(@NonNull Context context,
+                                                @NonNull AttachmentSecret attachmentSecret,
+                                                @NonNull SQLiteDatabase input,
+                                                @NonNull File output,
+                                                @NonNull String passphrase)
       throws IOException
   {
+    return export(context, attachmentSecret, input, output, passphrase, null);
+  }
+
+  /**
+   * Write a backup. With a previous checkpoint this is a delta that only holds what changed since
+   * that backup: new and recently received messages, their attachments and receipts, deletions of
+   * older messages, and the current contents of every other table. Later changes to messages that
+   * were already backed up, such as their read state, are only picked up by the next full backup.
+   *
+   * @param previous The checkpoint of the last backup in the chain to continue, or null to start a
+   *                 new chain with a full backup.
+   * @return The checkpoint to continue the chain from this backup.
+   */
+  public static @NonNull BackupCheckpoint export(@NonNull  Context context,
+                                                 @NonNull  AttachmentSecret attachmentSecret,
+                                                 @NonNull  SQLiteDatabase input,
+                                                 @NonNull  File output,
+                                                 @NonNull  String passphrase,
+                                                 @Nullable BackupCheckpoint previous)
+      throws IOException
+  {
+    if (previous != null && previous.getDatabaseVersion() != input.getVersion()) {
+      throw new IOException("The database was upgraded since the previous backup!");
+    }
+
+    BackupCheckpoint        checkpoint   = createCheckpoint(input, previous);
     BackupFrameOutputStream outputStream = new BackupFrameOutputStream(output, passphrase);
-    outputStream.writeDatabaseVersion(input.getVersion());
-
-    List<String> tables = exportSchema(input, outputStream);
-    int          count  = 0;
-
-    for (String table : tables) {
-      if (table.equals(SmsDatabase.TABLE_NAME) || table.equals(MmsDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0, null, count);
-      } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
-      } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
-      } else if (!table.equals(SignedPreKeyDatabase.TABLE_NAME)       &&
-                 !table.equals(OneTimePreKeyDatabase.TABLE_NAME)      &&
-                 !table.equals(SessionDatabase.TABLE_NAME)            &&
-                 !table.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME) &&
-                 !table.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME))
-      {
-        count = exportTable(table, input, outputStream, null, null, count);
+    ExportPipeline          pipeline     = new ExportPipeline(outputStream);
+    Progress                progress     = new Progress();
+
+    try {
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(input.getVersion()))
+                                             .build());
+
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setPreference(BackupProtos.SharedPreference.newBuilder()
+                                                                                         .setFile(CHAIN_PREFERENCES)
+                                                                                         .setKey(String.valueOf(checkpoint.getChainId()))
+                                                                                         .setValue(String.valueOf(checkpoint.getSequence())))
+                                             .build());
+
+      List<String> tables = exportSchema(input, pipeline, previous == null);
+      String       insert = previous == null ? "INSERT" : "INSERT OR REPLACE";
+
+      for (String table : tables) {
+        if (table.equals(SmsDatabase.TABLE_NAME) || table.equals(MmsDatabase.TABLE_NAME)) {
+          if (previous != null) exportDeletions(table, input, pipeline, previous.getMaxId(table));
+          exportTable(table, input, pipeline, getChangedRows(table, previous), insert, cursor -> cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0, null, progress);
+        } else if (table.equals(GroupReceiptDatabase.TABLE_NAME) || table.equals(GroupReceiptDatabase.BITMAP_TABLE_NAME)) {
+          exportTable(table, input, pipeline, getChangedRows(table, previous), insert, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, progress);
+        } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
+          exportTable(table, input, pipeline, null, insert, cursor -> (previous == null || isChangedAttachment(cursor, previous)) && isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, pipeline), progress);
+        } else if (!table.equals(SignedPreKeyDatabase.TABLE_NAME)       &&
+                   !table.equals(OneTimePreKeyDatabase.TABLE_NAME)      &&
+                   !table.equals(SessionDatabase.TABLE_NAME)            &&
+                   !table.equals(SearchDatabase.JOURNAL_TABLE_NAME)     &&
+                   !table.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME) &&
+                   !table.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME))
+        {
+          if (previous != null) {
+            pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                                   .setStatement(BackupProtos.SqlStatement.newBuilder().setStatement("DELETE FROM " + table))
+                                                   .build());
+          }
+
+          exportTable(table, input, pipeline, null, "INSERT", null, null, progress);
+        }
+      }
+
+      for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
+        progress.increment();
+        pipeline.write(BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
+      }
+
+      for (File avatar : AvatarHelper.getAvatarFiles(context)) {
+        progress.increment();
+
+        if (previous != null && avatar.lastModified() < previous.getTimestamp()) {
+          continue;
+        }
+
+        pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                               .setAvatar(BackupProtos.Avatar.newBuilder()
+                                                                             .setName(avatar.getName())
+                                                                             .setLength(Util.toIntExact(avatar.length()))
+                                                                             .build())
+                                               .build(),
+                       new FileInputStream(avatar));
       }
+
+      pipeline.write(BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      pipeline.finish();
+    } finally {
+      pipeline.close();
     }
 
-    for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-      outputStream.write(preference);
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, progress.getCount() + 1));
+
+    return checkpoint;
+  }
+
+  private static @NonNull BackupCheckpoint createCheckpoint(@NonNull SQLiteDatabase input, @Nullable BackupCheckpoint previous) {
+    long              timestamp = System.currentTimeMillis();
+    Map<String, Long> maxIds    = new HashMap<>();
+
+    for (String table : INCREMENTAL_TABLES) {
+      try (Cursor cursor = input.rawQuery("SELECT MAX(" + ROW_ID + ") FROM " + table, null)) {
+        if (cursor != null && cursor.moveToFirst()) {
+          maxIds.put(table, cursor.getLong(0));
+        }
+      }
+    }
+
+    if (previous == null) {
+      return new BackupCheckpoint(timestamp, 0, timestamp, input.getVersion(), maxIds, new LinkedList<>());
+    } else {
+      return new BackupCheckpoint(previous.getChainId(), previous.getSequence() + 1, timestamp, input.getVersion(), maxIds, new LinkedList<>(previous.getFiles()));
     }
+  }
+
+  private static @Nullable String getChangedRows(@NonNull String table, @Nullable BackupCheckpoint previous) {
+    if (previous == null) return null;
+
+    String newRows = ROW_ID + " > " + previous.getMaxId(table);
+    long   since   = previous.getTimestamp();
 
-    for (File avatar : AvatarHelper.getAvatarFiles(context)) {
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-      outputStream.write(avatar.getName(), new FileInputStream(avatar), avatar.length());
+    if (table.equals(SmsDatabase.TABLE_NAME)) {
+      return newRows + " OR " + SmsDatabase.DATE_RECEIVED + " >= " + since;
+    } else if (table.equals(MmsDatabase.TABLE_NAME)) {
+      return newRows + " OR " + MmsDatabase.DATE_RECEIVED + " >= " + since;
+    } else {
+      return newRows + " OR " + GroupReceiptDatabase.MMS_ID + " IN (SELECT " + MmsDatabase.ID + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsDatabase.DATE_RECEIVED + " >= " + since + ")";
     }
+  }
+
+  /**
+   * Attachments are new if their row or unique id is, but an older attachment may also have been
+   * downloaded since the previous backup, so the time its file was written is checked too.
+   */
+  private static boolean isChangedAttachment(@NonNull Cursor cursor, @NonNull BackupCheckpoint previous) {
+    long   rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long   uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    String data     = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
+
+    return rowId > previous.getMaxId(AttachmentDatabase.TABLE_NAME) ||
+           uniqueId >= previous.getTimestamp()                      ||
+           (!TextUtils.isEmpty(data) && new File(data).lastModified() >= previous.getTimestamp());
+  }
+
+  /**
+   * Delete every message up to the previous backup's highest id that no longer exists, as ranges
+   * of missing ids. Ranges that were never backed up in the first place are deleted harmlessly.
+   * Attachments and receipts of deleted messages are trimmed by the importer.
+   */
+  private static void exportDeletions(@NonNull String table, @NonNull SQLiteDatabase input, @NonNull ExportPipeline pipeline, long maxId)
+      throws IOException
+  {
+    List<Long> ranges   = new ArrayList<>();
+    long       expected = 1;
+
+    try (Cursor cursor = input.rawQuery("SELECT " + ROW_ID + " FROM " + table + " WHERE " + ROW_ID + " <= " + maxId + " ORDER BY " + ROW_ID, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long id = cursor.getLong(0);
+
+        if (id > expected) {
+          ranges.add(expected);
+          ranges.add(id - 1);
+        }
+
+        expected = id + 1;
+      }
+    }
+
+    if (expected <= maxId) {
+      ranges.add(expected);
+      ranges.add(maxId);
+    }
+
+    for (int i=0;i<ranges.size();i+=DELETE_BATCH_SIZE*2) {
+      List<Long>    batch     = ranges.subList(i, Math.min(ranges.size(), i + DELETE_BATCH_SIZE*2));
+      StringBuilder statement = new StringBuilder("DELETE FROM " + table + " WHERE ");
+
+      for (int j=0;j<batch.size();j+=2) {
+        if (j > 0) statement.append(" OR ");
+        statement.append(ROW_ID).append(" BETWEEN ? AND ?");
+      }
 
-    outputStream.writeEnd();
-    outputStream.close();
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+      pipeline.write(statement.toString(), batch.toArray());
+    }
   }
 
-  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
+  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull ExportPipeline pipeline, boolean writeStatements)
       throws IOException
   {
     List<String> tables = new LinkedList<>();
@@ -126,7 +307,11 @@ public class FullBackupExporter extends FullBackupBase {
               tables.add(name);
             }
 
-            outputStream.write(BackupProtos.SqlStatement.newBuilder().setStatement(cursor.getString(0)).build());
+            if (writeStatements) {
+              pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                                     .setStatement(BackupProtos.SqlStatement.newBuilder().setStatement(sql))
+                                                     .build());
+            }
           }
         }
       }
@@ -135,61 +320,74 @@ public class FullBackupExporter extends FullBackupBase {
     return tables;
   }
 
-  private static int exportTable(@NonNull   String table,
-                                 @NonNull   SQLiteDatabase input,
-                                 @NonNull   BackupFrameOutputStream outputStream,
-                                 @Nullable  Predicate<Cursor> predicate,
-                                 @Nullable  Consumer<Cursor> postProcess,
-                                            int count)
+  private static void exportTable(@NonNull   String table,
+                                  @NonNull   SQLiteDatabase input,
+                                  @NonNull   ExportPipeline pipeline,
+                                  @Nullable  String where,
+                                  @NonNull   String insert,
+                                  @Nullable  Predicate<Cursor> predicate,
+                                  @Nullable  Consumer<Cursor> postProcess,
+                                  @NonNull   Progress progress)
       throws IOException
   {
-    String template = "INSERT INTO " + table + " VALUES ";
+    String query = "SELECT * FROM " + table + (where != null ? " WHERE " + where : "");
+
+    try (Cursor cursor = input.rawQuery(query, null)) {
+      String statement = null;
 
-    try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
       while (cursor != null && cursor.moveToNext()) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+        progress.increment();
 
         if (predicate == null || predicate.test(cursor)) {
-          StringBuilder                     statement        = new StringBuilder(template);
-          BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
-
-          statement.append('(');
+          if (statement == null) {
+            statement = getInsertStatement(insert, table, cursor.getColumnCount());
+          }
 
-          for (int i=0;i<cursor.getColumnCount();i++) {
-            statement.append('?');
+          Object[] values = new Object[cursor.getColumnCount()];
 
+          for (int i=0;i<values.length;i++) {
             if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));
+              values[i] = cursor.getString(i);
             } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));
+              values[i] = cursor.getDouble(i);
             } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));
+              values[i] = cursor.getLong(i);
             } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i))));
+              values[i] = cursor.getBlob(i);
             } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
+              values[i] = null;
             } else {
               throw new AssertionError("unknown type?"  + cursor.getType(i));
             }
-
-            if (i < cursor.getColumnCount()-1) {
-              statement.append(',');
-            }
           }
 
-          statement.append(')');
-
-          outputStream.write(statementBuilder.setStatement(statement.toString()).build());
+          pipeline.write(statement, values);
 
           if (postProcess != null) postProcess.accept(cursor);
         }
       }
     }
+  }
+
+  private static @NonNull String getInsertStatement(@NonNull String insert, @NonNull String table, int columnCount) {
+    StringBuilder statement = new StringBuilder(insert + " INTO " + table + " VALUES ");
+
+    statement.append('(');
+
+    for (int i=0;i<columnCount;i++) {
+      statement.append('?');
+
+      if (i < columnCount-1) {
+        statement.append(',');
+      }
+    }
+
+    statement.append(')');
 
-    return count;
+    return statement.toString();
   }
 
-  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
+  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull ExportPipeline pipeline) {
     try {
       long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
       long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
@@ -208,7 +406,14 @@ public class FullBackupExporter extends FullBackupBase {
         if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
         else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
 
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+        pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                               .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                                     .setRowId(rowId)
+                                                                                     .setAttachmentId(uniqueId)
+                                                                                     .setLength(Util.toIntExact(size))
+                                                                                     .build())
+                                               .build(),
+                       inputStream);
       }
     } catch (IOException e) {
       Log.w(TAG, e);
@@ -247,14 +452,320 @@ public class FullBackupExporter extends FullBackupBase {
   }
 
 
-  private static class BackupFrameOutputStream extends BackupStream {
+  /**
+   * Writes a backup through four stages, each on its own thread and connected by bounded queues:
+   * the calling thread reads rows from the database, an encoder thread turns them into frames, a
+   * decryptor thread reads attachment and avatar files into chunks, and a writer thread encrypts,
+   * MACs and writes everything out in the order it was read. A stage that is ahead of the others
+   * blocks once its queue is full, and a stage that fails stops the rest, so its error is thrown
+   * to the caller from the next write or from {@link #finish()}.
+   */
+  private static class ExportPipeline {
+
+    private static final Object END = new Object();
+    private static final byte[] EOF = new byte[0];
+
+    private final BlockingQueue<Object>      encodeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Object>      writeQueue  = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore                  openStreams = new Semaphore(MAX_OPEN_STREAMS);
+    private final ExecutorService            decryptor   = Executors.newSingleThreadExecutor();
+    private final AtomicReference<Throwable> failure     = new AtomicReference<>();
+
+    private final BackupFrameOutputStream outputStream;
+    private final Thread                  encoder;
+    private final Thread                  writer;
+
+    private ExportPipeline(@NonNull BackupFrameOutputStream outputStream) {
+      this.outputStream = outputStream;
+      this.encoder      = new Thread(this::runEncoder, "BackupEncoder");
+      this.writer       = new Thread(this::runWriter, "BackupWriter");
+
+      encoder.start();
+      writer.start();
+    }
+
+    void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
+      put(encodeQueue, frame);
+    }
 
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+    void write(@NonNull String statement, @NonNull Object[] values) throws IOException {
+      put(encodeQueue, new Row(statement, values));
+    }
 
-    private final byte[]       cipherKey;
-    private final byte[]       macKey;
+    /**
+     * Write a frame followed by the contents of a stream. The stream is read and closed on the
+     * decryptor thread.
+     */
+    void write(@NonNull BackupProtos.BackupFrame header, @NonNull InputStream in) throws IOException {
+      StreamFrame stream = new StreamFrame(header);
+
+      try {
+        acquire(openStreams);
+      } catch (IOException e) {
+        Util.close(in);
+        throw e;
+      }
+
+      decryptor.execute(() -> runDecryptor(in, stream.chunks));
+      put(encodeQueue, stream);
+    }
+
+    /**
+     * Wait for everything written so far to reach the output.
+     */
+    void finish() throws IOException {
+      put(encodeQueue, END);
+      join(writer);
+      throwIfFailed();
+    }
+
+    /**
+     * Stop all of the stages and close the output. Anything not yet written is discarded.
+     */
+    void close() {
+      failure.compareAndSet(null, new IOException("Export closed"));
+      decryptor.shutdown();
+
+      join(encoder);
+      join(writer);
+
+      try {
+        outputStream.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    private void runEncoder() {
+      try {
+        Object item;
+
+        do {
+          item = take(encodeQueue);
+
+          if (item instanceof Row) {
+            put(writeQueue, ((Row)item).encode());
+          } else if (item instanceof BackupProtos.BackupFrame) {
+            put(writeQueue, ((BackupProtos.BackupFrame)item).toByteArray());
+          } else if (item instanceof StreamFrame) {
+            ((StreamFrame)item).encode();
+            put(writeQueue, item);
+          } else {
+            put(writeQueue, item);
+          }
+        } while (item != END);
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    private void runDecryptor(@NonNull InputStream in, @NonNull BlockingQueue<byte[]> chunks) {
+      try {
+        int read;
+
+        do {
+          byte[] chunk = new byte[CHUNK_SIZE];
+          read = in.read(chunk);
+
+          if      (read == chunk.length) put(chunks, chunk);
+          else if (read > 0)             put(chunks, Arrays.copyOf(chunk, read));
+        } while (read != -1);
+
+        put(chunks, EOF);
+      } catch (Throwable t) {
+        fail(t);
+      } finally {
+        Util.close(in);
+        openStreams.release();
+      }
+    }
+
+    private void runWriter() {
+      try {
+        Object item;
+
+        while ((item = take(writeQueue)) != END) {
+          if (item instanceof StreamFrame) {
+            outputStream.write(((StreamFrame)item).encoded);
+            outputStream.writeStream(new ChunkInputStream(((StreamFrame)item).chunks));
+          } else {
+            outputStream.write((byte[])item);
+          }
+        }
+
+        outputStream.flush();
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    private void fail(@NonNull Throwable t) {
+      if (failure.compareAndSet(null, t)) {
+        Log.w(TAG, t);
+      }
+    }
+
+    private void throwIfFailed() throws IOException {
+      Throwable t = failure.get();
+
+      if      (t instanceof IOException) throw (IOException)t;
+      else if (t != null)                throw new IOException(t);
+    }
+
+    private <T> void put(@NonNull BlockingQueue<T> queue, @NonNull T item) throws IOException {
+      try {
+        do {
+          throwIfFailed();
+        } while (!queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    private <T> T take(@NonNull BlockingQueue<T> queue) throws IOException {
+      try {
+        T item;
+
+        while ((item = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+          throwIfFailed();
+        }
+
+        return item;
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    private void acquire(@NonNull Semaphore semaphore) throws IOException {
+      try {
+        do {
+          throwIfFailed();
+        } while (!semaphore.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    private void join(@NonNull Thread thread) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Log.w(TAG, e);
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private class ChunkInputStream extends InputStream {
+
+      private final BlockingQueue<byte[]> chunks;
+
+      private byte[] chunk  = new byte[0];
+      private int    offset = 0;
+
+      private ChunkInputStream(@NonNull BlockingQueue<byte[]> chunks) {
+        this.chunks = chunks;
+      }
+
+      @Override
+      public int read() throws IOException {
+        byte[] buffer = new byte[1];
+        return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+      }
+
+      @Override
+      public int read(@NonNull byte[] buffer, int off, int len) throws IOException {
+        if (chunk == EOF) return -1;
+
+        if (offset == chunk.length) {
+          chunk  = take(chunks);
+          offset = 0;
+
+          if (chunk == EOF) return -1;
+        }
+
+        int read = Math.min(len, chunk.length - offset);
+        System.arraycopy(chunk, offset, buffer, off, read);
+        offset += read;
+
+        return read;
+      }
+    }
+  }
+
+  private static class Row {
+    private final String   statement;
+    private final Object[] values;
+
+    private Row(@NonNull String statement, @NonNull Object[] values) {
+      this.statement = statement;
+      this.values    = values;
+    }
+
+    private @NonNull byte[] encode() {
+      BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder().setStatement(statement);
+
+      for (Object value : values) {
+        if (value instanceof String) {
+          statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter((String)value));
+        } else if (value instanceof Double) {
+          statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter((Double)value));
+        } else if (value instanceof Long) {
+          statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter((Long)value));
+        } else if (value instanceof byte[]) {
+          statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom((byte[])value)));
+        } else {
+          statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
+        }
+      }
+
+      return BackupProtos.BackupFrame.newBuilder().setStatement(statementBuilder).build().toByteArray();
+    }
+  }
+
+  private static class StreamFrame {
+    private final BackupProtos.BackupFrame header;
+    private final BlockingQueue<byte[]>    chunks = new ArrayBlockingQueue<>(CHUNK_QUEUE_SIZE);
+
+    private byte[] encoded;
+
+    private StreamFrame(@NonNull BackupProtos.BackupFrame header) {
+      this.header = header;
+    }
+
+    private void encode() {
+      encoded = header.toByteArray();
+    }
+  }
+
+  /**
+   * Counts exported items, posting a progress event at most once every {@link #PROGRESS_INTERVAL}.
+   */
+  private static class Progress {
+    private int  count;
+    private long lastPosted;
+
+    void increment() {
+      count++;
+
+      long now = System.currentTimeMillis();
+
+      if (now - lastPosted >= PROGRESS_INTERVAL) {
+        lastPosted = now;
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+      }
+    }
+
+    int getCount() {
+      return count;
+    }
+  }
+
+  private static class BackupFrameOutputStream extends BackupStream {
+
+    private final OutputStream  outputStream;
+    private final Cipher        cipher;
+    private final Mac           mac;
+    private final SecretKeySpec cipherKey;
 
     private byte[] iv;
     private int    counter;
@@ -266,16 +777,14 @@ public class FullBackupExporter extends FullBackupBase {
         byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
         byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-        this.cipherKey = split[0];
-        this.macKey    = split[1];
-
+        this.cipherKey    = new SecretKeySpec(split[0], "AES");
         this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
         this.mac          = Mac.getInstance("HmacSHA256");
-        this.outputStream = new FileOutputStream(output);
+        this.outputStream = new BufferedOutputStream(new FileOutputStream(output), CHUNK_SIZE);
         this.iv           = Util.getSecretBytes(16);
         this.counter      = Conversions.byteArrayToInt(iv);
 
-        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        mac.init(new SecretKeySpec(split[1], "HmacSHA256"));
 
         byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
                                                                                            .setIv(ByteString.copyFrom(iv))
@@ -289,54 +798,13 @@ public class FullBackupExporter extends FullBackupBase {
       }
     }
 
-    public void write(BackupProtos.SharedPreference preference) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
-    }
-
-    public void write(BackupProtos.SqlStatement statement) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
-    }
-
-    public void write(@NonNull String avatarName, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAvatar(BackupProtos.Avatar.newBuilder()
-                                                                                .setName(avatarName)
-                                                                                .setLength(Util.toIntExact(size))
-                                                                                .build())
-                                                  .build());
-
-      writeStream(in);
-    }
-
-    public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAttachment(BackupProtos.Attachment.newBuilder()
-                                                                                        .setRowId(attachmentId.getRowId())
-                                                                                        .setAttachmentId(attachmentId.getUniqueId())
-                                                                                        .setLength(Util.toIntExact(size))
-                                                                                        .build())
-                                                  .build());
-
-      writeStream(in);
-    }
-
-    void writeDatabaseVersion(int version) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
-                                                  .build());
-    }
-
-    void writeEnd() throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
-    }
-
-    private void writeStream(@NonNull InputStream inputStream) throws IOException {
+    void writeStream(@NonNull InputStream inputStream) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
         mac.update(iv);
 
-        byte[] buffer = new byte[8192];
+        byte[] buffer = new byte[CHUNK_SIZE];
         int read;
 
         while ((read = inputStream.read(buffer)) != -1) {
@@ -359,25 +827,28 @@ public class FullBackupExporter extends FullBackupBase {
       }
     }
 
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
+    void write(@NonNull byte[] frame) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
 
-        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
+        byte[] frameCiphertext = cipher.doFinal(frame);
         byte[] frameMac        = mac.doFinal(frameCiphertext);
         byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
 
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
+        outputStream.write(length);
+        outputStream.write(frameCiphertext);
+        outputStream.write(frameMac, 0, 10);
       } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
         throw new AssertionError(e);
       }
     }
 
+    void flush() throws IOException {
+      outputStream.flush();
+    }
 
-    public void close() throws IOException {
+    void close() throws IOException {
       outputStream.close();
     }
   }
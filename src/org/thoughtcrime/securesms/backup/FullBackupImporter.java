@@ -7,10 +7,12 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
@@ -35,6 +37,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -46,8 +49,12 @@ import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -62,30 +69,61 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupImporter.class.getSimpleName();
 
+  private static final Pattern CREATE_INDEX   = Pattern.compile("\\s*CREATE\\s+(UNIQUE\\s+)?INDEX\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern CREATE_TRIGGER = Pattern.compile("\\s*CREATE\\s+(TEMP\\s+|TEMPORARY\\s+)?TRIGGER\\b", Pattern.CASE_INSENSITIVE);
+
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull File file, @NonNull String passphrase)
       throws IOException
   {
-    BackupRecordInputStream inputStream = new BackupRecordInputStream(file, passphrase);
-    int                     count       = 0;
+    importFiles(context, attachmentSecret, db, Collections.singletonList(file), passphrase);
+  }
 
-    try {
+  /**
+   * Restore a chain of backups: a full backup followed by the deltas written after it, oldest
+   * first. The whole chain is restored in one transaction, so if any file is missing, out of
+   * order or from another chain, nothing is restored.
+   */
+  public static void importFiles(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase db, @NonNull List<File> files, @NonNull String passphrase)
+      throws IOException
+  {
+    int  count   = 0;
+    Long chainId = null;
+
+    try (StatementProcessor statements = new StatementProcessor(db)) {
       db.beginTransaction();
 
       dropAllTables(db);
 
-      BackupFrame frame;
-
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
-
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, frame.getAvatar(), inputStream);
+      for (int sequence=0;sequence<files.size();sequence++) {
+        try (BackupRecordInputStream inputStream = new BackupRecordInputStream(files.get(sequence), passphrase)) {
+          boolean     verified = sequence == 0;
+          BackupFrame frame;
+
+          while (!(frame = inputStream.readFrame()).getEnd()) {
+            if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+
+            if (frame.hasPreference() && CHAIN_PREFERENCES.equals(frame.getPreference().getFile())) {
+              chainId  = processChain(frame.getPreference(), chainId, sequence);
+              verified = true;
+              continue;
+            }
+
+            if (!verified && !frame.hasVersion()) {
+              throw new IOException("Delta backup is not marked with its chain: " + files.get(sequence));
+            }
+
+            if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+            else if (frame.hasStatement())  statements.process(frame.getStatement());
+            else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+            else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
+            else if (frame.hasAvatar())     processAvatar(context, frame.getAvatar(), inputStream);
+          }
+        }
       }
 
+      statements.finish();
       trimEntriesForExpiredMessages(context, db);
 
       db.setTransactionSuccessful();
@@ -96,31 +134,23 @@ public class FullBackupImporter extends FullBackupBase {
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
   }
 
-  private static void processVersion(@NonNull SQLiteDatabase db, DatabaseVersion version) {
-    db.setVersion(version.getVersion());
-  }
-
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
-    boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
-    boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
-
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable) {
-      Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
-      return;
-    }
+  private static long processChain(@NonNull SharedPreference marker, @Nullable Long chainId, int sequence) throws IOException {
+    try {
+      long markedChainId  = Long.parseLong(marker.getKey());
+      int  markedSequence = Integer.parseInt(marker.getValue());
 
-    List<Object> parameters = new LinkedList<>();
+      if (markedSequence != sequence || (sequence > 0 && (chainId == null || chainId != markedChainId))) {
+        throw new IOException("Backup " + markedChainId + "/" + markedSequence + " does not follow " + chainId + "/" + (sequence - 1));
+      }
 
-    for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
-      if      (parameter.hasStringParamter())   parameters.add(parameter.getStringParamter());
-      else if (parameter.hasDoubleParameter())  parameters.add(parameter.getDoubleParameter());
-      else if (parameter.hasIntegerParameter()) parameters.add(parameter.getIntegerParameter());
-      else if (parameter.hasBlobParameter())    parameters.add(parameter.getBlobParameter().toByteArray());
-      else if (parameter.hasNullparameter())    parameters.add(null);
+      return markedChainId;
+    } catch (NumberFormatException e) {
+      throw new IOException(e);
     }
+  }
 
-    if (parameters.size() > 0) db.execSQL(statement.getStatement(), parameters.toArray());
-    else                       db.execSQL(statement.getStatement());
+  private static void processVersion(@NonNull SQLiteDatabase db, DatabaseVersion version) {
+    db.setVersion(version.getVersion());
   }
 
   private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
@@ -170,6 +200,7 @@ public class FullBackupImporter extends FullBackupBase {
     String trimmedCondition = " NOT IN (SELECT " + MmsDatabase.ID + " FROM " + MmsDatabase.TABLE_NAME + ")";
 
     db.delete(GroupReceiptDatabase.TABLE_NAME, GroupReceiptDatabase.MMS_ID + trimmedCondition, null);
+    db.delete(GroupReceiptDatabase.BITMAP_TABLE_NAME, GroupReceiptDatabase.MMS_ID + trimmedCondition, null);
 
     String[] columns = new String[] { AttachmentDatabase.ROW_ID, AttachmentDatabase.UNIQUE_ID };
     String   where   = AttachmentDatabase.MMS_ID + trimmedCondition;
@@ -187,7 +218,100 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
-  private static class BackupRecordInputStream extends BackupStream {
+  /**
+   * Replays the statements in a backup. Nearly all of them are inserts, and every row of a table
+   * is inserted with the same statement, so each distinct statement with parameters is compiled
+   * once and then only rebound. Indexes and triggers are created after all of the rows are in, so
+   * that rows aren't indexed one at a time, and the search index is rebuilt once in a single pass
+   * rather than by journaling every restored message.
+   */
+  private static class StatementProcessor implements Closeable {
+
+    private final SQLiteDatabase               db;
+    private final Map<String, SQLiteStatement> compiled = new HashMap<>();
+    private final List<String>                 indexes  = new LinkedList<>();
+    private final List<String>                 triggers = new LinkedList<>();
+
+    private StatementProcessor(@NonNull SQLiteDatabase db) {
+      this.db = db;
+    }
+
+    void process(@NonNull SqlStatement statement) {
+      String sql = statement.getStatement();
+
+      boolean isForSmsFtsSecretTable = sql.contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
+      boolean isForMmsFtsSecretTable = sql.contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
+
+      if (isForSmsFtsSecretTable || isForMmsFtsSecretTable) {
+        Log.i(TAG, "Ignoring import for statement: " + sql);
+        return;
+      }
+
+      if (CREATE_INDEX.matcher(sql).lookingAt()) {
+        indexes.add(sql);
+      } else if (CREATE_TRIGGER.matcher(sql).lookingAt()) {
+        triggers.add(sql);
+      } else if (statement.getParametersCount() > 0) {
+        SQLiteStatement compiledStatement = compiled.get(sql);
+
+        if (compiledStatement == null) {
+          compiledStatement = db.compileStatement(sql);
+          compiled.put(sql, compiledStatement);
+        }
+
+        compiledStatement.clearBindings();
+
+        for (int i=0;i<statement.getParametersCount();i++) {
+          SqlStatement.SqlParameter parameter = statement.getParameters(i);
+
+          if      (parameter.hasStringParamter())   compiledStatement.bindString(i + 1, parameter.getStringParamter());
+          else if (parameter.hasDoubleParameter())  compiledStatement.bindDouble(i + 1, parameter.getDoubleParameter());
+          else if (parameter.hasIntegerParameter()) compiledStatement.bindLong(i + 1, parameter.getIntegerParameter());
+          else if (parameter.hasBlobParameter())    compiledStatement.bindBlob(i + 1, parameter.getBlobParameter().toByteArray());
+          else                                      compiledStatement.bindNull(i + 1);
+        }
+
+        compiledStatement.execute();
+      } else {
+        db.execSQL(sql);
+      }
+    }
+
+    /**
+     * Create the indexes and triggers that were held back, and rebuild the search index.
+     */
+    void finish() {
+      for (String index : indexes) {
+        db.execSQL(index);
+      }
+
+      for (String trigger : triggers) {
+        db.execSQL(trigger);
+      }
+
+      for (String ftsTable : new String[] {SearchDatabase.SMS_FTS_TABLE_NAME, SearchDatabase.MMS_FTS_TABLE_NAME}) {
+        try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] {ftsTable})) {
+          if (cursor != null && cursor.moveToFirst()) {
+            db.execSQL("INSERT INTO " + ftsTable + " (" + ftsTable + ") VALUES ('rebuild')");
+          }
+        }
+      }
+
+      indexes.clear();
+      triggers.clear();
+    }
+
+    @Override
+    public void close() {
+      for (SQLiteStatement statement : compiled.values()) {
+        statement.close();
+      }
+
+      compiled.clear();
+    }
+  }
+
+  private static class BackupRecordInputStream extends BackupStream implements Closeable {
 
     private final InputStream in;
     private final Cipher      cipher;
@@ -295,6 +419,11 @@ public class FullBackupImporter extends FullBackupBase {
       }
     }
 
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
     private BackupFrame readFrame(InputStream in) throws IOException {
       try {
         byte[] length = new byte[4];
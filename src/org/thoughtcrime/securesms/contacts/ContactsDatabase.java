@@ -41,9 +41,9 @@ import org.thoughtcrime.securesms.ContactSelectionListFragment;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -99,25 +99,41 @@ public class ContactsDatabase {
     }
   }
 
+  /**
+   * Reconciles the Signal raw contacts in the given account with the list of registered users.
+   *
+   * The current raw contacts are loaded once, along with an index of every system contact number
+   * when there are new users to add, and then diffed against the list locally so that all of the
+   * changes can be applied in one batch.
+   */
   public synchronized void setRegisteredUsers(@NonNull Account account,
                                               @NonNull List<Address> registeredAddressList,
                                               boolean remove)
       throws RemoteException, OperationApplicationException
   {
-    Set<Address>                        registeredAddressSet = new HashSet<>();
+    long                                startMillis          = System.currentTimeMillis();
+    Set<Address>                        registeredAddressSet = new HashSet<>(registeredAddressList);
     ArrayList<ContentProviderOperation> operations           = new ArrayList<>();
     Map<Address, SignalContact>         currentContacts      = getSignalRawContacts(account);
+    Map<Address, SystemContactInfo>     systemContacts       = null;
 
-    for (Address registeredAddress : registeredAddressList) {
-      registeredAddressSet.add(registeredAddress);
+    for (Address registeredAddress : registeredAddressSet) {
+      if (!currentContacts.containsKey(registeredAddress) && registeredAddress.isPhone()) {
+        systemContacts = getSystemContactIndex(currentContacts.values());
+        break;
+      }
+    }
 
-      if (!currentContacts.containsKey(registeredAddress)) {
-        Optional<SystemContactInfo> systemContactInfo = getSystemContactInfo(registeredAddress);
+    long loadedMillis = System.currentTimeMillis();
 
-        if (systemContactInfo.isPresent()) {
+    for (Address registeredAddress : registeredAddressSet) {
+      if (!currentContacts.containsKey(registeredAddress) && systemContacts != null) {
+        SystemContactInfo systemContactInfo = systemContacts.get(registeredAddress);
+
+        if (systemContactInfo != null) {
           Log.w(TAG, "Adding number: " + registeredAddress);
-          addTextSecureRawContact(operations, account, systemContactInfo.get().number,
-                                  systemContactInfo.get().name, systemContactInfo.get().id);
+          addTextSecureRawContact(operations, account, systemContactInfo.number,
+                                  systemContactInfo.name, systemContactInfo.id);
         }
       }
     }
@@ -139,9 +155,18 @@ public class ContactsDatabase {
       }
     }
 
+    long diffedMillis = System.currentTimeMillis();
+
     if (!operations.isEmpty()) {
       context.getContentResolver().applyBatch(ContactsContract.AUTHORITY, operations);
     }
+
+    long appliedMillis = System.currentTimeMillis();
+
+    Log.i(TAG, "setRegisteredUsers() -> load: " + (loadedMillis - startMillis) + "ms" +
+               " (" + currentContacts.size() + " raw contacts, " + (systemContacts != null ? systemContacts.size() : 0) + " system numbers)" +
+               ", diff: " + (diffedMillis - loadedMillis) + "ms" +
+               ", apply: " + (appliedMillis - diffedMillis) + "ms (" + operations.size() + " operations)");
   }
 
   @SuppressLint("Recycle")
@@ -451,6 +476,7 @@ public class ContactsDatabase {
                                                     .appendQueryParameter(RawContacts.ACCOUNT_TYPE, account.type).build();
 
     Map<Address, SignalContact> signalContacts = new HashMap<>();
+    Map<Address, Long>          contactIds     = new HashMap<>();
     Cursor                      cursor         = null;
 
     try {
@@ -464,75 +490,81 @@ public class ContactsDatabase {
         long    contactId                   = cursor.getLong(3);
         String  supportsVoice               = cursor.getString(2);
         String  rawContactDisplayName       = cursor.getString(4);
-        String  aggregateDisplayName        = getDisplayName(contactId);
         int     rawContactDisplayNameSource = cursor.getInt(5);
 
-        signalContacts.put(currentAddress, new SignalContact(rawContactId, supportsVoice, rawContactDisplayName, aggregateDisplayName, rawContactDisplayNameSource));
+        signalContacts.put(currentAddress, new SignalContact(rawContactId, supportsVoice, rawContactDisplayName, null, rawContactDisplayNameSource));
+        contactIds.put(currentAddress, contactId);
       }
     } finally {
       if (cursor != null)
         cursor.close();
     }
 
+    Map<Long, String> displayNames = getDisplayNames(contactIds.values());
+
+    for (Map.Entry<Address, Long> entry : contactIds.entrySet()) {
+      SignalContact contact = signalContacts.get(entry.getKey());
+
+      signalContacts.put(entry.getKey(), new SignalContact(contact.getId(), contact.supportsVoice, contact.getRawDisplayName(),
+                                                           displayNames.get(entry.getValue()), contact.getDisplayNameSource()));
+    }
+
     return signalContacts;
   }
 
-  private Optional<SystemContactInfo> getSystemContactInfo(@NonNull Address address)
-  {
-    if (!address.isPhone()) return Optional.absent();
+  /**
+   * @return Every phone number in the system contacts, keyed by its normalized address, along with
+   *         the raw contact it belongs to. Numbers on our own raw contacts are left out.
+   */
+  private @NonNull Map<Address, SystemContactInfo> getSystemContactIndex(@NonNull Collection<SignalContact> signalContacts) {
+    Map<Address, SystemContactInfo> index             = new HashMap<>();
+    Set<Long>                       signalRawContacts = new HashSet<>();
 
-    Uri      uri          = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(address.toPhoneString()));
-    String[] projection   = {ContactsContract.PhoneLookup.NUMBER,
-                             ContactsContract.PhoneLookup._ID,
-                             ContactsContract.PhoneLookup.DISPLAY_NAME};
-    Cursor   numberCursor = null;
-    Cursor   idCursor     = null;
+    for (SignalContact signalContact : signalContacts) {
+      signalRawContacts.add(signalContact.getId());
+    }
 
-    try {
-      numberCursor = context.getContentResolver().query(uri, projection, null, null, null);
-
-      while (numberCursor != null && numberCursor.moveToNext()) {
-        String  systemNumber  = numberCursor.getString(0);
-        Address systemAddress = Address.fromExternal(context, systemNumber);
-
-        if (systemAddress.equals(address)) {
-          idCursor = context.getContentResolver().query(RawContacts.CONTENT_URI,
-                                                        new String[] {RawContacts._ID},
-                                                        RawContacts.CONTACT_ID + " = ? ",
-                                                        new String[] {String.valueOf(numberCursor.getLong(1))},
-                                                        null);
-
-          if (idCursor != null && idCursor.moveToNext()) {
-            return Optional.of(new SystemContactInfo(numberCursor.getString(2),
-                                                     numberCursor.getString(0),
-                                                     idCursor.getLong(0)));
-          }
+    String[] projection = {ContactsContract.CommonDataKinds.Phone.NUMBER,
+                           ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+                           ContactsContract.CommonDataKinds.Phone.RAW_CONTACT_ID};
+
+    try (Cursor cursor = context.getContentResolver().query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, projection,
+                                                            null, null, ContactsContract.CommonDataKinds.Phone.RAW_CONTACT_ID + " ASC"))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        String number       = cursor.getString(0);
+        long   rawContactId = cursor.getLong(2);
+
+        if (TextUtils.isEmpty(number) || signalRawContacts.contains(rawContactId)) continue;
+
+        Address address = Address.fromExternal(context, number);
+
+        if (address.isPhone() && !index.containsKey(address)) {
+          index.put(address, new SystemContactInfo(cursor.getString(1), number, rawContactId));
         }
       }
-    } finally {
-      if (numberCursor != null) numberCursor.close();
-      if (idCursor     != null) idCursor.close();
     }
 
-    return Optional.absent();
+    return index;
   }
 
-  private @Nullable String getDisplayName(long contactId) {
-    Cursor cursor = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
-                                                       new String[]{ContactsContract.Contacts.DISPLAY_NAME},
-                                                       ContactsContract.Contacts._ID + " = ?",
-                                                       new String[] {String.valueOf(contactId)},
-                                                       null);
+  private @NonNull Map<Long, String> getDisplayNames(@NonNull Collection<Long> contactIds) {
+    Map<Long, String> displayNames = new HashMap<>();
 
-    try {
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getString(0);
-      } else {
-        return null;
+    if (contactIds.isEmpty()) return displayNames;
+
+    String selection = ContactsContract.Contacts._ID + " IN (" + TextUtils.join(",", new HashSet<>(contactIds)) + ")";
+
+    try (Cursor cursor = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                                                            new String[] {ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME},
+                                                            selection, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        displayNames.put(cursor.getLong(0), cursor.getString(1));
       }
-    } finally {
-      if (cursor != null) cursor.close();
     }
+
+    return displayNames;
   }
 
   private static class ProjectionMappingCursor extends CursorWrapper {
@@ -0,0 +1,347 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access to the plaintext of an encrypted attachment, for readers that seek around a file
+ * rather than stream it from start to finish, like media players.
+ *
+ * The key and cipher are set up once when the channel is opened. Reads are served from fixed size
+ * chunks that are decrypted on their own, by pointing the CTR counter (or, for classic parts, the
+ * CBC IV) straight at the start of the chunk, and the last few chunks are kept around since
+ * players tend to read the same region more than once.
+ */
+public abstract class DecryptingPartChannel implements Closeable {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int CACHE_SIZE = 4;
+
+  private final FileChannel       channel;
+  private final Map<Long, byte[]> chunks = new LRUCache<>(CACHE_SIZE);
+
+  private DecryptingPartChannel(@NonNull File file) throws IOException {
+    this.channel = new FileInputStream(file).getChannel();
+  }
+
+  public static DecryptingPartChannel createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull File file, @Nullable byte[] random)
+      throws IOException
+  {
+    if (random != null && random.length == 32) return new ModernPartChannel(attachmentSecret, file, random);
+    else                                       return new ClassicPartChannel(attachmentSecret, file);
+  }
+
+  /**
+   * @return The length of the plaintext.
+   */
+  public abstract long size();
+
+  /**
+   * Reads plaintext starting at the given position, like {@link android.media.MediaDataSource#readAt}.
+   *
+   * @return The number of bytes read, which may be less than requested, or -1 at the end of the file.
+   */
+  public synchronized int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (position >= size()) return -1;
+    if (length == 0)        return 0;
+
+    byte[] chunk       = getChunk(position / CHUNK_SIZE);
+    int    chunkOffset = (int)(position % CHUNK_SIZE);
+    int    read        = Math.min(length, chunk.length - chunkOffset);
+
+    System.arraycopy(chunk, chunkOffset, buffer, offset, read);
+
+    return read;
+  }
+
+  /**
+   * Like {@link #read(long, byte[], int, int)}, but reads into the remaining space of a buffer.
+   */
+  public synchronized int read(long position, @NonNull ByteBuffer buffer) throws IOException {
+    if (position >= size())     return -1;
+    if (!buffer.hasRemaining()) return 0;
+
+    byte[] chunk       = getChunk(position / CHUNK_SIZE);
+    int    chunkOffset = (int)(position % CHUNK_SIZE);
+    int    read        = Math.min(buffer.remaining(), chunk.length - chunkOffset);
+
+    buffer.put(chunk, chunkOffset, read);
+
+    return read;
+  }
+
+  /**
+   * @return A stream of the plaintext from the given position onwards. Closing it closes the channel.
+   */
+  public @NonNull InputStream createInputStream(long position) {
+    return new ChannelInputStream(position);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    chunks.clear();
+    channel.close();
+  }
+
+  private byte[] getChunk(long index) throws IOException {
+    byte[] chunk = chunks.get(index);
+
+    if (chunk == null) {
+      chunk = decryptChunk(index * CHUNK_SIZE, (int)Math.min(CHUNK_SIZE, size() - index * CHUNK_SIZE));
+      chunks.put(index, chunk);
+    }
+
+    return chunk;
+  }
+
+  protected abstract byte[] decryptChunk(long position, int length) throws IOException;
+
+  protected void readFully(long position, @NonNull byte[] buffer) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+    while (byteBuffer.hasRemaining()) {
+      if (channel.read(byteBuffer, position + byteBuffer.position()) == -1) {
+        throw new EOFException("Unexpected end of file");
+      }
+    }
+  }
+
+  private static class ModernPartChannel extends DecryptingPartChannel {
+
+    private final Cipher        cipher;
+    private final SecretKeySpec key;
+    private final long          size;
+
+    private ModernPartChannel(@NonNull AttachmentSecret attachmentSecret, @NonNull File file, @NonNull byte[] random)
+        throws IOException
+    {
+      super(file);
+
+      try {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+        this.key    = new SecretKeySpec(mac.doFinal(random), "AES");
+        this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        this.size   = file.length();
+      } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    protected byte[] decryptChunk(long position, int length) throws IOException {
+      byte[] iv         = new byte[16];
+      byte[] ciphertext = new byte[length];
+
+      Conversions.longTo4ByteArray(iv, 12, position / 16);
+      readFully(position, ciphertext);
+
+      try {
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        return cipher.doFinal(ciphertext);
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+        throw new AssertionError(e);
+      } catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Classic parts are AES/CBC, laid out as the IV, the ciphertext, and a MAC over both. Each CBC
+   * block only depends on the ciphertext block before it, so a chunk can be decrypted by using the
+   * block in front of it as the IV. Only the last block carries padding, which is read once up
+   * front to learn the plaintext length.
+   */
+  private static class ClassicPartChannel extends DecryptingPartChannel {
+
+    private static final int IV_LENGTH  = 16;
+    private static final int MAC_LENGTH = 20;
+
+    private static final Map<String, Boolean> VERIFIED = new LRUCache<>(32);
+
+    private final Cipher        cipher;
+    private final SecretKeySpec key;
+    private final long          size;
+
+    private ClassicPartChannel(@NonNull AttachmentSecret attachmentSecret, @NonNull File file)
+        throws IOException
+    {
+      super(file);
+
+      long ciphertextLength = file.length() - IV_LENGTH - MAC_LENGTH;
+
+      if (ciphertextLength <= 0 || ciphertextLength % 16 != 0) {
+        close();
+        throw new IOException("Bad file length: " + file.length());
+      }
+
+      try {
+        verifyMac(attachmentSecret, file);
+
+        this.key    = new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES");
+        this.cipher = Cipher.getInstance("AES/CBC/NoPadding");
+
+        byte[] lastBlock = decryptBlocks(ciphertextLength - 16, 16);
+        int    padding   = lastBlock[15] & 0xff;
+
+        if (padding < 1 || padding > 16) {
+          throw new IOException("Bad padding");
+        }
+
+        this.size = ciphertextLength - padding;
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        throw new AssertionError(e);
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    protected byte[] decryptChunk(long position, int length) throws IOException {
+      byte[] plaintext = decryptBlocks(position, (length + 15) / 16 * 16);
+
+      if (plaintext.length == length) {
+        return plaintext;
+      }
+
+      byte[] trimmed = new byte[length];
+      System.arraycopy(plaintext, 0, trimmed, 0, length);
+
+      return trimmed;
+    }
+
+    private byte[] decryptBlocks(long position, int length) throws IOException {
+      byte[] ivAndCiphertext = new byte[IV_LENGTH + length];
+      readFully(position, ivAndCiphertext);
+
+      try {
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(ivAndCiphertext, 0, IV_LENGTH));
+        return cipher.doFinal(ivAndCiphertext, IV_LENGTH, length);
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+        throw new AssertionError(e);
+      } catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private void verifyMac(@NonNull AttachmentSecret attachmentSecret, @NonNull File file) throws IOException {
+      String fingerprint = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+
+      synchronized (VERIFIED) {
+        if (VERIFIED.containsKey(fingerprint)) return;
+      }
+
+      try {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
+
+        long   dataLength = file.length() - MAC_LENGTH;
+        byte[] buffer     = new byte[CHUNK_SIZE];
+        byte[] theirMac   = new byte[MAC_LENGTH];
+
+        for (long position = 0; position < dataLength; position += buffer.length) {
+          int length = (int)Math.min(buffer.length, dataLength - position);
+
+          if (length < buffer.length) buffer = new byte[length];
+
+          readFully(position, buffer);
+          mac.update(buffer, 0, length);
+        }
+
+        readFully(dataLength, theirMac);
+
+        if (!MessageDigest.isEqual(mac.doFinal(), theirMac)) {
+          throw new IOException("Bad MAC");
+        }
+      } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+
+      synchronized (VERIFIED) {
+        VERIFIED.put(fingerprint, true);
+      }
+    }
+  }
+
+  private class ChannelInputStream extends InputStream {
+
+    private long position;
+
+    private ChannelInputStream(long position) {
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      int read = DecryptingPartChannel.this.read(position, buffer, offset, length);
+
+      if (read > 0) position += read;
+
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, size() - position));
+      position += skipped;
+
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int)Math.min(Integer.MAX_VALUE, Math.max(0, size() - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+      DecryptingPartChannel.this.close();
+    }
+  }
+}
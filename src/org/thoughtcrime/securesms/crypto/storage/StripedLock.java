@@ -0,0 +1,24 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A fixed set of monitors that keys are hashed onto, so that operations on different keys can
+ * usually proceed in parallel while operations on the same key are always serialized.
+ */
+class StripedLock {
+
+  private final Object[] locks;
+
+  StripedLock(int stripes) {
+    this.locks = new Object[stripes];
+
+    for (int i = 0; i < stripes; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  @NonNull Object get(@NonNull Object key) {
+    return locks[(key.hashCode() & Integer.MAX_VALUE) % locks.length];
+  }
+}
@@ -17,7 +17,9 @@ public class TextSecurePreKeyStore implements PreKeyStore, SignedPreKeyStore {
   @SuppressWarnings("unused")
   private static final String TAG = TextSecurePreKeyStore.class.getSimpleName();
 
-  private static final Object FILE_LOCK = new Object();
+  private static final int LOCK_STRIPES = 16;
+
+  private static final StripedLock LOCKS = new StripedLock(LOCK_STRIPES);
 
   @NonNull
   private final Context context;
@@ -28,7 +30,7 @@ public class TextSecurePreKeyStore implements PreKeyStore, SignedPreKeyStore {
 
   @Override
   public PreKeyRecord loadPreKey(int preKeyId) throws InvalidKeyIdException {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(preKeyId)) {
       PreKeyRecord preKeyRecord = DatabaseFactory.getPreKeyDatabase(context).getPreKey(preKeyId);
 
       if (preKeyRecord == null) throw new InvalidKeyIdException("No such key: " + preKeyId);
@@ -38,7 +40,7 @@ public class TextSecurePreKeyStore implements PreKeyStore, SignedPreKeyStore {
 
   @Override
   public SignedPreKeyRecord loadSignedPreKey(int signedPreKeyId) throws InvalidKeyIdException {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(signedPreKeyId)) {
       SignedPreKeyRecord signedPreKeyRecord = DatabaseFactory.getSignedPreKeyDatabase(context).getSignedPreKey(signedPreKeyId);
 
       if (signedPreKeyRecord == null) throw new InvalidKeyIdException("No such signed prekey: " + signedPreKeyId);
@@ -48,21 +50,19 @@ public class TextSecurePreKeyStore implements PreKeyStore, SignedPreKeyStore {
 
   @Override
   public List<SignedPreKeyRecord> loadSignedPreKeys() {
-    synchronized (FILE_LOCK) {
-      return DatabaseFactory.getSignedPreKeyDatabase(context).getAllSignedPreKeys();
-    }
+    return DatabaseFactory.getSignedPreKeyDatabase(context).getAllSignedPreKeys();
   }
 
   @Override
   public void storePreKey(int preKeyId, PreKeyRecord record) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(preKeyId)) {
       DatabaseFactory.getPreKeyDatabase(context).insertPreKey(preKeyId, record);
     }
   }
 
   @Override
   public void storeSignedPreKey(int signedPreKeyId, SignedPreKeyRecord record) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(signedPreKeyId)) {
       DatabaseFactory.getSignedPreKeyDatabase(context).insertSignedPreKey(signedPreKeyId, record);
     }
   }
@@ -34,7 +34,12 @@ public class TextSecureSessionStore implements SessionStore {
 
   private static final String TAG = TextSecureSessionStore.class.getSimpleName();
 
-  private static final Object FILE_LOCK = new Object();
+  private static final int LOCK_STRIPES = 16;
+
+  /**
+   * Sessions are striped by name, so all of the devices that belong to one address share a lock.
+   */
+  private static final StripedLock LOCKS = new StripedLock(LOCK_STRIPES);
 
   @NonNull  private final Context context;
 
@@ -44,7 +49,7 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(address.getName())) {
       SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(Address.fromSerialized(address.getName()), address.getDeviceId());
 
       if (sessionRecord == null) {
@@ -58,14 +63,14 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(address.getName())) {
       DatabaseFactory.getSessionDatabase(context).store(Address.fromSerialized(address.getName()), address.getDeviceId(), record);
     }
   }
 
   @Override
   public boolean containsSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(address.getName())) {
       SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(Address.fromSerialized(address.getName()), address.getDeviceId());
 
       return sessionRecord != null &&
@@ -76,27 +81,27 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(address.getName())) {
       DatabaseFactory.getSessionDatabase(context).delete(Address.fromSerialized(address.getName()), address.getDeviceId());
     }
   }
 
   @Override
   public void deleteAllSessions(String name) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(name)) {
       DatabaseFactory.getSessionDatabase(context).deleteAllFor(Address.fromSerialized(name));
     }
   }
 
   @Override
   public List<Integer> getSubDeviceSessions(String name) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(name)) {
       return DatabaseFactory.getSessionDatabase(context).getSubDevices(Address.fromSerialized(name));
     }
   }
 
   public void archiveSiblingSessions(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    synchronized (LOCKS.get(address.getName())) {
       List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAllFor(Address.fromSerialized(address.getName()));
 
       for (SessionDatabase.SessionRow row : sessions) {
@@ -109,12 +114,18 @@ public class TextSecureSessionStore implements SessionStore {
   }
 
   public void archiveAllSessions() {
-    synchronized (FILE_LOCK) {
-      List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAll();
+    List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAll();
 
-      for (SessionDatabase.SessionRow row : sessions) {
-        row.getRecord().archiveCurrentState();
-        storeSession(new SignalProtocolAddress(row.getAddress().serialize(), row.getDeviceId()), row.getRecord());
+    for (SessionDatabase.SessionRow row : sessions) {
+      SignalProtocolAddress address = new SignalProtocolAddress(row.getAddress().serialize(), row.getDeviceId());
+
+      synchronized (LOCKS.get(address.getName())) {
+        SessionRecord record = DatabaseFactory.getSessionDatabase(context).load(row.getAddress(), row.getDeviceId());
+
+        if (record != null) {
+          record.archiveCurrentState();
+          storeSession(address, record);
+        }
       }
     }
   }
@@ -16,6 +16,7 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.Phonenumber;
 import com.google.i18n.phonenumbers.ShortNumberInfo;
 
+import org.thoughtcrime.securesms.util.ConcurrentLRUCache;
 import org.thoughtcrime.securesms.util.DelimiterUtil;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.NumberUtil;
@@ -186,8 +187,16 @@ public class Address implements Parcelable, Comparable<Address> {
       add("AC");
     }};
 
+    /**
+     * Formatting a number through libphonenumber is expensive, and the same few numbers are
+     * formatted over and over as messages, receipts and contact lists come in, so results are
+     * remembered by the raw number and the local number and country they were formatted for.
+     */
+    private static final ConcurrentLRUCache<String, String> CACHE = new ConcurrentLRUCache<>(2048, 8);
+
     private final String localNumberString;
     private final String localCountryCode;
+    private final String cachePrefix;
 
     private final PhoneNumberUtil phoneNumberUtil = PhoneNumberUtil.getInstance();
     private final Pattern         ALPHA_PATTERN   = Pattern.compile("[a-zA-Z]");
@@ -198,6 +207,7 @@ public class Address implements Parcelable, Comparable<Address> {
 
         this.localNumberString = localNumberString;
         this.localCountryCode  = phoneNumberUtil.getRegionCodeForNumber(localNumber);
+        this.cachePrefix       = localCountryCode + ":" + localNumberString + ":";
       } catch (NumberParseException e) {
         throw new AssertionError(e);
       }
@@ -206,11 +216,25 @@ public class Address implements Parcelable, Comparable<Address> {
     ExternalAddressFormatter(@NonNull String localCountryCode, boolean countryCode) {
       this.localNumberString = "";
       this.localCountryCode  = localCountryCode;
+      this.cachePrefix       = localCountryCode + "::";
+    }
+
+    /**
+     * @return The cache of formatted numbers, for its hit rate.
+     */
+    public static @NonNull ConcurrentLRUCache<String, String> getCache() {
+      return CACHE;
     }
 
     public String format(@Nullable String number) {
-      if (number == null)                       return "Unknown";
-      if (GroupUtil.isEncodedGroup(number))     return number;
+      if (number == null)                   return "Unknown";
+      if (GroupUtil.isEncodedGroup(number)) return number;
+
+      return CACHE.get(cachePrefix + number, key -> formatUncached(number));
+    }
+
+    @VisibleForTesting
+    String formatUncached(@NonNull String number) {
       if (ALPHA_PATTERN.matcher(number).find()) return number.trim();
 
       String bareNumber = number.replaceAll("[^0-9+]", "");
@@ -31,6 +31,8 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import com.annimon.stream.Stream;
+
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.json.JSONArray;
@@ -40,6 +42,7 @@ import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.DecryptingPartChannel;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
@@ -53,6 +56,8 @@ import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MediaUtil.ThumbnailData;
 import org.thoughtcrime.securesms.util.StorageUtil;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.DeduplicatingExecutor;
+import org.thoughtcrime.securesms.util.concurrent.SettableFuture;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 
 import java.io.File;
@@ -60,14 +65,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class AttachmentDatabase extends Database {
   
@@ -130,7 +137,9 @@ public class AttachmentDatabase extends Database {
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
   };
 
-  private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
+  private static final int THUMBNAIL_THREADS = 3;
+
+  private final DeduplicatingExecutor<AttachmentId, Boolean> thumbnailExecutor = new DeduplicatingExecutor<>(THUMBNAIL_THREADS);
 
   private final AttachmentSecret attachmentSecret;
 
@@ -148,6 +157,15 @@ public class AttachmentDatabase extends Database {
     else                    return dataStream;
   }
 
+  public @NonNull DecryptingPartChannel getAttachmentChannel(@NonNull AttachmentId attachmentId)
+      throws IOException
+  {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null) throw new IOException("No data for: " + attachmentId);
+    else                  return DecryptingPartChannel.createFor(attachmentSecret, dataInfo.file, dataInfo.random);
+  }
+
   public @NonNull InputStream getThumbnailStream(@NonNull AttachmentId attachmentId)
       throws IOException
   {
@@ -159,16 +177,45 @@ public class AttachmentDatabase extends Database {
     }
 
     try {
-      InputStream generatedStream = thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId)).get();
-
-      if (generatedStream == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
-      else                         return generatedStream;
+      requestThumbnail(attachmentId).get();
     } catch (InterruptedException ie) {
       throw new AssertionError("interrupted");
+    } catch (CancellationException ce) {
+      throw new IOException(ce);
     } catch (ExecutionException ee) {
       Log.w(TAG, ee);
       throw new IOException(ee);
     }
+
+    InputStream generatedStream = getDataStream(attachmentId, THUMBNAIL, 0);
+
+    if (generatedStream == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
+    else                         return generatedStream;
+  }
+
+  /**
+   * Generates the thumbnail for an attachment if it doesn't have one yet, ahead of any background
+   * generation. Requests for an attachment that's already being worked on share the same work, and
+   * cancelling the returned future stops waiting for it without affecting anyone else.
+   *
+   * @return A future that yields whether the attachment has a thumbnail.
+   */
+  public @NonNull Future<Boolean> requestThumbnail(@NonNull AttachmentId attachmentId) {
+    if (hasThumbnail(attachmentId)) {
+      SettableFuture<Boolean> existing = new SettableFuture<>();
+      existing.set(true);
+      return existing;
+    }
+
+    return thumbnailExecutor.submit(attachmentId, new ThumbnailFetchCallable(attachmentId));
+  }
+
+  private boolean hasThumbnail(@NonNull AttachmentId attachmentId) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {THUMBNAIL}, PART_ID_WHERE, attachmentId.toStrings(), null, null, null)) {
+      return cursor != null && cursor.moveToFirst() && !cursor.isNull(0);
+    }
   }
 
   public void setTransferProgressFailed(AttachmentId attachmentId, long mmsId)
@@ -225,6 +272,36 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * Fetch the attachments of several messages with a single query.
+   *
+   * @return The attachments of each message, with an empty list for messages that have none.
+   */
+  public @NonNull Map<Long, List<DatabaseAttachment>> getAttachmentsForMessages(@NonNull Collection<Long> mmsIds) {
+    Map<Long, List<DatabaseAttachment>> results = new HashMap<>(mmsIds.size());
+
+    for (long mmsId : mmsIds) {
+      results.put(mmsId, new LinkedList<>());
+    }
+
+    if (mmsIds.isEmpty()) {
+      return results;
+    }
+
+    SQLiteDatabase database  = databaseHelper.getReadableDatabase();
+    String         selection = MMS_ID + " IN (" + Util.join(Stream.of(mmsIds).map(String::valueOf).toList(), ",") + ")";
+
+    try (Cursor cursor = database.query(TABLE_NAME, PROJECTION, selection, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        for (DatabaseAttachment attachment : getAttachment(cursor)) {
+          results.get(attachment.getMmsId()).add(attachment);
+        }
+      }
+    }
+
+    return results;
+  }
+
   public @NonNull List<DatabaseAttachment> getPendingAttachments() {
     final SQLiteDatabase           database    = databaseHelper.getReadableDatabase();
     final List<DatabaseAttachment> attachments = new LinkedList<>();
@@ -345,7 +422,7 @@ public class AttachmentDatabase extends Database {
       notifyConversationListListeners();
     }
 
-    thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
+    thumbnailExecutor.submitInBackground(attachmentId, new ThumbnailFetchCallable(attachmentId));
   }
 
   @NonNull Map<Attachment, AttachmentId> insertAttachmentsForMessage(long mmsId, @NonNull List<Attachment> attachments, @NonNull List<Attachment> quoteAttachment)
@@ -676,11 +753,11 @@ public class AttachmentDatabase extends Database {
           updateAttachmentThumbnail(attachmentId, thumbnailData.toDataStream(), thumbnailData.getAspectRatio());
         } else {
           Log.w(TAG, "Retrieving video thumbnail failed, submitting thumbnail generation job...");
-          thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
+          thumbnailExecutor.submitInBackground(attachmentId, new ThumbnailFetchCallable(attachmentId));
         }
       } else {
         Log.w(TAG, "Submitting thumbnail generation job...");
-        thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
+        thumbnailExecutor.submitInBackground(attachmentId, new ThumbnailFetchCallable(attachmentId));
       }
     }
 
@@ -718,7 +795,7 @@ public class AttachmentDatabase extends Database {
 
 
   @VisibleForTesting
-  class ThumbnailFetchCallable implements Callable<InputStream> {
+  class ThumbnailFetchCallable implements Callable<Boolean> {
 
     private final AttachmentId attachmentId;
 
@@ -727,18 +804,17 @@ public class AttachmentDatabase extends Database {
     }
 
     @Override
-    public @Nullable InputStream call() throws Exception {
+    public @NonNull Boolean call() throws Exception {
       Log.w(TAG, "Executing thumbnail job...");
-      final InputStream stream = getDataStream(attachmentId, THUMBNAIL, 0);
 
-      if (stream != null) {
-        return stream;
+      if (hasThumbnail(attachmentId)) {
+        return true;
       }
 
       DatabaseAttachment attachment = getAttachment(attachmentId);
 
       if (attachment == null || !attachment.hasData()) {
-        return null;
+        return false;
       }
 
       ThumbnailData data = null;
@@ -748,12 +824,12 @@ public class AttachmentDatabase extends Database {
       }
 
       if (data == null) {
-        return null;
+        return false;
       }
 
       updateAttachmentThumbnail(attachmentId, data.toDataStream(), data.getAspectRatio());
 
-      return getDataStream(attachmentId, THUMBNAIL, 0);
+      return true;
     }
 
     @SuppressLint("NewApi")
@@ -772,12 +848,17 @@ public class AttachmentDatabase extends Database {
 
       EncryptedMediaDataSource dataSource = new EncryptedMediaDataSource(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
       MediaMetadataRetriever   retriever  = new MediaMetadataRetriever();
-      retriever.setDataSource(dataSource);
 
-      Bitmap bitmap = retriever.getFrameAtTime(1000);
+      try {
+        retriever.setDataSource(dataSource);
 
-      Log.w(TAG, "Generated video thumbnail...");
-      return new ThumbnailData(bitmap);
+        Bitmap bitmap = retriever.getFrameAtTime(1000);
+
+        Log.w(TAG, "Generated video thumbnail...");
+        return new ThumbnailData(bitmap);
+      } finally {
+        retriever.release();
+      }
     }
   }
 
@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the attachments of the messages in a conversation cursor that was queried without
+ * attachments (see {@link MmsSmsDatabase#getConversationPage}).
+ *
+ * The cache is filled by whoever creates the cursor, on the same background thread, with one
+ * query per page for the attachments of every MMS in it. It then travels with the cursor (see
+ * {@link #wrap(Cursor)}), so that binding a row on the main thread only reads what was cached.
+ */
+public class ConversationAttachmentCache {
+
+  private static final String TAG = ConversationAttachmentCache.class.getSimpleName();
+
+  private final Context                             context;
+  private final Map<Long, List<DatabaseAttachment>> cache = new HashMap<>();
+
+  public ConversationAttachmentCache(@NonNull Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  /**
+   * @return The cache that was filled for the given cursor, or null if it wasn't wrapped by one.
+   */
+  public static @Nullable ConversationAttachmentCache getFor(@Nullable Cursor cursor) {
+    if (cursor instanceof CachedCursor) return ((CachedCursor)cursor).attachmentCache;
+    else                                return null;
+  }
+
+  /**
+   * Fetch the attachments of every MMS in a page of a conversation. This queries the database,
+   * so it should be called on the thread that queried the page.
+   */
+  public synchronized void fill(@NonNull Cursor page) {
+    List<Long> mmsIds   = new LinkedList<>();
+    int        position = page.getPosition();
+
+    try {
+      page.moveToPosition(-1);
+
+      while (page.moveToNext()) {
+        if (MmsSmsDatabase.MMS_TRANSPORT.equals(page.getString(page.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)))) {
+          mmsIds.add(page.getLong(page.getColumnIndexOrThrow(MmsSmsColumns.ID)));
+        }
+      }
+    } finally {
+      page.moveToPosition(position);
+    }
+
+    cache.putAll(DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessages(mmsIds));
+  }
+
+  /**
+   * @return A cursor that carries this cache along with the given cursor.
+   */
+  public @NonNull Cursor wrap(@NonNull Cursor cursor) {
+    return new CachedCursor(cursor, this);
+  }
+
+  /**
+   * @return The attachments of the given MMS, which should belong to a page this cache was
+   *         filled with.
+   */
+  synchronized @NonNull List<DatabaseAttachment> get(long mmsId) {
+    List<DatabaseAttachment> attachments = cache.get(mmsId);
+
+    if (attachments == null) {
+      Log.w(TAG, "Attachments for " + mmsId + " weren't prefetched, loading...");
+      attachments = DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessage(mmsId);
+      cache.put(mmsId, attachments);
+    }
+
+    return attachments;
+  }
+
+  private static class CachedCursor extends CursorWrapper {
+
+    private final ConversationAttachmentCache attachmentCache;
+
+    private CachedCursor(@NonNull Cursor cursor, @NonNull ConversationAttachmentCache attachmentCache) {
+      super(cursor);
+      this.attachmentCache = attachmentCache;
+    }
+  }
+}
@@ -62,6 +62,12 @@ public abstract class Database {
     cursor.setNotificationUri(context.getContentResolver(), Uri.parse(CONVERSATION_LIST_URI));
   }
 
+  protected void registerConversationListListener(@NonNull ContentObserver observer) {
+    context.getContentResolver().registerContentObserver(Uri.parse(CONVERSATION_LIST_URI),
+                                                         true,
+                                                         observer);
+  }
+
   protected void registerAttachmentListeners(@NonNull ContentObserver observer) {
     context.getContentResolver().registerContentObserver(Uri.parse(ATTACHMENT_URI),
                                                          true,
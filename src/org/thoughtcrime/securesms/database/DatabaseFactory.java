@@ -142,6 +142,11 @@ public class DatabaseFactory {
   public static void upgradeRestored(Context context, SQLiteDatabase database){
     getInstance(context).databaseHelper.onUpgrade(database, database.getVersion(), -1);
     getInstance(context).databaseHelper.markCurrent(database);
+
+    getInstance(context).identityDatabase.clearCache();
+    getInstance(context).signedPreKeyDatabase.clearCache();
+    getInstance(context).sessionDatabase.clearCache();
+    getInstance(context).groupReceiptDatabase.clearCache();
   }
 
   private DatabaseFactory(@NonNull Context context) {
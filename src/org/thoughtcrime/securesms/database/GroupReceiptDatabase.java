@@ -5,23 +5,51 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.LRUCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Delivery and read receipts for each member of a group that a message was sent to.
+ *
+ * Messages sent to fewer than {@link #BITMAP_THRESHOLD} members get one row per member. For larger
+ * groups a message instead gets a single row in {@link #BITMAP_TABLE_NAME} holding a delivered
+ * and a read bitmap, indexed by each member's position in a member list that's stored once in
+ * {@link #MEMBERS_TABLE_NAME} and shared by every message sent to the same set of members. Those
+ * rows only keep the time the message was sent, rather than the time of each receipt.
+ */
 public class GroupReceiptDatabase extends Database {
 
-  public  static final String TABLE_NAME = "group_receipts";
+  public  static final String TABLE_NAME         = "group_receipts";
+  public  static final String BITMAP_TABLE_NAME  = "group_receipt_bitmaps";
+  public  static final String MEMBERS_TABLE_NAME = "group_receipt_members";
 
-  private static final String ID        = "_id";
-  public  static final String MMS_ID    = "mms_id";
-  private static final String ADDRESS   = "address";
-  private static final String STATUS    = "status";
-  private static final String TIMESTAMP = "timestamp";
+  private static final int BITMAP_THRESHOLD = 32;
+
+  private static final String ID         = "_id";
+  public  static final String MMS_ID     = "mms_id";
+  private static final String ADDRESS    = "address";
+  private static final String STATUS     = "status";
+  private static final String TIMESTAMP  = "timestamp";
+  private static final String MEMBERS    = "members";
+  private static final String MEMBERS_ID = "members_id";
+  private static final String DELIVERED  = "delivered";
+  private static final String READ       = "read";
+
+  private static final char MEMBERS_DELIMITER = ',';
 
   public static final int STATUS_UNKNOWN     = -1;
   public static final int STATUS_UNDELIVERED = 0;
@@ -31,36 +59,68 @@ public class GroupReceiptDatabase extends Database {
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, "                          +
       MMS_ID + " INTEGER, " + ADDRESS + " TEXT, " + STATUS + " INTEGER, " + TIMESTAMP + " INTEGER);";
 
+  public static final String CREATE_BITMAP_TABLE = "CREATE TABLE " + BITMAP_TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
+      MMS_ID + " INTEGER UNIQUE, " + MEMBERS_ID + " INTEGER, " + DELIVERED + " BLOB, " + READ + " BLOB, " + TIMESTAMP + " INTEGER);";
+
+  public static final String CREATE_MEMBERS_TABLE = "CREATE TABLE " + MEMBERS_TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
+      MEMBERS + " TEXT UNIQUE);";
+
   public static final String[] CREATE_INDEXES = {
       "CREATE INDEX IF NOT EXISTS group_receipt_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
+      "CREATE INDEX IF NOT EXISTS group_receipt_bitmap_members_index ON " + BITMAP_TABLE_NAME + " (" + MEMBERS_ID + ");",
   };
 
+  private final LRUCache<Long, MemberList> memberListCache = new LRUCache<>(20);
+
   public GroupReceiptDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
+  /**
+   * Record the initial receipt status of every member a message was sent to, in one transaction.
+   */
   public void insert(List<Address> addresses, long mmsId, int status, long timestamp) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    for (Address address : addresses) {
-      ContentValues values = new ContentValues(4);
-      values.put(MMS_ID, mmsId);
-      values.put(ADDRESS, address.serialize());
-      values.put(STATUS, status);
-      values.put(TIMESTAMP, timestamp);
+    db.beginTransaction();
+
+    try {
+      if (addresses.size() >= BITMAP_THRESHOLD && status >= STATUS_UNDELIVERED) {
+        insertBitmap(db, addresses, mmsId, status, timestamp);
+      } else {
+        insertRows(db, addresses, mmsId, status, timestamp);
+      }
 
-      db.insert(TABLE_NAME, null, values);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
     }
   }
 
   public void update(Address address, long mmsId, int status, long timestamp) {
-    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
-    ContentValues  values = new ContentValues(2);
-    values.put(STATUS, status);
-    values.put(TIMESTAMP, timestamp);
+    update(Collections.singletonList(address), mmsId, status, timestamp);
+  }
+
+  /**
+   * Raise the receipt status of several members of one message, in one transaction. A status is
+   * never lowered.
+   */
+  public void update(Collection<Address> addresses, long mmsId, int status, long timestamp) {
+    if (addresses.isEmpty()) return;
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
 
-    db.update(TABLE_NAME, values, MMS_ID + " = ? AND " + ADDRESS + " = ? AND " + STATUS + " < ?",
-              new String[] {String.valueOf(mmsId), address.serialize(), String.valueOf(status)});
+    try {
+      if (!updateBitmap(db, addresses, mmsId, status)) {
+        updateRows(db, addresses, mmsId, status, timestamp);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   public @NonNull List<GroupReceiptInfo> getGroupReceiptInfo(long mmsId) {
@@ -75,17 +135,264 @@ public class GroupReceiptDatabase extends Database {
       }
     }
 
+    if (!results.isEmpty()) return results;
+
+    try (Cursor cursor = db.query(BITMAP_TABLE_NAME, new String[] {MEMBERS_ID, DELIVERED, READ, TIMESTAMP},
+                                  MMS_ID + " = ?", new String[] {String.valueOf(mmsId)}, null, null, null))
+    {
+      if (cursor != null && cursor.moveToFirst()) {
+        MemberList members   = getMemberList(db, cursor.getLong(0));
+        byte[]     delivered = cursor.getBlob(1);
+        byte[]     read      = cursor.getBlob(2);
+        long       timestamp = cursor.getLong(3);
+
+        for (int i = 0; i < members.addresses.size(); i++) {
+          results.add(new GroupReceiptInfo(members.addresses.get(i), getStatus(delivered, read, i), timestamp));
+        }
+      }
+    }
+
     return results;
   }
 
+  /**
+   * Delete the receipts of a message, along with its member list if no other message shares it.
+   */
   void deleteRowsForMessage(long mmsId) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {String.valueOf(mmsId)});
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    String[]       args      = new String[] {String.valueOf(mmsId)};
+    long           membersId = -1;
+
+    db.beginTransaction();
+
+    try {
+      db.delete(TABLE_NAME, MMS_ID + " = ?", args);
+
+      try (Cursor cursor = db.query(BITMAP_TABLE_NAME, new String[] {MEMBERS_ID}, MMS_ID + " = ?", args, null, null, null)) {
+        if (cursor != null && cursor.moveToFirst()) {
+          membersId = cursor.getLong(0);
+        }
+      }
+
+      if (membersId != -1) {
+        db.delete(BITMAP_TABLE_NAME, MMS_ID + " = ?", args);
+
+        int deleted = db.delete(MEMBERS_TABLE_NAME,
+                                ID + " = ? AND NOT EXISTS (SELECT 1 FROM " + BITMAP_TABLE_NAME + " WHERE " + MEMBERS_ID + " = ?)",
+                                new String[] {String.valueOf(membersId), String.valueOf(membersId)});
+
+        if (deleted > 0) {
+          synchronized (memberListCache) {
+            memberListCache.remove(membersId);
+          }
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   void deleteAllRows() {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, null, null);
+    db.delete(BITMAP_TABLE_NAME, null, null);
+    db.delete(MEMBERS_TABLE_NAME, null, null);
+    clearCache();
+  }
+
+  void clearCache() {
+    synchronized (memberListCache) {
+      memberListCache.clear();
+    }
+  }
+
+  private void insertRows(SQLiteDatabase db, List<Address> addresses, long mmsId, int status, long timestamp) {
+    SQLiteStatement statement = db.compileStatement("INSERT INTO " + TABLE_NAME + " (" + MMS_ID + ", " + ADDRESS + ", " + STATUS + ", " + TIMESTAMP + ") " +
+                                                    "VALUES (?, ?, ?, ?)");
+
+    try {
+      for (Address address : addresses) {
+        statement.clearBindings();
+        statement.bindLong(1, mmsId);
+        statement.bindString(2, address.serialize());
+        statement.bindLong(3, status);
+        statement.bindLong(4, timestamp);
+        statement.executeInsert();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  private void updateRows(SQLiteDatabase db, Collection<Address> addresses, long mmsId, int status, long timestamp) {
+    SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NAME + " SET " + STATUS + " = ?, " + TIMESTAMP + " = ? " +
+                                                    "WHERE " + MMS_ID + " = ? AND " + ADDRESS + " = ? AND " + STATUS + " < ?");
+
+    try {
+      for (Address address : addresses) {
+        statement.clearBindings();
+        statement.bindLong(1, status);
+        statement.bindLong(2, timestamp);
+        statement.bindLong(3, mmsId);
+        statement.bindString(4, address.serialize());
+        statement.bindLong(5, status);
+        statement.execute();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  private void insertBitmap(SQLiteDatabase db, List<Address> addresses, long mmsId, int status, long timestamp) {
+    MemberList members   = MemberList.fromAddresses(addresses);
+    long       membersId = getOrCreateMemberList(db, members.serialize());
+    byte[]     delivered = new byte[(members.addresses.size() + 7) / 8];
+    byte[]     read      = new byte[(members.addresses.size() + 7) / 8];
+
+    for (int i = 0; i < members.addresses.size(); i++) {
+      if (status >= STATUS_DELIVERED) set(delivered, i);
+      if (status >= STATUS_READ)      set(read, i);
+    }
+
+    ContentValues values = new ContentValues(5);
+    values.put(MMS_ID, mmsId);
+    values.put(MEMBERS_ID, membersId);
+    values.put(DELIVERED, delivered);
+    values.put(READ, read);
+    values.put(TIMESTAMP, timestamp);
+
+    db.insert(BITMAP_TABLE_NAME, null, values);
+  }
+
+  /**
+   * @return false if the message doesn't store its receipts as a bitmap.
+   */
+  private boolean updateBitmap(SQLiteDatabase db, Collection<Address> addresses, long mmsId, int status) {
+    try (Cursor cursor = db.query(BITMAP_TABLE_NAME, new String[] {MEMBERS_ID, DELIVERED, READ},
+                                  MMS_ID + " = ?", new String[] {String.valueOf(mmsId)}, null, null, null))
+    {
+      if (cursor == null || !cursor.moveToFirst()) return false;
+
+      MemberList members   = getMemberList(db, cursor.getLong(0));
+      byte[]     delivered = cursor.getBlob(1);
+      byte[]     read      = cursor.getBlob(2);
+      boolean    changed   = false;
+
+      for (Address address : addresses) {
+        Integer index = members.indexes.get(address);
+
+        if (index == null) continue;
+
+        if (status >= STATUS_DELIVERED && !isSet(delivered, index)) {
+          set(delivered, index);
+          changed = true;
+        }
+
+        if (status >= STATUS_READ && !isSet(read, index)) {
+          set(read, index);
+          changed = true;
+        }
+      }
+
+      if (changed) {
+        ContentValues values = new ContentValues(2);
+        values.put(DELIVERED, delivered);
+        values.put(READ, read);
+
+        db.update(BITMAP_TABLE_NAME, values, MMS_ID + " = ?", new String[] {String.valueOf(mmsId)});
+      }
+
+      return true;
+    }
+  }
+
+  private long getOrCreateMemberList(SQLiteDatabase db, String serialized) {
+    try (Cursor cursor = db.query(MEMBERS_TABLE_NAME, new String[] {ID}, MEMBERS + " = ?", new String[] {serialized}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    ContentValues values = new ContentValues(1);
+    values.put(MEMBERS, serialized);
+
+    return db.insert(MEMBERS_TABLE_NAME, null, values);
+  }
+
+  private @NonNull MemberList getMemberList(SQLiteDatabase db, long membersId) {
+    synchronized (memberListCache) {
+      MemberList cached = memberListCache.get(membersId);
+      if (cached != null) return cached;
+    }
+
+    String serialized = null;
+
+    try (Cursor cursor = db.query(MEMBERS_TABLE_NAME, new String[] {MEMBERS}, ID_WHERE, new String[] {String.valueOf(membersId)}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        serialized = cursor.getString(0);
+      }
+    }
+
+    MemberList memberList = new MemberList(serialized);
+
+    synchronized (memberListCache) {
+      memberListCache.put(membersId, memberList);
+    }
+
+    return memberList;
+  }
+
+  @VisibleForTesting
+  static int getStatus(@Nullable byte[] delivered, @Nullable byte[] read, int index) {
+    if      (isSet(read, index))      return STATUS_READ;
+    else if (isSet(delivered, index)) return STATUS_DELIVERED;
+    else                              return STATUS_UNDELIVERED;
+  }
+
+  @VisibleForTesting
+  static boolean isSet(@Nullable byte[] bitmap, int index) {
+    return bitmap != null && index / 8 < bitmap.length && (bitmap[index / 8] & (1 << (index % 8))) != 0;
+  }
+
+  @VisibleForTesting
+  static void set(@NonNull byte[] bitmap, int index) {
+    bitmap[index / 8] |= (1 << (index % 8));
+  }
+
+  /**
+   * The members a message was sent to, kept in sorted order so that every message sent to the
+   * same set of members shares one list, and its bitmap positions.
+   */
+  @VisibleForTesting
+  static class MemberList {
+    final List<Address>         addresses;
+    final Map<Address, Integer> indexes;
+
+    MemberList(@Nullable String serialized) {
+      this(serialized == null ? new ArrayList<>() : new ArrayList<>(Address.fromSerializedList(serialized, MEMBERS_DELIMITER)));
+    }
+
+    private MemberList(@NonNull List<Address> addresses) {
+      this.addresses = addresses;
+      this.indexes   = new HashMap<>(addresses.size());
+
+      for (int i = 0; i < addresses.size(); i++) {
+        indexes.put(addresses.get(i), i);
+      }
+    }
+
+    static @NonNull MemberList fromAddresses(@NonNull Collection<Address> addresses) {
+      List<Address> sorted = new ArrayList<>(addresses);
+      Collections.sort(sorted);
+
+      return new MemberList(sorted);
+    }
+
+    @NonNull String serialize() {
+      return Address.toSerializedList(new ArrayList<>(addresses), MEMBERS_DELIMITER);
+    }
   }
 
   public static class GroupReceiptInfo {
@@ -56,6 +56,10 @@ public class IdentityDatabase extends Database {
       VERIFIED + " INTEGER DEFAULT 0, " +
       NONBLOCKING_APPROVAL + " INTEGER DEFAULT 0);";
 
+  private static final int CACHE_SIZE = 500;
+
+  private final RecordCache<Address, IdentityRecord> cache = new RecordCache<>(CACHE_SIZE);
+
   public enum VerifiedStatus {
     DEFAULT, VERIFIED, UNVERIFIED;
 
@@ -89,6 +93,19 @@ public class IdentityDatabase extends Database {
   }
 
   public Optional<IdentityRecord> getIdentity(Address address) {
+    Optional<IdentityRecord> record = cache.get(address);
+
+    if (record == null) {
+      long generation = cache.getGeneration();
+
+      record = loadIdentity(address);
+      cache.putIfCurrent(address, record, generation);
+    }
+
+    return record;
+  }
+
+  private Optional<IdentityRecord> loadIdentity(Address address) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = null;
 
@@ -124,8 +141,11 @@ public class IdentityDatabase extends Database {
 
     database.replace(TABLE_NAME, null, contentValues);
 
-    EventBus.getDefault().post(new IdentityRecord(address, identityKey, verifiedStatus,
-                                                  firstUse, timestamp, nonBlockingApproval));
+    IdentityRecord record = new IdentityRecord(address, identityKey, verifiedStatus,
+                                               firstUse, timestamp, nonBlockingApproval);
+
+    cache.put(address, Optional.of(record));
+    EventBus.getDefault().post(record);
   }
 
   public void setApproval(Address address, boolean nonBlockingApproval) {
@@ -135,6 +155,7 @@ public class IdentityDatabase extends Database {
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval);
 
     database.update(TABLE_NAME, contentValues, ADDRESS + " = ?", new String[] {address.serialize()});
+    cache.remove(address);
   }
 
   public void setVerified(Address address, IdentityKey identityKey, VerifiedStatus verifiedStatus) {
@@ -147,11 +168,17 @@ public class IdentityDatabase extends Database {
                                   new String[] {address.serialize(), Base64.encodeBytes(identityKey.serialize())});
 
     if (updated > 0) {
+      cache.remove(address);
+
       Optional<IdentityRecord> record = getIdentity(address);
       if (record.isPresent()) EventBus.getDefault().post(record.get());
     }
   }
 
+  void clearCache() {
+    cache.clear();
+  }
+
   private IdentityRecord getIdentityRecord(@NonNull Cursor cursor) throws IOException, InvalidKeyException {
     String      address             = cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS));
     String      serializedIdentity  = cursor.getString(cursor.getColumnIndexOrThrow(IDENTITY_KEY));
@@ -24,6 +24,8 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   private static final String TAG = MessagingDatabase.class.getSimpleName();
 
+  static final String EXPIRES_AT = EXPIRE_STARTED + " + " + EXPIRES_IN;
+
   public MessagingDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -71,6 +71,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -88,7 +89,7 @@ public class MmsDatabase extends MessagingDatabase {
 
   public  static final String TABLE_NAME         = "mms";
           static final String DATE_SENT          = "date";
-          static final String DATE_RECEIVED      = "date_received";
+  public  static final String DATE_RECEIVED      = "date_received";
   public  static final String MESSAGE_BOX        = "msg_box";
           static final String CONTENT_LOCATION   = "ct_l";
           static final String EXPIRY             = "exp";
@@ -132,7 +133,8 @@ public class MmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS mms_read_and_notified_and_thread_id_index ON " + TABLE_NAME + "(" + READ + "," + NOTIFIED + "," + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS mms_message_box_index ON " + TABLE_NAME + " (" + MESSAGE_BOX + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
-    "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");"
+    "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS mms_expire_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -217,12 +219,30 @@ public class MmsDatabase extends MessagingDatabase {
   }
 
   public void incrementReceiptCount(SyncMessageId messageId, long timestamp, boolean deliveryReceipt, boolean readReceipt) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor         cursor   = null;
-    boolean        found    = false;
+    Set<Long> threadIds = new HashSet<>();
+
+    if (incrementReceiptCount(messageId, timestamp, deliveryReceipt, readReceipt, threadIds)) {
+      notifyConversationListListeners();
+    }
+
+    notifyConversationListeners(threadIds);
+  }
+
+  /**
+   * Increment the receipt count of matching messages, and of their thread summaries when they
+   * are the newest message in the thread.
+   *
+   * @param updatedThreadIds Populated with the threads of the messages that were updated.
+   * @return true if a thread summary changed.
+   */
+  boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, boolean deliveryReceipt, boolean readReceipt, @NonNull Set<Long> updatedThreadIds) {
+    SQLiteDatabase database       = databaseHelper.getWritableDatabase();
+    Cursor         cursor         = null;
+    boolean        found          = false;
+    boolean        summaryChanged = false;
 
     try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, ADDRESS}, DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())}, null, null, null, null);
+      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, ADDRESS, DATE_RECEIVED}, DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())}, null, null, null, null);
 
       while (cursor.moveToNext()) {
         if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) {
@@ -242,8 +262,8 @@ public class MmsDatabase extends MessagingDatabase {
                              new String[] {String.valueOf(id)});
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourAddress, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            summaryChanged |= DatabaseFactory.getThreadDatabase(context).updateForReceipt(threadId, cursor.getLong(cursor.getColumnIndexOrThrow(DATE_RECEIVED)), deliveryReceipt);
+            updatedThreadIds.add(threadId);
           }
         }
       }
@@ -256,6 +276,8 @@ public class MmsDatabase extends MessagingDatabase {
       if (cursor != null)
         cursor.close();
     }
+
+    return summaryChanged;
   }
 
   public long getThreadIdForMessage(long id) {
@@ -277,6 +299,15 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
+  private long getDateReceivedForMessage(long id) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {DATE_RECEIVED}, ID_WHERE, new String[] {String.valueOf(id)}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return -1;
+    }
+  }
+
   private long getThreadIdFor(IncomingMediaMessage retrieved) throws RecipientFormattingException, MmsException {
     if (retrieved.getGroupId() != null) {
       Recipient groupRecipients = Recipient.from(context, retrieved.getGroupId(), true);
@@ -309,11 +340,6 @@ public class MmsDatabase extends MessagingDatabase {
     return cursor;
   }
 
-  public Reader getExpireStartedMessages() {
-    String where = EXPIRE_STARTED + " > 0";
-    return readerFor(rawQuery(where, null));
-  }
-
   private void updateMailboxBitmask(long id, long maskOff, long maskOn, Optional<Long> threadId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.execSQL("UPDATE " + TABLE_NAME +
@@ -321,7 +347,7 @@ public class MmsDatabase extends MessagingDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      DatabaseFactory.getThreadDatabase(context).updateForChange(threadId.get(), id, true, false);
     }
   }
 
@@ -527,7 +553,7 @@ public class MmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, messageId, true, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -752,7 +778,6 @@ public class MmsDatabase extends MessagingDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
     notifyConversationListeners(threadId);
@@ -895,8 +920,8 @@ public class MmsDatabase extends MessagingDatabase {
       receiptDatabase.insert(Stream.of(members).map(Recipient::getAddress).toList(),
                              messageId, GroupReceiptDatabase.STATUS_UNDELIVERED, message.getSentTimeMillis());
 
-      for (Address address : earlyDeliveryReceipts.keySet()) receiptDatabase.update(address, messageId, GroupReceiptDatabase.STATUS_DELIVERED, -1);
-      for (Address address : earlyReadReceipts.keySet())     receiptDatabase.update(address, messageId, GroupReceiptDatabase.STATUS_READ, -1);
+      receiptDatabase.update(earlyDeliveryReceipts.keySet(), messageId, GroupReceiptDatabase.STATUS_DELIVERED, -1);
+      receiptDatabase.update(earlyReadReceipts.keySet(), messageId, GroupReceiptDatabase.STATUS_READ, -1);
     }
 
     DatabaseFactory.getThreadDatabase(context).setLastSeen(threadId);
@@ -926,9 +951,12 @@ public class MmsDatabase extends MessagingDatabase {
     contentValues.put(BODY, body);
     contentValues.put(PART_COUNT, allAttachments.size());
 
+    long threadId = contentValues.getAsLong(THREAD_ID);
+    long messageId;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       Map<Attachment, AttachmentId> insertedAttachments = partsDatabase.insertAttachmentsForMessage(messageId, allAttachments, quoteAttachments);
       String                        serializedContacts  = getSerializedSharedContacts(messageId, insertedAttachments, sharedContacts);
@@ -946,21 +974,23 @@ public class MmsDatabase extends MessagingDatabase {
       }
 
       db.setTransactionSuccessful();
-      return messageId;
     } finally {
       db.endTransaction();
 
       if (insertListener != null) {
         insertListener.onComplete();
       }
-
-      notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
     }
+
+    notifyConversationListeners(threadId);
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, true, true);
+
+    return messageId;
   }
 
   public boolean delete(long messageId) {
     long               threadId           = getThreadIdForMessage(messageId);
+    long               dateReceived       = getDateReceivedForMessage(messageId);
     AttachmentDatabase attachmentDatabase = DatabaseFactory.getAttachmentDatabase(context);
     attachmentDatabase.deleteAttachmentsForMessage(messageId);
 
@@ -969,11 +999,24 @@ public class MmsDatabase extends MessagingDatabase {
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, dateReceived);
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
 
+  /*package*/ void deleteMessages(@NonNull Collection<Long> messageIds) {
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+    }
+
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.delete(TABLE_NAME, ID + " IN (" + Util.join(Stream.of(messageIds).map(String::valueOf).toList(), ",") + ")", null);
+  }
+
   public void deleteThread(long threadId) {
     Set<Long> singleThreadSet = new HashSet<>();
     singleThreadSet.add(threadId);
@@ -1098,6 +1141,13 @@ public class MmsDatabase extends MessagingDatabase {
     return new Reader(cursor);
   }
 
+  /**
+   * A reader that takes the attachments of cursors queried without them from the given cache.
+   */
+  public Reader readerFor(Cursor cursor, @Nullable ConversationAttachmentCache attachmentCache) {
+    return new Reader(cursor, attachmentCache);
+  }
+
   public OutgoingMessageReader readerFor(OutgoingMediaMessage message, long threadId) {
     return new OutgoingMessageReader(message, threadId);
   }
@@ -1182,10 +1232,16 @@ public class MmsDatabase extends MessagingDatabase {
 
   public class Reader implements Closeable {
 
-    private final Cursor cursor;
+    private final Cursor                      cursor;
+    private final ConversationAttachmentCache attachmentCache;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this(cursor, null);
+    }
+
+    public Reader(Cursor cursor, @Nullable ConversationAttachmentCache attachmentCache) {
+      this.cursor          = cursor;
+      this.attachmentCache = attachmentCache;
     }
 
     public MessageRecord getNext() {
@@ -1272,11 +1328,11 @@ public class MmsDatabase extends MessagingDatabase {
       Recipient                 recipient          = getRecipientFor(address);
       List<IdentityKeyMismatch> mismatches         = getMismatchedIdentities(mismatchDocument);
       List<NetworkFailure>      networkFailures    = getFailures(networkDocument);
-      List<DatabaseAttachment>  attachments        = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
+      List<DatabaseAttachment>  attachments        = getAttachments(cursor, id);
       List<Contact>             contacts           = getSharedContacts(cursor, attachments);
       Set<Attachment>           contactAttachments = new HashSet<>(Stream.of(contacts).map(Contact::getAvatarAttachment).filter(a -> a != null).toList());
       SlideDeck                 slideDeck          = getSlideDeck(Stream.of(attachments).filterNot(contactAttachments::contains).toList());
-      Quote                     quote              = getQuote(cursor);
+      Quote                     quote              = getQuote(cursor, attachments);
 
       return new MediaMmsMessageRecord(context, id, recipient, recipient,
                                        addressDeviceId, dateSent, dateReceived, deliveryReceiptCount,
@@ -1326,11 +1382,20 @@ public class MmsDatabase extends MessagingDatabase {
       return new SlideDeck(context, messageAttachmnets);
     }
 
-    private @Nullable Quote getQuote(@NonNull Cursor cursor) {
+    private @NonNull List<DatabaseAttachment> getAttachments(@NonNull Cursor cursor, long id) {
+      if (cursor.getColumnIndex(AttachmentDatabase.ATTACHMENT_JSON_ALIAS) != -1) {
+        return DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
+      } else if (attachmentCache != null) {
+        return attachmentCache.get(id);
+      } else {
+        return DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessage(id);
+      }
+    }
+
+    private @Nullable Quote getQuote(@NonNull Cursor cursor, @NonNull List<DatabaseAttachment> attachments) {
       long                       quoteId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID));
       String                     quoteAuthor      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR));
       String                     quoteText        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_BODY));
-      List<DatabaseAttachment>   attachments      = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
       List<? extends Attachment> quoteAttachments = Stream.of(attachments).filter(Attachment::isQuote).toList();
       SlideDeck                  quoteDeck        = new SlideDeck(context, quoteAttachments);
 
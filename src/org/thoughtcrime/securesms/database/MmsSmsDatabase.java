@@ -18,19 +18,28 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.annimon.stream.Stream;
+
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteQueryBuilder;
 
+import org.thoughtcrime.securesms.database.MessagingDatabase.ExpirationInfo;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -69,6 +78,12 @@ public class MmsSmsDatabase extends Database {
                                               MmsDatabase.QUOTE_ATTACHMENT,
                                               MmsDatabase.SHARED_CONTACTS};
 
+  private static final String[] PROJECTION_WITHOUT_ATTACHMENTS = Stream.of(PROJECTION)
+                                                                       .filterNot(AttachmentDatabase.ATTACHMENT_JSON_ALIAS::equals)
+                                                                       .toArray(String[]::new);
+
+  private final ReceiptAggregator receiptAggregator = new ReceiptAggregator(this);
+
   public MmsSmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -108,6 +123,32 @@ public class MmsSmsDatabase extends Database {
     return getConversation(threadId, 0, 0);
   }
 
+  /**
+   * Returns up to {@code limit} messages of a thread, newest first, starting with the message
+   * right after {@code after} (or with the newest message if {@code after} is null). Pages are
+   * located by their key rather than an offset, so every page costs the same to load no matter
+   * how deep into the conversation it is.
+   *
+   * The page only contains message columns. Fill a {@link ConversationAttachmentCache} with it
+   * and read it with {@link #readerFor(Cursor, ConversationAttachmentCache)}, so that the
+   * attachments of the whole page are fetched with a single query.
+   */
+  public Cursor getConversationPage(long threadId, @Nullable PageKey after, int limit) {
+    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + MmsSmsColumns.UNIQUE_ROW_ID + " DESC";
+    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+
+    if (after != null) {
+      selection += " AND " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " <= " + after.dateReceived +
+                   " AND (" + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " < " + after.dateReceived +
+                   " OR " + MmsSmsColumns.UNIQUE_ROW_ID + " < " + DatabaseUtils.sqlEscapeString(after.uniqueRowId) + ")";
+    }
+
+    Cursor cursor = queryTables(PROJECTION_WITHOUT_ATTACHMENTS, selection, order, String.valueOf(limit), true, false);
+    setNotifyConverationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
   public Cursor getIdentityConflictMessagesForThread(long threadId) {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
     String selection       = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.MISMATCHED_IDENTITIES + " IS NOT NULL";
@@ -150,14 +191,135 @@ public class MmsSmsDatabase extends Database {
     return count;
   }
 
+  /**
+   * @return true if the thread contains a message that was received after the given time.
+   */
+  boolean hasMessageReceivedAfter(long threadId, long dateReceived) {
+    SQLiteDatabase db   = databaseHelper.getReadableDatabase();
+    String[]       args = new String[] {String.valueOf(threadId), String.valueOf(dateReceived)};
+
+    try (Cursor cursor = db.query(SmsDatabase.TABLE_NAME, new String[] {SmsDatabase.ID},
+                                  SmsDatabase.THREAD_ID + " = ? AND " + SmsDatabase.DATE_RECEIVED + " > ?",
+                                  args, null, null, null, "1"))
+    {
+      if (cursor != null && cursor.moveToFirst()) return true;
+    }
+
+    try (Cursor cursor = db.query(MmsDatabase.TABLE_NAME, new String[] {MmsDatabase.ID},
+                                  MmsDatabase.THREAD_ID + " = ? AND " + MmsDatabase.DATE_RECEIVED + " > ?",
+                                  args, null, null, null, "1"))
+    {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
+  /**
+   * @return Every message whose disappearing timer is running and runs out before the given time.
+   */
+  public @NonNull List<ExpirationInfo> getExpiringMessagesBefore(long expiresBefore) {
+    List<ExpirationInfo> results = new LinkedList<>();
+
+    getExpiringMessagesBefore(SmsDatabase.TABLE_NAME, false, expiresBefore, results);
+    getExpiringMessagesBefore(MmsDatabase.TABLE_NAME, true, expiresBefore, results);
+
+    return results;
+  }
+
+  /**
+   * @return The time at which the next running disappearing timer runs out, or -1 if there are none.
+   */
+  public long getNextExpiration() {
+    long sms = getNextExpiration(SmsDatabase.TABLE_NAME);
+    long mms = getNextExpiration(MmsDatabase.TABLE_NAME);
+
+    if      (sms == -1) return mms;
+    else if (mms == -1) return sms;
+    else                return Math.min(sms, mms);
+  }
+
+  /**
+   * Delete a batch of expired messages. Messages are deleted in one transaction per thread, and
+   * each affected thread is updated once rather than once per message.
+   */
+  public void deleteExpiredMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    SmsDatabase           smsDatabase    = DatabaseFactory.getSmsDatabase(context);
+    MmsDatabase           mmsDatabase    = DatabaseFactory.getMmsDatabase(context);
+    ThreadDatabase        threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    Map<Long, List<Long>> smsByThread    = getIdsByThread(SmsDatabase.TABLE_NAME, smsIds);
+    Map<Long, List<Long>> mmsByThread    = getIdsByThread(MmsDatabase.TABLE_NAME, mmsIds);
+    Set<Long>             threadIds      = new HashSet<>(smsByThread.keySet());
+
+    threadIds.addAll(mmsByThread.keySet());
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (long threadId : threadIds) {
+      db.beginTransaction();
+
+      try {
+        if (smsByThread.containsKey(threadId)) smsDatabase.deleteMessages(smsByThread.get(threadId));
+        if (mmsByThread.containsKey(threadId)) mmsDatabase.deleteMessages(mmsByThread.get(threadId));
+
+        threadDatabase.update(threadId, false);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+
+    if (!threadIds.isEmpty()) {
+      notifyConversationListeners(threadIds);
+    }
+  }
+
+  /**
+   * Record a delivery receipt. Receipts are buffered briefly and applied in batches, see
+   * {@link ReceiptAggregator}.
+   */
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, true, false);
-    DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, true, false);
+    receiptAggregator.add(new ReceiptAggregator.Receipt(syncMessageId, timestamp, true));
   }
 
+  /**
+   * Record a read receipt. Receipts are buffered briefly and applied in batches, see
+   * {@link ReceiptAggregator}.
+   */
   public void incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, false, true);
-    DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, false, true);
+    receiptAggregator.add(new ReceiptAggregator.Receipt(syncMessageId, timestamp, false));
+  }
+
+  /**
+   * Apply any buffered receipts now, rather than when the current batch window closes.
+   */
+  public void flushReceipts() {
+    receiptAggregator.flush();
+  }
+
+  void applyReceipts(@NonNull List<ReceiptAggregator.Receipt> receipts) {
+    SQLiteDatabase db             = databaseHelper.getWritableDatabase();
+    SmsDatabase    smsDb          = DatabaseFactory.getSmsDatabase(context);
+    MmsDatabase    mmsDb          = DatabaseFactory.getMmsDatabase(context);
+    Set<Long>      threadIds      = new HashSet<>();
+    boolean        summaryChanged = false;
+
+    db.beginTransaction();
+
+    try {
+      for (ReceiptAggregator.Receipt receipt : receipts) {
+        summaryChanged |= smsDb.incrementReceiptCount(receipt.messageId, receipt.delivery, !receipt.delivery, threadIds);
+        summaryChanged |= mmsDb.incrementReceiptCount(receipt.messageId, receipt.timestamp, receipt.delivery, !receipt.delivery, threadIds);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListeners(threadIds);
+
+    if (summaryChanged) {
+      notifyConversationListListeners();
+    }
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull Address address, int limit) {
@@ -200,7 +362,60 @@ public class MmsSmsDatabase extends Database {
     return -1;
   }
 
+  private void getExpiringMessagesBefore(@NonNull String table, boolean mms, long expiresBefore, @NonNull List<ExpirationInfo> results) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         where = MmsSmsColumns.EXPIRE_STARTED + " > 0 AND " + MessagingDatabase.EXPIRES_AT + " < " + expiresBefore;
+
+    try (Cursor cursor = db.query(table, new String[] {MmsSmsColumns.ID, MmsSmsColumns.EXPIRES_IN, MmsSmsColumns.EXPIRE_STARTED},
+                                  where, null, null, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(new ExpirationInfo(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), mms));
+      }
+    }
+  }
+
+  private long getNextExpiration(@NonNull String table) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.query(table, new String[] {MessagingDatabase.EXPIRES_AT}, MmsSmsColumns.EXPIRE_STARTED + " > 0",
+                                  null, null, null, MessagingDatabase.EXPIRES_AT, "1"))
+    {
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return -1;
+    }
+  }
+
+  private @NonNull Map<Long, List<Long>> getIdsByThread(@NonNull String table, @NonNull Collection<Long> ids) {
+    Map<Long, List<Long>> results = new HashMap<>();
+
+    if (ids.isEmpty()) return results;
+
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         where = MmsSmsColumns.ID + " IN (" + Util.join(Stream.of(ids).map(String::valueOf).toList(), ",") + ")";
+
+    try (Cursor cursor = db.query(table, new String[] {MmsSmsColumns.ID, MmsSmsColumns.THREAD_ID}, where, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long threadId = cursor.getLong(1);
+
+        if (!results.containsKey(threadId)) {
+          results.put(threadId, new LinkedList<>());
+        }
+
+        results.get(threadId).add(cursor.getLong(0));
+      }
+    }
+
+    return results;
+  }
+
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(projection, selection, order, limit, false, true);
+  }
+
+  private Cursor queryTables(String[] projection, String selection, String order, String limit,
+                             boolean limitEachTable, boolean includeAttachments)
+  {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -272,9 +487,20 @@ public class MmsSmsDatabase extends Database {
     smsQueryBuilder.setDistinct(true);
 
     smsQueryBuilder.setTables(SmsDatabase.TABLE_NAME);
-    mmsQueryBuilder.setTables(MmsDatabase.TABLE_NAME + " LEFT OUTER JOIN " +
-                              AttachmentDatabase.TABLE_NAME +
-                              " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID);
+    int    computedColumnsOffset = 4;
+    String mmsGroupBy            = MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID;
+
+    if (includeAttachments) {
+      mmsQueryBuilder.setTables(MmsDatabase.TABLE_NAME + " LEFT OUTER JOIN " +
+                                AttachmentDatabase.TABLE_NAME +
+                                " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID);
+    } else {
+      mmsQueryBuilder.setTables(MmsDatabase.TABLE_NAME);
+      mmsProjection         = withoutAttachmentColumn(mmsProjection);
+      smsProjection         = withoutAttachmentColumn(smsProjection);
+      computedColumnsOffset = 3;
+      mmsGroupBy            = null;
+    }
 
 
     Set<String> mmsColumnsPresent = new HashSet<>();
@@ -349,9 +575,14 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(SmsDatabase.STATUS);
 
     @SuppressWarnings("deprecation")
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, computedColumnsOffset, MMS_TRANSPORT, selection, null, mmsGroupBy, null);
     @SuppressWarnings("deprecation")
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, computedColumnsOffset, SMS_TRANSPORT, selection, null, null, null);
+
+    if (limitEachTable) {
+      mmsSubQuery = "SELECT * FROM (" + mmsSubQuery + " ORDER BY " + order + " LIMIT " + limit + ")";
+      smsSubQuery = "SELECT * FROM (" + smsSubQuery + " ORDER BY " + order + " LIMIT " + limit + ")";
+    }
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String unionQuery = unionQueryBuilder.buildUnionQuery(new String[] {smsSubQuery, mmsSubQuery}, order, limit);
@@ -371,14 +602,56 @@ public class MmsSmsDatabase extends Database {
     return new Reader(cursor);
   }
 
+  /**
+   * A reader for conversation cursors that may have been queried without attachments, which
+   * takes the attachments of such rows from the given cache.
+   */
+  public Reader readerFor(@NonNull Cursor cursor, @Nullable ConversationAttachmentCache attachmentCache) {
+    return new Reader(cursor, attachmentCache);
+  }
+
+  private static String[] withoutAttachmentColumn(String[] projection) {
+    return Stream.of(projection)
+                 .filterNot(column -> column.endsWith(" AS " + AttachmentDatabase.ATTACHMENT_JSON_ALIAS))
+                 .toArray(String[]::new);
+  }
+
+  /**
+   * The position of a message in a conversation, used to request the page that follows it.
+   */
+  public static class PageKey {
+
+    private final long   dateReceived;
+    private final String uniqueRowId;
+
+    private PageKey(long dateReceived, @NonNull String uniqueRowId) {
+      this.dateReceived = dateReceived;
+      this.uniqueRowId  = uniqueRowId;
+    }
+
+    /**
+     * @return The key of the row the cursor is currently positioned on.
+     */
+    public static @NonNull PageKey fromCursor(@NonNull Cursor cursor) {
+      return new PageKey(cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)),
+                         cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID)));
+    }
+  }
+
   public class Reader {
 
-    private final Cursor                 cursor;
-    private       SmsDatabase.Reader     smsReader;
-    private       MmsDatabase.Reader     mmsReader;
+    private final Cursor                      cursor;
+    private final ConversationAttachmentCache attachmentCache;
+    private       SmsDatabase.Reader          smsReader;
+    private       MmsDatabase.Reader          mmsReader;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this(cursor, null);
+    }
+
+    public Reader(Cursor cursor, @Nullable ConversationAttachmentCache attachmentCache) {
+      this.cursor          = cursor;
+      this.attachmentCache = attachmentCache;
     }
 
     private SmsDatabase.Reader getSmsReader() {
@@ -391,7 +664,7 @@ public class MmsSmsDatabase extends Database {
 
     private MmsDatabase.Reader getMmsReader() {
       if (mmsReader == null) {
-        mmsReader = DatabaseFactory.getMmsDatabase(context).readerFor(cursor);
+        mmsReader = DatabaseFactory.getMmsDatabase(context).readerFor(cursor, attachmentCache);
       }
 
       return mmsReader;
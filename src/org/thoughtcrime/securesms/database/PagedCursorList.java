@@ -0,0 +1,204 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A list of a known size whose items are read from the database one page at a time. The first
+ * page is read up front, and whenever a page is read from, the page after it is loaded in the
+ * background, so that scrolling through the list doesn't have to wait on the database. A page
+ * that is asked for before its prefetch has started is read on the calling thread.
+ *
+ * Like {@link CursorList}, this holds cursors, so you must call {@link #close()} when you are
+ * finished with it.
+ */
+public class PagedCursorList<T> extends AbstractList<T> implements Closeable {
+
+  private static final String TAG = PagedCursorList.class.getSimpleName();
+
+  private final int                        size;
+  private final int                        pageSize;
+  private final PageLoader                 pageLoader;
+  private final CursorList.ModelBuilder<T> modelBuilder;
+  private final Executor                   prefetchExecutor;
+  private final Map<Integer, Cursor>       pages     = new HashMap<>();
+  private final Set<Integer>               queued    = new HashSet<>();
+  private final Set<Integer>               loading   = new HashSet<>();
+  private final List<ContentObserver>      observers = new LinkedList<>();
+
+  private boolean closed;
+
+  public PagedCursorList(int size, int pageSize,
+                         @NonNull PageLoader pageLoader,
+                         @NonNull CursorList.ModelBuilder<T> modelBuilder,
+                         @NonNull Executor prefetchExecutor)
+  {
+    this.size             = size;
+    this.pageSize         = pageSize;
+    this.pageLoader       = pageLoader;
+    this.modelBuilder     = modelBuilder;
+    this.prefetchExecutor = prefetchExecutor;
+
+    getPage(0);
+  }
+
+  public static <T> PagedCursorList<T> emptyList() {
+    //noinspection ConstantConditions
+    return new PagedCursorList<>(0, 1, (offset, limit) -> new MatrixCursor(new String[] { "a" }, 0), null, Runnable::run);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * If rows on a page were deleted after the list was built, the page will come back short, and
+   * the positions past its end repeat its last row until the list is replaced. If the page comes
+   * back empty, there is nothing to show for those positions, and null is returned instead.
+   */
+  @Override
+  public @Nullable T get(int i) {
+    if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+
+    int    index = i / pageSize;
+    Cursor page  = getPage(index);
+
+    prefetch(index + 1);
+
+    synchronized (this) {
+      if (closed)                throw new IllegalStateException("List is closed!");
+      if (page.getCount() == 0)  return null;
+
+      page.moveToPosition(Math.min(i % pageSize, page.getCount() - 1));
+
+      return modelBuilder.build(page);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+
+    for (Cursor page : pages.values()) {
+      if (!page.isClosed()) {
+        page.close();
+      }
+    }
+
+    notifyAll();
+  }
+
+  public synchronized void registerContentObserver(@NonNull ContentObserver observer) {
+    observers.add(observer);
+
+    for (Cursor page : pages.values()) {
+      page.registerContentObserver(observer);
+    }
+  }
+
+  public synchronized void unregisterContentObserver(@NonNull ContentObserver observer) {
+    observers.remove(observer);
+
+    for (Cursor page : pages.values()) {
+      page.unregisterContentObserver(observer);
+    }
+  }
+
+  private synchronized void prefetch(int index) {
+    if (closed || index * pageSize >= size || pages.containsKey(index) || loading.contains(index) || !queued.add(index)) {
+      return;
+    }
+
+    prefetchExecutor.execute(() -> {
+      synchronized (this) {
+        if (!queued.remove(index) || closed || pages.containsKey(index) || !loading.add(index)) {
+          return;
+        }
+      }
+
+      try {
+        load(index);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to prefetch page " + index, e);
+      }
+    });
+  }
+
+  private @NonNull Cursor getPage(int index) {
+    synchronized (this) {
+      while (true) {
+        if (closed) throw new IllegalStateException("List is closed!");
+
+        Cursor page = pages.get(index);
+
+        if (page != null)              return page;
+        if (!loading.contains(index))  break;
+
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+
+      queued.remove(index);
+      loading.add(index);
+    }
+
+    Cursor page = load(index);
+
+    if (page == null) throw new IllegalStateException("List is closed!");
+    else              return page;
+  }
+
+  /**
+   * Reads a page without holding the lock, so that items on pages that are already loaded can be
+   * read in the meantime.
+   *
+   * @return The page, or null if the list was closed while it was being read.
+   */
+  private @Nullable Cursor load(int index) {
+    Cursor page = null;
+
+    try {
+      page = pageLoader.load(index * pageSize, pageSize);
+    } finally {
+      synchronized (this) {
+        loading.remove(index);
+        notifyAll();
+
+        if (closed && page != null) {
+          page.close();
+          page = null;
+        } else if (page != null) {
+          pages.put(index, page);
+
+          for (ContentObserver observer : observers) {
+            page.registerContentObserver(observer);
+          }
+        }
+      }
+    }
+
+    return page;
+  }
+
+  public interface PageLoader {
+    @NonNull Cursor load(int offset, int limit);
+  }
+}
@@ -4,20 +4,22 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
-import android.util.Log;
+import android.support.annotation.Nullable;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
-import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.util.Hex;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
-import org.whispersystems.signalservice.internal.util.Util;
 
-import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class PushDatabase extends Database {
 
+  @SuppressWarnings("unused")
   private static final String TAG = PushDatabase.class.getSimpleName();
 
   private static final String TABLE_NAME   = "push";
@@ -28,58 +30,60 @@ public class PushDatabase extends Database {
   public  static final String LEGACY_MSG   = "body";
   public  static final String CONTENT      = "content";
   public  static final String TIMESTAMP    = "timestamp";
+  public  static final String CONTENT_HASH = "content_hash";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
-      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " TEXT, " + CONTENT + " TEXT, " + TIMESTAMP + " INTEGER);";
+      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " BLOB, " + CONTENT + " BLOB, " + TIMESTAMP + " INTEGER, " +
+      CONTENT_HASH + " BLOB);";
+
+  public static final String[] CREATE_INDEXS = {
+      "CREATE UNIQUE INDEX IF NOT EXISTS push_content_hash_index ON " + TABLE_NAME + " (" + CONTENT_HASH + ");",
+  };
 
   public PushDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
+  /**
+   * Store an envelope, unless an identical envelope is already stored.
+   *
+   * @return The id of the stored envelope.
+   */
   public long insert(@NonNull SignalServiceEnvelope envelope) {
-    Optional<Long> messageId = find(envelope);
-
-    if (messageId.isPresent()) {
-      return messageId.get();
-    } else {
-      ContentValues values = new ContentValues();
-      values.put(TYPE, envelope.getType());
-      values.put(SOURCE, envelope.getSource());
-      values.put(DEVICE_ID, envelope.getSourceDevice());
-      values.put(LEGACY_MSG, envelope.hasLegacyMessage() ? Base64.encodeBytes(envelope.getLegacyMessage()) : "");
-      values.put(CONTENT, envelope.hasContent() ? Base64.encodeBytes(envelope.getContent()) : "");
-      values.put(TIMESTAMP, envelope.getTimestamp());
-
-      return databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
+    SQLiteDatabase database    = databaseHelper.getWritableDatabase();
+    byte[]         contentHash = getContentHash(envelope.getType(), envelope.getSource(), envelope.getSourceDevice(), envelope.getTimestamp(),
+                                                envelope.hasLegacyMessage() ? envelope.getLegacyMessage() : null,
+                                                envelope.hasContent() ? envelope.getContent() : null);
+
+    ContentValues values = new ContentValues();
+    values.put(TYPE, envelope.getType());
+    values.put(SOURCE, envelope.getSource());
+    values.put(DEVICE_ID, envelope.getSourceDevice());
+    values.put(LEGACY_MSG, envelope.hasLegacyMessage() ? envelope.getLegacyMessage() : null);
+    values.put(CONTENT, envelope.hasContent() ? envelope.getContent() : null);
+    values.put(TIMESTAMP, envelope.getTimestamp());
+    values.put(CONTENT_HASH, contentHash);
+
+    long messageId = database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+    if (messageId != -1) {
+      return messageId;
     }
-  }
 
-  public SignalServiceEnvelope get(long id) throws NoSuchMessageException {
-    Cursor cursor = null;
+    Optional<Long> existing = find(contentHash);
 
-    try {
-      cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, ID_WHERE,
-                                                          new String[] {String.valueOf(id)},
-                                                          null, null, null);
+    if (existing.isPresent()) return existing.get();
+    else                      throw new AssertionError("Failed to insert envelope!");
+  }
 
+  public SignalServiceEnvelope get(long id) throws NoSuchMessageException {
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, ID_WHERE,
+                                                                    new String[] {String.valueOf(id)},
+                                                                    null, null, null))
+    {
       if (cursor != null && cursor.moveToNext()) {
-        String legacyMessage = cursor.getString(cursor.getColumnIndexOrThrow(LEGACY_MSG));
-        String content       = cursor.getString(cursor.getColumnIndexOrThrow(CONTENT));
-
-        return new SignalServiceEnvelope(cursor.getInt(cursor.getColumnIndexOrThrow(TYPE)),
-                                         cursor.getString(cursor.getColumnIndexOrThrow(SOURCE)),
-                                         cursor.getInt(cursor.getColumnIndexOrThrow(DEVICE_ID)),
-                                         "",
-                                         cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP)),
-                                         Util.isEmpty(legacyMessage) ? null : Base64.decode(legacyMessage),
-                                         Util.isEmpty(content) ? null : Base64.decode(content));
+        return readerFor(cursor).getCurrent();
       }
-    } catch (IOException e) {
-      Log.w(TAG, e);
-      throw new NoSuchMessageException(e);
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
 
     throw new NoSuchMessageException("Not found");
@@ -97,29 +101,47 @@ public class PushDatabase extends Database {
     return new Reader(cursor);
   }
 
-  private Optional<Long> find(SignalServiceEnvelope envelope) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    Cursor         cursor   = null;
-
+  /**
+   * The digest that identifies duplicate envelopes. It covers every field that is stored, so two
+   * envelopes share a hash exactly when they used to match on all of their columns.
+   */
+  public static @NonNull byte[] getContentHash(int type, @Nullable String source, int sourceDevice, long timestamp,
+                                               @Nullable byte[] legacyMessage, @Nullable byte[] content)
+  {
     try {
-      cursor = database.query(TABLE_NAME, null, TYPE + " = ? AND " + SOURCE + " = ? AND " +
-                                                DEVICE_ID + " = ? AND " + LEGACY_MSG + " = ? AND " +
-                                                CONTENT + " = ? AND " + TIMESTAMP + " = ?" ,
-                              new String[] {String.valueOf(envelope.getType()),
-                                            envelope.getSource(),
-                                            String.valueOf(envelope.getSourceDevice()),
-                                            envelope.hasLegacyMessage() ? Base64.encodeBytes(envelope.getLegacyMessage()) : "",
-                                            envelope.hasContent() ? Base64.encodeBytes(envelope.getContent()) : "",
-                                            String.valueOf(envelope.getTimestamp())},
-                              null, null, null);
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+      digest.update(Conversions.intToByteArray(type));
+      digest.update(Conversions.intToByteArray(sourceDevice));
+      digest.update(Conversions.longToByteArray(timestamp));
+      updateWithLengthPrefix(digest, source != null ? source.getBytes() : null);
+      updateWithLengthPrefix(digest, legacyMessage);
+      updateWithLengthPrefix(digest, content);
+
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
 
+  private static void updateWithLengthPrefix(@NonNull MessageDigest digest, @Nullable byte[] value) {
+    if (value == null) {
+      digest.update(Conversions.intToByteArray(-1));
+    } else {
+      digest.update(Conversions.intToByteArray(value.length));
+      digest.update(value);
+    }
+  }
+
+  private Optional<Long> find(@NonNull byte[] contentHash) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.rawQuery("SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + CONTENT_HASH + " = X'" + Hex.toStringCondensed(contentHash) + "'", null)) {
       if (cursor != null && cursor.moveToFirst()) {
-        return Optional.of(cursor.getLong(cursor.getColumnIndexOrThrow(ID)));
+        return Optional.of(cursor.getLong(0));
       } else {
         return Optional.absent();
       }
-    } finally {
-      if (cursor != null) cursor.close();
     }
   }
 
@@ -131,23 +153,21 @@ public class PushDatabase extends Database {
     }
 
     public SignalServiceEnvelope getNext() {
-      try {
-        if (cursor == null || !cursor.moveToNext())
-          return null;
-
-        int    type          = cursor.getInt(cursor.getColumnIndexOrThrow(TYPE));
-        String source        = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE));
-        int    deviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(DEVICE_ID));
-        String legacyMessage = cursor.getString(cursor.getColumnIndexOrThrow(LEGACY_MSG));
-        String content       = cursor.getString(cursor.getColumnIndexOrThrow(CONTENT));
-        long   timestamp     = cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP));
-
-        return new SignalServiceEnvelope(type, source, deviceId, "", timestamp,
-                                         legacyMessage != null ? Base64.decode(legacyMessage) : null,
-                                         content != null ? Base64.decode(content) : null);
-      } catch (IOException e) {
-        throw new AssertionError(e);
-      }
+      if (cursor == null || !cursor.moveToNext())
+        return null;
+
+      return getCurrent();
+    }
+
+    public SignalServiceEnvelope getCurrent() {
+      int    type          = cursor.getInt(cursor.getColumnIndexOrThrow(TYPE));
+      String source        = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE));
+      int    deviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(DEVICE_ID));
+      byte[] legacyMessage = cursor.getBlob(cursor.getColumnIndexOrThrow(LEGACY_MSG));
+      byte[] content       = cursor.getBlob(cursor.getColumnIndexOrThrow(CONTENT));
+      long   timestamp     = cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP));
+
+      return new SignalServiceEnvelope(type, source, deviceId, "", timestamp, legacyMessage, content);
     }
 
     public void close() {
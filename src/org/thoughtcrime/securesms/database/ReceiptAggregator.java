@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.database;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers incoming delivery and read receipts for a short window, so that a burst of receipts
+ * (for example one from every member of a large group) is applied in a single transaction,
+ * and each affected thread is notified once per batch rather than once per receipt.
+ *
+ * Callers that are about to drop their only durable copy of a receipt, like the push row it
+ * arrived in or the envelope they are about to acknowledge, should {@link #flush()} first rather
+ * than wait for the window to close. A flush still applies everything buffered by other threads
+ * in the same transaction.
+ *
+ * If a batch fails, its receipts are applied one at a time so that a bad receipt can't hold back
+ * the rest. A receipt that keeps failing is dropped after {@link #MAX_ATTEMPTS} tries.
+ */
+class ReceiptAggregator {
+
+  private static final String TAG = ReceiptAggregator.class.getSimpleName();
+
+  private static final long BATCH_WINDOW_MILLIS = 100;
+  private static final long RETRY_DELAY_MILLIS  = 1000;
+  private static final int  MAX_BATCH_SIZE      = 500;
+  private static final int  MAX_ATTEMPTS        = 3;
+
+  private final ScheduledExecutorService executor  = Executors.newSingleThreadScheduledExecutor();
+  private final Object                   flushLock = new Object();
+  private final MmsSmsDatabase           database;
+
+  private List<Receipt> pending        = new LinkedList<>();
+  private boolean       flushScheduled = false;
+
+  ReceiptAggregator(@NonNull MmsSmsDatabase database) {
+    this.database = database;
+  }
+
+  synchronized void add(@NonNull Receipt receipt) {
+    pending.add(receipt);
+
+    if (pending.size() >= MAX_BATCH_SIZE) {
+      executor.execute(this::flush);
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(this::flush, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Apply every pending receipt before returning, including any picked up by a flush that was
+   * already in progress. Receipts that fail to apply are put back and retried later, up to
+   * {@link #MAX_ATTEMPTS} times.
+   */
+  void flush() {
+    synchronized (flushLock) {
+      List<Receipt> receipts;
+
+      synchronized (this) {
+        receipts       = pending;
+        pending        = new LinkedList<>();
+        flushScheduled = false;
+      }
+
+      if (receipts.isEmpty()) return;
+
+      try {
+        database.applyReceipts(receipts);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to apply " + receipts.size() + " receipts, applying individually...", e);
+        applyIndividually(receipts);
+      }
+    }
+  }
+
+  private void applyIndividually(@NonNull List<Receipt> receipts) {
+    List<Receipt> failed = new LinkedList<>();
+
+    for (Receipt receipt : receipts) {
+      try {
+        database.applyReceipts(Collections.singletonList(receipt));
+      } catch (RuntimeException e) {
+        if (++receipt.attempts < MAX_ATTEMPTS) {
+          Log.w(TAG, "Failed to apply receipt for " + receipt.messageId.getTimetamp() + ", retrying...", e);
+          failed.add(receipt);
+        } else {
+          Log.w(TAG, "Failed to apply receipt for " + receipt.messageId.getTimetamp() + " " + MAX_ATTEMPTS + " times, dropping it.", e);
+        }
+      }
+    }
+
+    if (!failed.isEmpty()) {
+      requeue(failed);
+    }
+  }
+
+  private synchronized void requeue(@NonNull List<Receipt> receipts) {
+    receipts.addAll(pending);
+    pending = receipts;
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(this::flush, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  static class Receipt {
+    final SyncMessageId messageId;
+    final long          timestamp;
+    final boolean       delivery;
+
+    private int attempts;
+
+    Receipt(@NonNull SyncMessageId messageId, long timestamp, boolean delivery) {
+      this.messageId = messageId;
+      this.timestamp = timestamp;
+      this.delivery  = delivery;
+    }
+  }
+}
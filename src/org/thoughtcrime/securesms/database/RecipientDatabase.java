@@ -11,6 +11,7 @@ import android.util.Log;
 import com.annimon.stream.Stream;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.thoughtcrime.securesms.color.MaterialColor;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
@@ -20,6 +21,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -157,6 +159,36 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Look up the settings of several recipients with a single query.
+   *
+   * @return The settings of each address that has any, keyed by address.
+   */
+  public @NonNull Map<Address, RecipientSettings> getRecipientSettings(@NonNull Collection<Address> addresses) {
+    Map<Address, RecipientSettings> results = new HashMap<>(addresses.size());
+
+    if (addresses.isEmpty()) {
+      return results;
+    }
+
+    SQLiteDatabase database  = databaseHelper.getReadableDatabase();
+    String[]       args      = Stream.of(addresses).map(Address::serialize).toArray(String[]::new);
+    String         selection = ADDRESS + " IN (" + Util.join(Stream.of(addresses).map(address -> "?").toList(), ",") + ")";
+
+    try (Cursor cursor = database.query(TABLE_NAME, null, selection, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        Address                     address  = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
+        Optional<RecipientSettings> settings = getRecipientSettings(cursor);
+
+        if (settings.isPresent()) {
+          results.put(address, settings.get());
+        }
+      }
+    }
+
+    return results;
+  }
+
   Optional<RecipientSettings> getRecipientSettings(@NonNull Cursor cursor) {
     boolean blocked               = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
     String  messageRingtone       = cursor.getString(cursor.getColumnIndexOrThrow(NOTIFICATION));
@@ -344,24 +376,89 @@ public class RecipientDatabase extends Database {
     recipient.setRegistered(registeredState);
   }
 
+  /**
+   * Updates the registered state of many addresses at once. The current states are read in one
+   * query, and only the rows that actually change are written, all in a single transaction. A row
+   * that turns out to exist already when it is inserted is updated instead.
+   */
   public void setRegistered(@NonNull List<Address> activeAddresses,
                             @NonNull List<Address> inactiveAddresses)
   {
-    for (Address activeAddress : activeAddresses) {
-      ContentValues contentValues = new ContentValues(1);
-      contentValues.put(REGISTERED, RegisteredState.REGISTERED.getId());
+    SQLiteDatabase        database      = databaseHelper.getWritableDatabase();
+    Map<Address, Integer> currentStates = new HashMap<>();
+    long                  startMillis   = System.currentTimeMillis();
+    long                  loadedMillis;
+    int                   changed       = 0;
+
+    database.beginTransaction();
+
+    try {
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {ADDRESS, REGISTERED}, null, null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          currentStates.put(Address.fromSerialized(cursor.getString(0)), cursor.getInt(1));
+        }
+      }
+
+      loadedMillis = System.currentTimeMillis();
+
+      SQLiteStatement update = database.compileStatement("UPDATE " + TABLE_NAME + " SET " + REGISTERED + " = ? WHERE " + ADDRESS + " = ?");
+      SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO " + TABLE_NAME + " (" + ADDRESS + ", " + REGISTERED + ") VALUES (?, ?)");
+
+      try {
+        changed += setRegistered(update, insert, currentStates, activeAddresses, RegisteredState.REGISTERED);
+        changed += setRegistered(update, insert, currentStates, inactiveAddresses, RegisteredState.NOT_REGISTERED);
+      } finally {
+        update.close();
+        insert.close();
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
-      updateOrInsert(activeAddress, contentValues);
+    for (Address activeAddress : activeAddresses) {
       Recipient.applyCached(activeAddress, recipient -> recipient.setRegistered(RegisteredState.REGISTERED));
     }
 
     for (Address inactiveAddress : inactiveAddresses) {
-      ContentValues contentValues = new ContentValues(1);
-      contentValues.put(REGISTERED, RegisteredState.NOT_REGISTERED.getId());
-
-      updateOrInsert(inactiveAddress, contentValues);
       Recipient.applyCached(inactiveAddress, recipient -> recipient.setRegistered(RegisteredState.NOT_REGISTERED));
     }
+
+    Log.i(TAG, "setRegistered() -> load: " + (loadedMillis - startMillis) + "ms (" + currentStates.size() + " rows)" +
+               ", apply: " + (System.currentTimeMillis() - loadedMillis) + "ms (" + changed + " of " + (activeAddresses.size() + inactiveAddresses.size()) + " changed)");
+  }
+
+  private int setRegistered(@NonNull SQLiteStatement update, @NonNull SQLiteStatement insert,
+                            @NonNull Map<Address, Integer> currentStates,
+                            @NonNull List<Address> addresses, @NonNull RegisteredState registeredState)
+  {
+    int changed = 0;
+
+    for (Address address : addresses) {
+      Integer currentState = currentStates.get(address);
+
+      if (currentState != null && currentState == registeredState.getId()) continue;
+
+      boolean inserted = false;
+
+      if (currentState == null) {
+        insert.bindString(1, address.serialize());
+        insert.bindLong(2, registeredState.getId());
+        inserted = insert.executeInsert() != -1;
+      }
+
+      if (!inserted) {
+        update.bindLong(1, registeredState.getId());
+        update.bindString(2, address.serialize());
+        update.execute();
+      }
+
+      currentStates.put(address, registeredState.getId());
+      changed++;
+    }
+
+    return changed;
   }
 
   public List<Address> getRegistered() {
@@ -0,0 +1,73 @@
+package org.thoughtcrime.securesms.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.annimon.stream.function.Predicate;
+
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import java.util.Iterator;
+
+/**
+ * A bounded, write-through cache of decoded rows, including rows that are known to be absent.
+ *
+ * A read that misses should take a {@link #getGeneration()} before querying and hand it back to
+ * {@link #putIfCurrent(Object, Optional, long)}, so that a row loaded before a concurrent write
+ * can never replace the value that write left in the cache.
+ */
+class RecordCache<K, V> {
+
+  private final LRUCache<K, Optional<V>> cache;
+
+  private long generation;
+
+  RecordCache(int maxSize) {
+    this.cache = new LRUCache<>(maxSize);
+  }
+
+  /**
+   * @return The cached value, absent if the row is known not to exist, or null on a miss.
+   */
+  synchronized @Nullable Optional<V> get(@NonNull K key) {
+    return cache.get(key);
+  }
+
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  synchronized void putIfCurrent(@NonNull K key, @NonNull Optional<V> value, long generation) {
+    if (this.generation == generation) {
+      cache.put(key, value);
+    }
+  }
+
+  synchronized void put(@NonNull K key, @NonNull Optional<V> value) {
+    generation++;
+    cache.put(key, value);
+  }
+
+  synchronized void remove(@NonNull K key) {
+    generation++;
+    cache.remove(key);
+  }
+
+  synchronized void removeIf(@NonNull Predicate<K> predicate) {
+    generation++;
+
+    Iterator<K> iterator = cache.keySet().iterator();
+
+    while (iterator.hasNext()) {
+      if (predicate.test(iterator.next())) {
+        iterator.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    generation++;
+    cache.clear();
+  }
+}
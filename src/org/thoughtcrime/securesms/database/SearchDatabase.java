@@ -1,7 +1,9 @@
 package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -26,73 +28,308 @@ public class SearchDatabase extends Database {
   public static final String RANK    = "rank";
   public static final String SNIPPET = "snippet";
 
+  public static final String JOURNAL_TABLE_NAME = "search_journal";
+
+  private static final String JOURNAL_ID   = "_id";
+  private static final String SOURCE       = "source";
+  private static final String MESSAGE_ID   = "message_id";
+  private static final String INDEXED      = "indexed";
+  private static final String INDEXED_BODY = "indexed_body";
+
+  private static final int SOURCE_SMS = 0;
+  private static final int SOURCE_MMS = 1;
+
+  /**
+   * The FTS tables are external content tables over sms and mms, but they aren't updated by the
+   * statements that change a message body. Instead triggers record each changed message in the
+   * journal, along with whether it's currently in the index and with which body, and
+   * {@link #applyJournal(int)} brings the index up to date in batches. Only the first change to a
+   * message since the last batch is recorded, since that's the one that describes the index.
+   */
   public static final String[] CREATE_TABLE = {
-      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
-
-      "CREATE TRIGGER sms_ai AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ") VALUES (new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER sms_ad AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER sms_au AFTER UPDATE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ");\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ") VALUES(new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ");\n" +
-          "END;",
-
-
-      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ");",
-
-      "CREATE TRIGGER mms_ai AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER mms_ad AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER mms_au AFTER UPDATE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ");\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ");\n" +
-          "END;"
+      "CREATE VIRTUAL TABLE IF NOT EXISTS " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
+      "CREATE VIRTUAL TABLE IF NOT EXISTS " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ");",
+
+      "CREATE TABLE IF NOT EXISTS " + JOURNAL_TABLE_NAME + " (" + JOURNAL_ID + " INTEGER PRIMARY KEY, " + SOURCE + " INTEGER, " +
+          MESSAGE_ID + " INTEGER, " + INDEXED + " INTEGER, " + INDEXED_BODY + " TEXT);",
+      "CREATE INDEX IF NOT EXISTS search_journal_message_index ON " + JOURNAL_TABLE_NAME + " (" + SOURCE + ", " + MESSAGE_ID + ");",
+
+      createJournalTrigger("sms_ai", "INSERT", SmsDatabase.TABLE_NAME, SOURCE_SMS, "new", false),
+      createJournalTrigger("sms_ad", "DELETE", SmsDatabase.TABLE_NAME, SOURCE_SMS, "old", true),
+      createJournalTrigger("sms_au", "UPDATE OF " + BODY, SmsDatabase.TABLE_NAME, SOURCE_SMS, "old", true),
+
+      createJournalTrigger("mms_ai", "INSERT", MmsDatabase.TABLE_NAME, SOURCE_MMS, "new", false),
+      createJournalTrigger("mms_ad", "DELETE", MmsDatabase.TABLE_NAME, SOURCE_MMS, "old", true),
+      createJournalTrigger("mms_au", "UPDATE OF " + BODY, MmsDatabase.TABLE_NAME, SOURCE_MMS, "old", true)
+  };
+
+  public static final String[] DROP_TRIGGERS = {
+      "DROP TRIGGER IF EXISTS sms_ai;",
+      "DROP TRIGGER IF EXISTS sms_ad;",
+      "DROP TRIGGER IF EXISTS sms_au;",
+      "DROP TRIGGER IF EXISTS mms_ai;",
+      "DROP TRIGGER IF EXISTS mms_ad;",
+      "DROP TRIGGER IF EXISTS mms_au;"
   };
 
-  private static final String MESSAGES_QUERY =
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MmsSmsColumns.THREAD_ID + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MmsSmsColumns.THREAD_ID + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
+  private static final int MAX_MATCHES = 5000;
 
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
-    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+  /**
+   * Find the messages matching a query, in result order. Only ids are read here, so this stays
+   * cheap however many messages match; snippets are built a page at a time by
+   * {@link #getMessagePage(MessageMatches, int, int)}.
+   *
+   * @param within An earlier, complete set of matches that the new matches are known to be a
+   *               subset of, such as those for a shorter prefix of the same query. Only those
+   *               messages are matched again.
+   */
+  public @NonNull MessageMatches queryMessageMatches(@NonNull String query, @NonNull Order order, @Nullable MessageMatches within) {
+    SQLiteDatabase db          = databaseHelper.getReadableDatabase();
+    String         prefixQuery = getPrefixQuery(query);
+    String         smsWhere    = within != null ? " AND " + SMS_FTS_TABLE_NAME + "." + ID + " IN (" + within.getIds(false) + ")" : "";
+    String         mmsWhere    = within != null ? " AND " + MMS_FTS_TABLE_NAME + "." + ID + " IN (" + within.getIds(true) + ")" : "";
+
+    String sql =
+        "SELECT " +
+          SMS_FTS_TABLE_NAME + "." + ID + ", " +
+          "0, " +
+          SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+          "bm25(" + SMS_FTS_TABLE_NAME + ") AS " + RANK + " " +
+        "FROM " + SmsDatabase.TABLE_NAME + " " +
+        "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ?" + smsWhere + " " +
+        "UNION ALL " +
+        "SELECT " +
+          MMS_FTS_TABLE_NAME + "." + ID + ", " +
+          "1, " +
+          MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+          "bm25(" + MMS_FTS_TABLE_NAME + ") AS " + RANK + " " +
+        "FROM " + MmsDatabase.TABLE_NAME + " " +
+        "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ?" + mmsWhere + " " +
+        "ORDER BY " + getOrderBy(order) + " " +
+        "LIMIT " + (MAX_MATCHES + 1);
+
+    try (Cursor cursor = db.rawQuery(sql, new String[] { prefixQuery, prefixQuery })) {
+      int       count = Math.min(cursor.getCount(), MAX_MATCHES);
+      long[]    ids   = new long[count];
+      boolean[] mms   = new boolean[count];
+
+      for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+        ids[i] = cursor.getLong(0);
+        mms[i] = cursor.getInt(1) == 1;
+      }
+
+      return new MessageMatches(query, order, ids, mms, cursor.getCount() <= MAX_MATCHES);
+    }
+  }
+
+  /**
+   * @return The address, snippet, date and thread of a page of matches, in result order.
+   */
+  public Cursor getMessagePage(@NonNull MessageMatches matches, int offset, int limit) {
+    SQLiteDatabase db          = databaseHelper.getReadableDatabase();
+    String         prefixQuery = getPrefixQuery(matches.query);
+    int            end         = Math.min(offset + limit, matches.size());
+
+    String sql =
+        "SELECT " +
+          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + ", " +
+          "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
+          SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+          MmsSmsColumns.THREAD_ID + ", " +
+          "bm25(" + SMS_FTS_TABLE_NAME + ") AS " + RANK + " " +
+        "FROM " + SmsDatabase.TABLE_NAME + " " +
+        "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? AND " + SMS_FTS_TABLE_NAME + "." + ID + " IN (" + matches.getIds(false, offset, end) + ") " +
+        "UNION ALL " +
+        "SELECT " +
+          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + ", " +
+          "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
+          MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+          MmsSmsColumns.THREAD_ID + ", " +
+          "bm25(" + MMS_FTS_TABLE_NAME + ") AS " + RANK + " " +
+        "FROM " + MmsDatabase.TABLE_NAME + " " +
+        "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? AND " + MMS_FTS_TABLE_NAME + "." + ID + " IN (" + matches.getIds(true, offset, end) + ") " +
+        "ORDER BY " + getOrderBy(matches.order);
+
+    Cursor cursor = db.rawQuery(sql, new String[] { prefixQuery, prefixQuery });
+    setNotifyConverationListListeners(cursor);
+    return cursor;
+  }
+
+  /**
+   * Apply the oldest journaled body changes to the FTS tables, in one transaction.
+   *
+   * @return The number of changes applied. If this is less than the limit, the index is current.
+   */
+  public int applyJournal(int limit) {
+    SQLiteDatabase db      = databaseHelper.getWritableDatabase();
+    int            applied = 0;
+    long           lastId  = -1;
+
+    db.beginTransaction();
+
+    try {
+      try (Cursor cursor = db.query(JOURNAL_TABLE_NAME, new String[] {JOURNAL_ID, SOURCE, MESSAGE_ID, INDEXED, INDEXED_BODY},
+                                    null, null, null, null, JOURNAL_ID, String.valueOf(limit)))
+      {
+        while (cursor != null && cursor.moveToNext()) {
+          boolean mms          = cursor.getInt(1) == SOURCE_MMS;
+          String  ftsTable     = mms ? MMS_FTS_TABLE_NAME : SMS_FTS_TABLE_NAME;
+          String  contentTable = mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+          long    messageId    = cursor.getLong(2);
+
+          if (cursor.getInt(3) == 1) {
+            db.execSQL("INSERT INTO " + ftsTable + " (" + ftsTable + ", " + ID + ", " + BODY + ") VALUES ('delete', ?, ?)",
+                       new Object[] {messageId, cursor.getString(4)});
+          }
 
+          db.execSQL("INSERT INTO " + ftsTable + " (" + ID + ", " + BODY + ") " +
+                     "SELECT " + MmsSmsColumns.ID + ", " + MmsSmsColumns.BODY + " FROM " + contentTable + " WHERE " + MmsSmsColumns.ID + " = ?",
+                     new Object[] {messageId});
+
+          lastId = cursor.getLong(0);
+          applied++;
+        }
+      }
+
+      db.delete(JOURNAL_TABLE_NAME, JOURNAL_ID + " <= ?", new String[] {String.valueOf(lastId)});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return applied;
+  }
+
+  /**
+   * Merge some of the index segments written by {@link #applyJournal(int)}, doing at most about
+   * the given number of pages of work in each FTS table.
+   */
+  public void mergeIndex(int pages) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (String ftsTable : new String[] {SMS_FTS_TABLE_NAME, MMS_FTS_TABLE_NAME}) {
+      db.execSQL("INSERT INTO " + ftsTable + " (" + ftsTable + ", " + RANK + ") VALUES ('merge', ?)", new Object[] {pages});
+    }
+  }
+
+  /**
+   * Merge every segment of both FTS tables into one. This can take a while on a large index.
+   */
+  public void optimizeIndex() {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (String ftsTable : new String[] {SMS_FTS_TABLE_NAME, MMS_FTS_TABLE_NAME}) {
+      db.execSQL("INSERT INTO " + ftsTable + " (" + ftsTable + ") VALUES ('optimize')");
+    }
+  }
+
+  /**
+   * Observe changes that may have added to the journal.
+   */
+  public void registerJournalObserver(@NonNull ContentObserver observer) {
+    registerConversationListListener(observer);
+  }
+
+  private static @NonNull String createJournalTrigger(@NonNull String name, @NonNull String event, @NonNull String table,
+                                                      int source, @NonNull String row, boolean indexed)
+  {
+    String when = event.startsWith("UPDATE") ? " WHEN old." + BODY + " IS NOT new." + BODY : "";
+
+    return "CREATE TRIGGER IF NOT EXISTS " + name + " AFTER " + event + " ON " + table + when + " BEGIN\n" +
+           "  INSERT INTO " + JOURNAL_TABLE_NAME + " (" + SOURCE + ", " + MESSAGE_ID + ", " + INDEXED + ", " + INDEXED_BODY + ") " +
+           "SELECT " + source + ", " + row + "." + MmsSmsColumns.ID + ", " + (indexed ? 1 : 0) + ", " + (indexed ? row + "." + BODY : "NULL") + " " +
+           "WHERE NOT EXISTS (SELECT 1 FROM " + JOURNAL_TABLE_NAME + " WHERE " + SOURCE + " = " + source + " AND " + MESSAGE_ID + " = " + row + "." + MmsSmsColumns.ID + ");\n" +
+           "END;";
+  }
+
+  private static @NonNull String getPrefixQuery(@NonNull String query) {
     List<String> tokens      = Stream.of(query.split(" ")).filter(s -> s.trim().length() > 0).toList();
     String       prefixQuery = Util.join(tokens, "* ");
 
     prefixQuery += "*";
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { prefixQuery, prefixQuery });
-    setNotifyConverationListListeners(cursor);
-    return cursor;
+    return prefixQuery;
   }
-}
 
+  private static @NonNull String getOrderBy(@NonNull Order order) {
+    switch (order) {
+      case RELEVANCE: return RANK + " ASC, " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
+      default:        return MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
+    }
+  }
+
+  public enum Order {
+    /** Newest first. */
+    RECENT,
+    /** Best bm25 score first. */
+    RELEVANCE
+  }
+
+  /**
+   * The ids of the messages matching a query, in result order.
+   */
+  public static class MessageMatches {
+
+    private final String    query;
+    private final Order     order;
+    private final long[]    ids;
+    private final boolean[] mms;
+    private final boolean   complete;
+
+    private MessageMatches(@NonNull String query, @NonNull Order order, @NonNull long[] ids, @NonNull boolean[] mms, boolean complete) {
+      this.query    = query;
+      this.order    = order;
+      this.ids      = ids;
+      this.mms      = mms;
+      this.complete = complete;
+    }
+
+    public @NonNull String getQuery() {
+      return query;
+    }
+
+    public @NonNull Order getOrder() {
+      return order;
+    }
+
+    public int size() {
+      return ids.length;
+    }
+
+    /**
+     * @return false if more messages matched than are kept.
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    private @NonNull String getIds(boolean mms) {
+      return getIds(mms, 0, ids.length);
+    }
+
+    private @NonNull String getIds(boolean mms, int start, int end) {
+      StringBuilder builder = new StringBuilder();
+
+      for (int i = start; i < end; i++) {
+        if (this.mms[i] != mms) continue;
+        if (builder.length() > 0) builder.append(',');
+
+        builder.append(ids[i]);
+      }
+
+      return builder.toString();
+    }
+  }
+}
@@ -12,6 +12,7 @@ import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.whispersystems.libsignal.state.SessionRecord;
+import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 
 import java.io.IOException;
@@ -34,22 +35,54 @@ public class SessionDatabase extends Database {
       DEVICE + " INTEGER NOT NULL, " + RECORD + " BLOB NOT NULL, " +
       "UNIQUE(" + ADDRESS + "," + DEVICE + ") ON CONFLICT REPLACE);";
 
+  private static final int CACHE_SIZE = 500;
+
+  /**
+   * Serialized records, since a decoded {@link SessionRecord} is mutated in place by its users
+   * and is only sometimes stored back afterwards.
+   */
+  private final RecordCache<SessionKey, byte[]> cache = new RecordCache<>(CACHE_SIZE);
+
   SessionDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public void store(@NonNull Address address, int deviceId, @NonNull SessionRecord record) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    SQLiteDatabase database   = databaseHelper.getWritableDatabase();
+    byte[]         serialized = record.serialize();
 
     ContentValues values = new ContentValues();
     values.put(ADDRESS, address.serialize());
     values.put(DEVICE, deviceId);
-    values.put(RECORD, record.serialize());
+    values.put(RECORD, serialized);
 
     database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    cache.put(new SessionKey(address, deviceId), Optional.of(serialized));
   }
 
   public @Nullable SessionRecord load(@NonNull Address address, int deviceId) {
+    SessionKey       key        = new SessionKey(address, deviceId);
+    Optional<byte[]> serialized = cache.get(key);
+
+    if (serialized == null) {
+      long generation = cache.getGeneration();
+
+      serialized = loadSerialized(address, deviceId);
+      cache.putIfCurrent(key, serialized, generation);
+    }
+
+    if (serialized.isPresent()) {
+      try {
+        return new SessionRecord(serialized.get());
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    return null;
+  }
+
+  private @NonNull Optional<byte[]> loadSerialized(@NonNull Address address, int deviceId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
 
     try (Cursor cursor = database.query(TABLE_NAME, new String[]{RECORD},
@@ -58,15 +91,11 @@ public class SessionDatabase extends Database {
                                         null, null, null))
     {
       if (cursor != null && cursor.moveToFirst()) {
-        try {
-          return new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
-        } catch (IOException e) {
-          Log.w(TAG, e);
-        }
+        return Optional.of(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
       }
     }
 
-    return null;
+    return Optional.absent();
   }
 
   public @NonNull List<SessionRow> getAllFor(@NonNull Address address) {
@@ -137,11 +166,40 @@ public class SessionDatabase extends Database {
 
     database.delete(TABLE_NAME, ADDRESS + " = ? AND " + DEVICE + " = ?",
                     new String[] {address.serialize(), String.valueOf(deviceId)});
+    cache.put(new SessionKey(address, deviceId), Optional.absent());
   }
 
   public void deleteAllFor(@NonNull Address address) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ADDRESS + " = ?", new String[] {address.serialize()});
+    cache.removeIf(key -> key.address.equals(address));
+  }
+
+  void clearCache() {
+    cache.clear();
+  }
+
+  private static final class SessionKey {
+    private final Address address;
+    private final int     deviceId;
+
+    private SessionKey(@NonNull Address address, int deviceId) {
+      this.address  = address;
+      this.deviceId = deviceId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof SessionKey)) return false;
+
+      SessionKey that = (SessionKey) other;
+      return this.deviceId == that.deviceId && this.address.equals(that.address);
+    }
+
+    @Override
+    public int hashCode() {
+      return address.hashCode() * 31 + deviceId;
+    }
   }
 
   public static final class SessionRow {
@@ -18,6 +18,7 @@ import org.whispersystems.libsignal.ecc.ECKeyPair;
 import org.whispersystems.libsignal.ecc.ECPrivateKey;
 import org.whispersystems.libsignal.ecc.ECPublicKey;
 import org.whispersystems.libsignal.state.SignedPreKeyRecord;
+import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.util.LinkedList;
@@ -44,11 +45,28 @@ public class SignedPreKeyDatabase extends Database {
       SIGNATURE + " TEXT NOT NULL, " +
       TIMESTAMP + " INTEGER DEFAULT 0);";
 
+  private static final int CACHE_SIZE = 10;
+
+  private final RecordCache<Integer, SignedPreKeyRecord> cache = new RecordCache<>(CACHE_SIZE);
+
   SignedPreKeyDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public @Nullable SignedPreKeyRecord getSignedPreKey(int keyId) {
+    Optional<SignedPreKeyRecord> record = cache.get(keyId);
+
+    if (record == null) {
+      long generation = cache.getGeneration();
+
+      record = Optional.fromNullable(loadSignedPreKey(keyId));
+      cache.putIfCurrent(keyId, record, generation);
+    }
+
+    return record.orNull();
+  }
+
+  private @Nullable SignedPreKeyRecord loadSignedPreKey(int keyId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
 
     try (Cursor cursor = database.query(TABLE_NAME, null, KEY_ID + " = ?",
@@ -106,12 +124,18 @@ public class SignedPreKeyDatabase extends Database {
     contentValues.put(TIMESTAMP, record.getTimestamp());
 
     database.replace(TABLE_NAME, null, contentValues);
+    cache.put(keyId, Optional.of(record));
   }
 
 
   public void removeSignedPreKey(int keyId) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, KEY_ID + " = ? AND " + SIGNATURE + " IS NOT NULL", new String[] {String.valueOf(keyId)});
+    cache.remove(keyId);
+  }
+
+  void clearCache() {
+    cache.clear();
   }
 
 }
@@ -44,11 +44,14 @@ import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
 import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -65,7 +68,7 @@ public class SmsDatabase extends MessagingDatabase {
 
   public  static final String TABLE_NAME         = "sms";
   public  static final String PERSON             = "person";
-          static final String DATE_RECEIVED      = "date";
+  public  static final String DATE_RECEIVED      = "date";
           static final String DATE_SENT          = "date_sent";
   public  static final String PROTOCOL           = "protocol";
   public  static final String STATUS             = "status";
@@ -89,7 +92,8 @@ public class SmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS sms_read_and_notified_and_thread_id_index ON " + TABLE_NAME + "(" + READ + "," + NOTIFIED + ","  + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_type_index ON " + TABLE_NAME + " (" + TYPE + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
-    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");"
+    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS sms_expire_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -126,7 +130,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -149,6 +153,15 @@ public class SmsDatabase extends MessagingDatabase {
     }
   }
 
+  private long getDateReceivedForMessage(long id) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {DATE_RECEIVED}, ID_WHERE, new String[] {String.valueOf(id)}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return -1;
+    }
+  }
+
   public int getMessageCount() {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
     Cursor cursor     = null;
@@ -258,7 +271,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -271,7 +284,7 @@ public class SmsDatabase extends MessagingDatabase {
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {id+""});
 
     long threadId = getThreadIdForMessage(id);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -289,12 +302,30 @@ public class SmsDatabase extends MessagingDatabase {
   }
 
   public void incrementReceiptCount(SyncMessageId messageId, boolean deliveryReceipt, boolean readReceipt) {
-    SQLiteDatabase database     = databaseHelper.getWritableDatabase();
-    Cursor         cursor       = null;
-    boolean        foundMessage = false;
+    Set<Long> threadIds = new HashSet<>();
+
+    if (incrementReceiptCount(messageId, deliveryReceipt, readReceipt, threadIds)) {
+      notifyConversationListListeners();
+    }
+
+    notifyConversationListeners(threadIds);
+  }
+
+  /**
+   * Increment the receipt count of matching messages, and of their thread summaries when they
+   * are the newest message in the thread.
+   *
+   * @param updatedThreadIds Populated with the threads of the messages that were updated.
+   * @return true if a thread summary changed.
+   */
+  boolean incrementReceiptCount(SyncMessageId messageId, boolean deliveryReceipt, boolean readReceipt, @NonNull Set<Long> updatedThreadIds) {
+    SQLiteDatabase database       = databaseHelper.getWritableDatabase();
+    Cursor         cursor         = null;
+    boolean        foundMessage   = false;
+    boolean        summaryChanged = false;
 
     try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, ADDRESS, TYPE},
+      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, ADDRESS, TYPE, DATE_RECEIVED},
                               DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())},
                               null, null, null, null);
 
@@ -312,8 +343,8 @@ public class SmsDatabase extends MessagingDatabase {
                              ID + " = ?",
                              new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
 
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            summaryChanged |= DatabaseFactory.getThreadDatabase(context).updateForReceipt(threadId, cursor.getLong(cursor.getColumnIndexOrThrow(DATE_RECEIVED)), deliveryReceipt);
+            updatedThreadIds.add(threadId);
             foundMessage = true;
           }
         }
@@ -328,6 +359,8 @@ public class SmsDatabase extends MessagingDatabase {
       if (cursor != null)
         cursor.close();
     }
+
+    return summaryChanged;
   }
 
   public List<Pair<Long, Long>> setTimestampRead(SyncMessageId messageId, long proposedExpireStarted) {
@@ -432,7 +465,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, messageId, false, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -458,7 +491,7 @@ public class SmsDatabase extends MessagingDatabase {
       SQLiteDatabase db           = databaseHelper.getWritableDatabase();
       long           newMessageId = db.insert(TABLE_NAME, null, contentValues);
 
-      DatabaseFactory.getThreadDatabase(context).update(record.getThreadId(), true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(record.getThreadId(), newMessageId, false, true);
       notifyConversationListeners(record.getThreadId());
 
       jobManager.add(new TrimThreadJob(context, record.getThreadId()));
@@ -497,7 +530,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long messageId    = db.insert(TABLE_NAME, null, values);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
     notifyConversationListeners(threadId);
     jobManager.add(new TrimThreadJob(context, threadId));
 
@@ -581,7 +614,9 @@ public class SmsDatabase extends MessagingDatabase {
       }
 
       if (!message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault()) {
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
+      } else {
+        DatabaseFactory.getThreadDatabase(context).updateForHiddenInsert(threadId);
       }
 
       if (message.getSubscriptionId() != -1) {
@@ -640,8 +675,10 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
       DatabaseFactory.getThreadDatabase(context).setLastSeen(threadId);
+    } else {
+      DatabaseFactory.getThreadDatabase(context).updateForHiddenInsert(threadId);
     }
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
@@ -666,12 +703,6 @@ public class SmsDatabase extends MessagingDatabase {
     return db.query(TABLE_NAME, MESSAGE_PROJECTION, outgoingSelection, null, null, null, null);
   }
 
-  public Cursor getExpirationStartedMessages() {
-    String         where = EXPIRE_STARTED + " > 0";
-    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
-    return db.query(TABLE_NAME, MESSAGE_PROJECTION, where, null, null, null, null);
-  }
-
   public SmsMessageRecord getMessage(long messageId) throws NoSuchMessageException {
     SQLiteDatabase db     = databaseHelper.getReadableDatabase();
     Cursor         cursor = db.query(TABLE_NAME, MESSAGE_PROJECTION, ID_WHERE, new String[]{messageId + ""}, null, null, null);
@@ -693,8 +724,9 @@ public class SmsDatabase extends MessagingDatabase {
     Log.w("MessageDatabase", "Deleting: " + messageId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long threadId     = getThreadIdForMessage(messageId);
+    long dateReceived = getDateReceivedForMessage(messageId);
     db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, dateReceived);
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
@@ -716,6 +748,11 @@ public class SmsDatabase extends MessagingDatabase {
     }
   }
 
+  /*package*/ void deleteMessages(@NonNull Collection<Long> messageIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.delete(TABLE_NAME, ID + " IN (" + Util.join(Stream.of(messageIds).map(String::valueOf).toList(), ",") + ")", null);
+  }
+
   /*package */void deleteThread(long threadId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, THREAD_ID + " = ?", new String[] {threadId+""});
@@ -491,24 +491,35 @@ public class ThreadDatabase extends Database {
     return getThreadIdFor(recipient, DistributionTypes.DEFAULT);
   }
 
+  /**
+   * Returns the thread for a recipient, creating it if there isn't one yet. Messages from
+   * different senders are stored concurrently, so the check for an existing thread is repeated
+   * inside the (exclusive) transaction that creates one, and two callers can't both create it.
+   */
   public long getThreadIdFor(Recipient recipient, int distributionType) {
-    SQLiteDatabase db            = databaseHelper.getReadableDatabase();
-    String         where         = ADDRESS + " = ?";
-    String[]       recipientsArg = new String[]{recipient.getAddress().serialize()};
-    Cursor         cursor        = null;
+    long threadId = getThreadIdIfExistsFor(recipient);
+
+    if (threadId != -1) {
+      return threadId;
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
 
     try {
-      cursor = db.query(TABLE_NAME, new String[]{ID}, where, recipientsArg, null, null, null);
+      threadId = getThreadIdIfExistsFor(recipient);
 
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-      } else {
-        return createThreadForRecipient(recipient.getAddress(), recipient.isGroupRecipient(), distributionType);
+      if (threadId == -1) {
+        threadId = createThreadForRecipient(recipient.getAddress(), recipient.isGroupRecipient(), distributionType);
       }
+
+      db.setTransactionSuccessful();
     } finally {
-      if (cursor != null)
-        cursor.close();
+      db.endTransaction();
     }
+
+    return threadId;
   }
 
   public @Nullable Recipient getRecipientForThreadId(long threadId) {
@@ -586,6 +597,186 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * Apply a newly inserted message to the thread summary. The message count is incremented in
+   * place and the snippet is only replaced when the message is the newest in the thread. A thread
+   * with a count of zero, which has only held hidden messages so far, is counted from scratch.
+   *
+   * The newest check and the write share a transaction, so that a newer message inserted by
+   * another thread can't have its snippet overwritten by this one.
+   */
+  public void updateForInsert(long threadId, long messageId, boolean mms, boolean unarchive) {
+    MessageRecord record = getMessageRecord(messageId, mms);
+
+    if (record == null) {
+      update(threadId, unarchive);
+      return;
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.beginTransaction();
+
+    try {
+      long          count         = getMessageCount(threadId);
+      ContentValues contentValues = isNewest(threadId, record.getDateReceived()) ? getSummaryValues(record)
+                                                                                 : new ContentValues(2);
+
+      if (count > 0) contentValues.put(MESSAGE_COUNT, count + 1);
+      else           contentValues.put(MESSAGE_COUNT, DatabaseFactory.getMmsSmsDatabase(context).getConversationCount(threadId));
+
+      if (unarchive) {
+        contentValues.put(ARCHIVED, 0);
+      }
+
+      db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Apply a change to an existing message (status, type, body, expiration) to the thread
+   * summary. Only the newest message is mirrored in the summary, so changes to any other
+   * message leave the thread untouched.
+   */
+  public void updateForChange(long threadId, long messageId, boolean mms, boolean unarchive) {
+    MessageRecord record = getMessageRecord(messageId, mms);
+
+    if (record == null) {
+      update(threadId, unarchive);
+      return;
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    ContentValues  contentValues;
+
+    db.beginTransaction();
+
+    try {
+      contentValues = isNewest(threadId, record.getDateReceived()) ? getSummaryValues(record)
+                                                                   : new ContentValues(1);
+
+      if (unarchive) {
+        contentValues.put(ARCHIVED, 0);
+      }
+
+      if (contentValues.size() > 0) {
+        db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (contentValues.size() > 0) {
+      notifyConversationListListeners();
+    }
+  }
+
+  /**
+   * Apply a receipt for a message to the thread summary, which only mirrors the receipt counts
+   * of the newest message. Listeners are not notified, so that a batch of receipts can notify
+   * them once.
+   *
+   * @return true if the summary changed.
+   */
+  boolean updateForReceipt(long threadId, long dateReceived, boolean deliveryReceipt) {
+    if (!isNewest(threadId, dateReceived)) {
+      return false;
+    }
+
+    String         column = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
+    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
+
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + column + " = " + column + " + 1 WHERE " + ID + " = ?",
+               new String[] {String.valueOf(threadId)});
+
+    return true;
+  }
+
+  /**
+   * Apply the deletion of a message to the thread summary. The summary is only recomputed from
+   * scratch when the deleted message was the newest in the thread, or when the stored message
+   * count can't be right because it would leave no messages behind the newest one.
+   *
+   * @return true if the thread was deleted because it no longer contains any messages.
+   */
+  public boolean updateForDelete(long threadId, long dateReceived) {
+    if (isNewest(threadId, dateReceived) || getMessageCount(threadId) <= 1) {
+      return update(threadId, false);
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " - 1 WHERE " + ID + " = ?",
+               new String[] {String.valueOf(threadId)});
+
+    notifyConversationListListeners();
+    return false;
+  }
+
+  /**
+   * Count a newly inserted message that is kept out of the thread summary, like an identity
+   * update. Threads without any other messages keep a count of zero, so that they stay hidden
+   * from the conversation list, until {@link #updateForInsert} counts every message in them,
+   * hidden ones included, as {@link #update} would.
+   */
+  public void updateForHiddenInsert(long threadId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + 1 WHERE " + ID + " = ? AND " + MESSAGE_COUNT + " > 0",
+               new String[] {String.valueOf(threadId)});
+  }
+
+  private long getMessageCount(long threadId) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {MESSAGE_COUNT}, ID_WHERE, new String[] {String.valueOf(threadId)}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return 0;
+    }
+  }
+
+  private boolean isNewest(long threadId, long dateReceived) {
+    return !DatabaseFactory.getMmsSmsDatabase(context).hasMessageReceivedAfter(threadId, dateReceived);
+  }
+
+  private @Nullable MessageRecord getMessageRecord(long messageId, boolean mms) {
+    if (mms) {
+      MmsDatabase mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+
+      try (MmsDatabase.Reader reader = mmsDatabase.readerFor(mmsDatabase.getMessage(messageId))) {
+        return reader.getNext();
+      }
+    } else {
+      try {
+        return DatabaseFactory.getSmsDatabase(context).getMessage(messageId);
+      } catch (NoSuchMessageException e) {
+        Log.w(TAG, e);
+        return null;
+      }
+    }
+  }
+
+  private @NonNull ContentValues getSummaryValues(@NonNull MessageRecord record) {
+    long          date          = record.getTimestamp();
+    Uri           attachment    = getAttachmentUriFor(record);
+    ContentValues contentValues = new ContentValues(9);
+
+    contentValues.put(DATE, date - date % 1000);
+    contentValues.put(SNIPPET, getFormattedBodyFor(record));
+    contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
+    contentValues.put(SNIPPET_TYPE, record.getType());
+    contentValues.put(STATUS, record.getDeliveryStatus());
+    contentValues.put(DELIVERY_RECEIPT_COUNT, record.getDeliveryReceiptCount());
+    contentValues.put(READ_RECEIPT_COUNT, record.getReadReceiptCount());
+    contentValues.put(EXPIRES_IN, record.getExpiresIn());
+
+    return contentValues;
+  }
+
   private @NonNull String getFormattedBodyFor(@NonNull MessageRecord messageRecord) {
     if (messageRecord.isMms() && ((MmsMessageRecord) messageRecord).getSharedContacts().size() > 0) {
       Contact contact = ((MmsMessageRecord) messageRecord).getSharedContacts().get(0);
@@ -32,9 +32,11 @@ import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
 import org.thoughtcrime.securesms.service.KeyCachingService;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 
 import java.io.File;
+import java.io.IOException;
 
 public class SQLCipherOpenHelper extends SQLiteOpenHelper {
 
@@ -50,8 +52,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int SHARED_CONTACTS                  = 8;
   private static final int FULL_TEXT_SEARCH                 = 9;
   private static final int BAD_IMPORT_CLEANUP               = 10;
+  private static final int PUSH_CONTENT_HASH                = 11;
+  private static final int EXPIRATION_INDEX                 = 12;
+  private static final int GROUP_RECEIPT_BITMAPS            = 13;
+  private static final int SEARCH_JOURNAL                   = 14;
+  private static final int GROUP_RECEIPT_MEMBERS_CLEANUP    = 15;
 
-  private static final int    DATABASE_VERSION = 10;
+  private static final int    DATABASE_VERSION = 15;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -88,6 +95,8 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(GroupDatabase.CREATE_TABLE);
     db.execSQL(RecipientDatabase.CREATE_TABLE);
     db.execSQL(GroupReceiptDatabase.CREATE_TABLE);
+    db.execSQL(GroupReceiptDatabase.CREATE_BITMAP_TABLE);
+    db.execSQL(GroupReceiptDatabase.CREATE_MEMBERS_TABLE);
     db.execSQL(OneTimePreKeyDatabase.CREATE_TABLE);
     db.execSQL(SignedPreKeyDatabase.CREATE_TABLE);
     db.execSQL(SessionDatabase.CREATE_TABLE);
@@ -102,6 +111,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     executeStatements(db, DraftDatabase.CREATE_INDEXS);
     executeStatements(db, GroupDatabase.CREATE_INDEXS);
     executeStatements(db, GroupReceiptDatabase.CREATE_INDEXES);
+    executeStatements(db, PushDatabase.CREATE_INDEXS);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -235,6 +245,61 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         }
       }
 
+      if (oldVersion < PUSH_CONTENT_HASH) {
+        db.execSQL("CREATE TABLE push_tmp (_id INTEGER PRIMARY KEY, type INTEGER, source TEXT, device_id INTEGER, body BLOB, content BLOB, timestamp INTEGER, content_hash BLOB)");
+        db.execSQL("CREATE UNIQUE INDEX push_tmp_content_hash_index ON push_tmp (content_hash)");
+
+        try (Cursor cursor = db.query("push", new String[] {"_id", "type", "source", "device_id", "body", "content", "timestamp"}, null, null, null, null, null)) {
+          while (cursor != null && cursor.moveToNext()) {
+            int    type          = cursor.getInt(1);
+            String source        = cursor.getString(2);
+            int    deviceId      = cursor.getInt(3);
+            byte[] legacyMessage = TextUtils.isEmpty(cursor.getString(4)) ? null : Base64.decode(cursor.getString(4));
+            byte[] content       = TextUtils.isEmpty(cursor.getString(5)) ? null : Base64.decode(cursor.getString(5));
+            long   timestamp     = cursor.getLong(6);
+
+            ContentValues values = new ContentValues();
+            values.put("_id", cursor.getLong(0));
+            values.put("type", type);
+            values.put("source", source);
+            values.put("device_id", deviceId);
+            values.put("body", legacyMessage);
+            values.put("content", content);
+            values.put("timestamp", timestamp);
+            values.put("content_hash", PushDatabase.getContentHash(type, source, deviceId, timestamp, legacyMessage, content));
+
+            db.insertWithOnConflict("push_tmp", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+          }
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+
+        db.execSQL("DROP TABLE push");
+        db.execSQL("DROP INDEX push_tmp_content_hash_index");
+        db.execSQL("ALTER TABLE push_tmp RENAME TO push");
+        db.execSQL("CREATE UNIQUE INDEX push_content_hash_index ON push (content_hash)");
+      }
+
+      if (oldVersion < EXPIRATION_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_expire_index ON sms (expire_started + expires_in) WHERE expire_started > 0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_expire_index ON mms (expire_started + expires_in) WHERE expire_started > 0");
+      }
+
+      if (oldVersion < GROUP_RECEIPT_BITMAPS) {
+        db.execSQL("CREATE TABLE group_receipt_bitmaps (_id INTEGER PRIMARY KEY, mms_id INTEGER UNIQUE, members_id INTEGER, delivered BLOB, read BLOB, timestamp INTEGER)");
+        db.execSQL("CREATE TABLE group_receipt_members (_id INTEGER PRIMARY KEY, members TEXT UNIQUE)");
+      }
+
+      if (oldVersion < SEARCH_JOURNAL) {
+        executeStatements(db, SearchDatabase.DROP_TRIGGERS);
+        executeStatements(db, SearchDatabase.CREATE_TABLE);
+      }
+
+      if (oldVersion < GROUP_RECEIPT_MEMBERS_CLEANUP) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS group_receipt_bitmap_members_index ON group_receipt_bitmaps (members_id)");
+        db.execSQL("DELETE FROM group_receipt_members WHERE _id NOT IN (SELECT members_id FROM group_receipt_bitmaps)");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -2,25 +2,39 @@ package org.thoughtcrime.securesms.database.loaders;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MergeCursor;
 
+import org.thoughtcrime.securesms.database.ConversationAttachmentCache;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase.PageKey;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
 import org.whispersystems.libsignal.util.Pair;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ConversationLoader extends AbstractCursorLoader {
   private final long    threadId;
   private       int     offset;
   private       int     limit;
+  private       int     pageCount;
   private       long    lastSeen;
   private       boolean hasSent;
+  private       boolean hasMore;
 
-  public ConversationLoader(Context context, long threadId, int offset, int limit, long lastSeen) {
+  /**
+   * When there is no offset, the conversation is loaded as {@code pageCount} pages of
+   * {@code limit} messages, each located by the key of the last message in the page before it.
+   */
+  public ConversationLoader(Context context, long threadId, int offset, int limit, int pageCount, long lastSeen) {
     super(context);
-    this.threadId = threadId;
-    this.offset   = offset;
-    this.limit    = limit;
-    this.lastSeen = lastSeen;
-    this.hasSent  = true;
+    this.threadId  = threadId;
+    this.offset    = offset;
+    this.limit     = limit;
+    this.pageCount = pageCount;
+    this.lastSeen  = lastSeen;
+    this.hasSent   = true;
   }
 
   public boolean hasLimit() {
@@ -31,10 +45,25 @@ public class ConversationLoader extends AbstractCursorLoader {
     return offset > 0;
   }
 
+  public boolean isPaged() {
+    return hasLimit() && !hasOffset();
+  }
+
   public int getOffset() {
     return offset;
   }
 
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  /**
+   * @return true if the last load was cut short by the limit, and older messages remain.
+   */
+  public boolean hasMore() {
+    return hasMore;
+  }
+
   public long getLastSeen() {
     return lastSeen;
   }
@@ -53,6 +82,39 @@ public class ConversationLoader extends AbstractCursorLoader {
       this.lastSeen = lastSeenAndHasSent.first();
     }
 
-    return DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, offset, limit);
+    if (!isPaged()) {
+      Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, offset, limit);
+      this.hasMore = hasLimit() && cursor != null && cursor.getCount() >= limit;
+      return cursor;
+    }
+
+    return getPages();
+  }
+
+  private Cursor getPages() {
+    MmsSmsDatabase              database        = DatabaseFactory.getMmsSmsDatabase(context);
+    ConversationAttachmentCache attachmentCache = new ConversationAttachmentCache(context);
+    List<Cursor>                pages           = new ArrayList<>(pageCount);
+    PageKey                     after           = null;
+
+    this.hasMore = false;
+
+    for (int i = 0; i < pageCount; i++) {
+      Cursor page = database.getConversationPage(threadId, after, limit);
+      pages.add(page);
+      attachmentCache.fill(page);
+
+      if (page.getCount() < limit || !page.moveToLast()) {
+        break;
+      }
+
+      after = PageKey.fromCursor(page);
+      page.moveToPosition(-1);
+
+      this.hasMore = i == pageCount - 1;
+    }
+
+    if (pages.size() == 1) return attachmentCache.wrap(pages.get(0));
+    else                   return attachmentCache.wrap(new MergeCursor(pages.toArray(new Cursor[pages.size()])));
   }
 }
@@ -46,10 +46,14 @@ public class GroupMessageProcessor {
 
   private static final String TAG = GroupMessageProcessor.class.getSimpleName();
 
-  public static @Nullable Long process(@NonNull Context context,
-                                       @NonNull SignalServiceEnvelope envelope,
-                                       @NonNull SignalServiceDataMessage message,
-                                       boolean outgoing)
+  /**
+   * Synchronized because incoming messages from different senders are processed in parallel,
+   * and each group update is a read-modify-write of the group's record.
+   */
+  public static synchronized @Nullable Long process(@NonNull Context context,
+                                                    @NonNull SignalServiceEnvelope envelope,
+                                                    @NonNull SignalServiceDataMessage message,
+                                                    boolean outgoing)
   {
     if (!message.getGroupInfo().isPresent() || message.getGroupInfo().get().getGroupId() == null) {
       Log.w(TAG, "Received group message with no id! Ignoring...");
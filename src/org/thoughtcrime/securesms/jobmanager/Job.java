@@ -97,6 +97,23 @@ public abstract class Job implements Serializable {
     return runIteration;
   }
 
+  /**
+   * Restore the retry state of a job that was persisted without Java serialization, and so was
+   * reconstructed with freshly created {@link JobParameters}.
+   */
+  public void restoreRetryState(int runIteration, long retryUntil) {
+    this.runIteration = runIteration;
+    this.parameters.setRetryUntil(retryUntil);
+  }
+
+  /**
+   * Move a job to a different group. The group is used to queue the job, so this may only be
+   * called before the job is queued, for example while its dependencies are injected on restore.
+   */
+  protected void setGroupId(String groupId) {
+    this.parameters.setGroupId(groupId);
+  }
+
   public boolean needsWakeLock() {
     return parameters.needsWakeLock();
   }
@@ -105,6 +122,10 @@ public abstract class Job implements Serializable {
     return parameters.getWakeLockTimeout();
   }
 
+  public int getPriority() {
+    return parameters.getPriority();
+  }
+
   public void setWakeLock(PowerManager.WakeLock wakeLock) {
     this.wakeLock = wakeLock;
   }
@@ -19,8 +19,6 @@ package org.thoughtcrime.securesms.jobmanager;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import org.thoughtcrime.securesms.jobmanager.persistence.PersistentStorage;
-
 class JobConsumer extends Thread {
 
   private static final String TAG = JobConsumer.class.getSimpleName();
@@ -31,20 +29,25 @@ class JobConsumer extends Thread {
     DEFERRED
   }
 
-  private final JobQueue          jobQueue;
-  private final PersistentStorage persistentStorage;
+  private final JobQueue               jobQueue;
+  private final PersistentWriteBatcher writeBatcher;
+  private final JobMetrics             metrics;
 
-  public JobConsumer(String name, JobQueue jobQueue, PersistentStorage persistentStorage) {
+  public JobConsumer(String name, JobQueue jobQueue, PersistentWriteBatcher writeBatcher, JobMetrics metrics) {
     super(name);
-    this.jobQueue          = jobQueue;
-    this.persistentStorage = persistentStorage;
+    this.jobQueue     = jobQueue;
+    this.writeBatcher = writeBatcher;
+    this.metrics      = metrics;
   }
 
   @Override
   public void run() {
     while (true) {
-      Job       job    = jobQueue.getNext();
-      JobResult result = runJob(job);
+      Job       job       = jobQueue.getNext();
+      long      startTime = System.currentTimeMillis();
+      JobResult result    = runJob(job);
+
+      metrics.onJobFinished(job, result, System.currentTimeMillis() - startTime);
 
       if (result == JobResult.DEFERRED) {
         jobQueue.push(job);
@@ -54,7 +57,7 @@ class JobConsumer extends Thread {
         }
 
         if (job.isPersistent()) {
-          persistentStorage.remove(job.getPersistentId());
+          writeBatcher.remove(job.getPersistentId());
         }
 
         if (job.getWakeLock() != null && job.getWakeLockTimeout() == 0) {
@@ -82,6 +85,8 @@ class JobConsumer extends Thread {
         }
 
         job.onRetry();
+        metrics.onJobRetried(job);
+
         if (!job.isRequirementsMet()) {
           return JobResult.DEFERRED;
         }
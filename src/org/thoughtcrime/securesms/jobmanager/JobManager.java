@@ -18,6 +18,7 @@ package org.thoughtcrime.securesms.jobmanager;
 
 import android.content.Context;
 import android.os.PowerManager;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.jobmanager.dependencies.AggregateDependencyInjector;
@@ -27,12 +28,11 @@ import org.thoughtcrime.securesms.jobmanager.persistence.PersistentStorage;
 import org.thoughtcrime.securesms.jobmanager.requirements.RequirementListener;
 import org.thoughtcrime.securesms.jobmanager.requirements.RequirementProvider;
 
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -42,23 +42,29 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class JobManager implements RequirementListener {
 
-  private final JobQueue      jobQueue           = new JobQueue();
-  private final Executor      eventExecutor      = Executors.newSingleThreadExecutor();
-  private final AtomicBoolean hasLoadedEncrypted = new AtomicBoolean(false);
+  private static final String TAG = JobManager.class.getSimpleName();
+
+  private final JobMetrics               metrics            = new JobMetrics();
+  private final JobQueue                 jobQueue           = new JobQueue(metrics);
+  private final ScheduledExecutorService eventExecutor      = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicBoolean            hasLoadedEncrypted = new AtomicBoolean(false);
 
   private final Context                     context;
   private final PersistentStorage           persistentStorage;
+  private final PersistentWriteBatcher      writeBatcher;
   private final List<RequirementProvider>   requirementProviders;
   private final AggregateDependencyInjector dependencyInjector;
 
   private JobManager(Context context, String name,
                      List<RequirementProvider> requirementProviders,
                      DependencyInjector dependencyInjector,
-                     JobSerializer jobSerializer, int consumers)
+                     JobSerializer jobSerializer, int consumers,
+                     long writeBatchWindow, int writeBatchSize)
   {
     this.context              = context;
     this.dependencyInjector   = new AggregateDependencyInjector(dependencyInjector);
     this.persistentStorage    = new PersistentStorage(context, name, jobSerializer, this.dependencyInjector);
+    this.writeBatcher         = new PersistentWriteBatcher(persistentStorage, eventExecutor, new WriteCallback(), writeBatchWindow, writeBatchSize);
     this.requirementProviders = requirementProviders;
 
     eventExecutor.execute(new LoadTask(null));
@@ -70,7 +76,7 @@ public class JobManager implements RequirementListener {
     }
 
     for (int i=0;i<consumers;i++) {
-      new JobConsumer("JobConsumer-" + i, jobQueue, persistentStorage).start();
+      new JobConsumer("JobConsumer-" + i, jobQueue, writeBatcher, metrics).start();
     }
   }
 
@@ -89,7 +95,8 @@ public class JobManager implements RequirementListener {
   }
 
   /**
-   * Queue a {@link org.thoughtcrime.securesms.jobmanager.Job} to be executed.
+   * Queue a {@link org.thoughtcrime.securesms.jobmanager.Job} to be executed.  Persistent jobs
+   * are written in batches, and are only queued once the batch they belong to is committed.
    *
    * @param job The Job to be executed.
    */
@@ -98,24 +105,15 @@ public class JobManager implements RequirementListener {
       job.setWakeLock(acquireWakeLock(context, job.toString(), job.getWakeLockTimeout()));
     }
 
-    eventExecutor.execute(new Runnable() {
-      @Override
-      public void run() {
-        try {
-          if (job.isPersistent()) {
-            persistentStorage.store(job);
-          }
-
-          dependencyInjector.injectDependencies(context, job);
-
-          job.onAdded();
-          jobQueue.add(job);
-        } catch (IOException e) {
-          Log.w("JobManager", e);
-          job.onCanceled();
-        }
-      }
-    });
+    writeBatcher.add(job);
+  }
+
+  /**
+   * @return Queue depth, wait, group blocking, and run time statistics for the jobs this
+   *         JobManager has executed so far.
+   */
+  public JobMetrics.Snapshot getMetricsSnapshot() {
+    return metrics.getSnapshot();
   }
 
   @Override
@@ -138,22 +136,56 @@ public class JobManager implements RequirementListener {
     return wakeLock;
   }
 
+  private class WriteCallback implements PersistentWriteBatcher.Callback {
+
+    @Override
+    public void onCommitted(@NonNull Job job) {
+      dependencyInjector.injectDependencies(context, job);
+
+      job.onAdded();
+      jobQueue.add(job);
+    }
+
+    @Override
+    public void onFailed(@NonNull Job job) {
+      Log.w(TAG, "Failed to persist job: " + job);
+      job.onCanceled();
+    }
+  }
+
+  /**
+   * Restores persisted jobs a page at a time, queueing each page as soon as it has been decoded.
+   * Every page is run as a separate task on the event executor, so jobs added while a large
+   * backlog is being restored don't have to wait for the whole restore to finish. Only jobs that
+   * were stored before the restore started are read, since anything added since is already queued.
+   */
   private class LoadTask implements Runnable {
 
+    private static final int PAGE_SIZE = 50;
+
     private final EncryptionKeys keys;
 
+    private long lastId = 0;
+    private long maxId  = -1;
+
     public LoadTask(EncryptionKeys keys) {
       this.keys = keys;
     }
 
     @Override
     public void run() {
-      List<Job> pendingJobs;
+      List<Job> pendingJobs = new LinkedList<>();
+
+      if (maxId == -1) maxId = persistentStorage.getMaxId();
+
+      if (keys == null) lastId = persistentStorage.getUnencrypted(lastId, maxId, PAGE_SIZE, pendingJobs);
+      else              lastId = persistentStorage.getEncrypted(keys, lastId, maxId, PAGE_SIZE, pendingJobs);
 
-      if (keys == null) pendingJobs = persistentStorage.getAllUnencrypted();
-      else              pendingJobs = persistentStorage.getAllEncrypted(keys);
+      jobQueue.addRestored(pendingJobs);
 
-      jobQueue.addAll(pendingJobs);
+      if (lastId != -1) {
+        eventExecutor.execute(this);
+      }
     }
   }
 
@@ -164,10 +196,14 @@ public class JobManager implements RequirementListener {
     private       DependencyInjector        dependencyInjector;
     private       JobSerializer             jobSerializer;
     private       int                       consumerThreads;
+    private       long                      writeBatchWindow;
+    private       int                       writeBatchSize;
 
     Builder(Context context) {
-      this.context         = context;
-      this.consumerThreads = 5;
+      this.context          = context;
+      this.consumerThreads  = 5;
+      this.writeBatchWindow = 20;
+      this.writeBatchSize   = 100;
     }
 
     /**
@@ -231,6 +267,21 @@ public class JobManager implements RequirementListener {
       return this;
     }
 
+    /**
+     * Configure how persistent job writes are batched.  Inserts and deletes are committed in a
+     * single transaction once maxSize writes are pending, or windowMillis after the first
+     * pending write, whichever comes first.
+     *
+     * @param windowMillis The longest a write may wait for its batch to be committed.
+     * @param maxSize The largest number of writes committed in a single transaction.
+     * @return The builder.
+     */
+    public Builder withWriteBatching(long windowMillis, int maxSize) {
+      this.writeBatchWindow = windowMillis;
+      this.writeBatchSize   = maxSize;
+      return this;
+    }
+
     /**
      * @return A constructed JobManager.
      */
@@ -245,7 +296,7 @@ public class JobManager implements RequirementListener {
 
       return new JobManager(context, name, requirementProviders,
                             dependencyInjector, jobSerializer,
-                            consumerThreads);
+                            consumerThreads, writeBatchWindow, writeBatchSize);
     }
   }
 
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2014 Open Whisper Systems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects execution statistics for the jobs run by a {@link JobManager}: how long jobs wait
+ * in the queue, how long they are blocked behind another job with the same groupId, how long
+ * they run, and how often they are retried or deferred.
+ */
+public class JobMetrics {
+
+  private final Map<String, ClassMetrics> classMetrics = new HashMap<>();
+
+  private int queueDepth;
+  private int running;
+
+  synchronized void onQueueDepthChanged(int queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  synchronized void onJobStarted(@NonNull Job job, long waitMillis, long groupBlockedMillis) {
+    ClassMetrics metrics = getClassMetrics(job);
+
+    metrics.started++;
+    metrics.waitTime.add(waitMillis);
+
+    if (job.getGroupId() != null) {
+      metrics.groupBlockedTime.add(groupBlockedMillis);
+    }
+
+    running++;
+  }
+
+  synchronized void onJobRetried(@NonNull Job job) {
+    getClassMetrics(job).retries++;
+  }
+
+  synchronized void onJobFinished(@NonNull Job job, @NonNull JobConsumer.JobResult result, long runMillis) {
+    ClassMetrics metrics = getClassMetrics(job);
+
+    metrics.runTime.add(runMillis);
+
+    switch (result) {
+      case SUCCESS:  metrics.succeeded++; break;
+      case FAILURE:  metrics.failed++;    break;
+      case DEFERRED: metrics.deferred++;  break;
+    }
+
+    running--;
+  }
+
+  /**
+   * @return A point in time copy of the collected statistics.
+   */
+  public synchronized @NonNull Snapshot getSnapshot() {
+    Map<String, ClassSnapshot> classes = new TreeMap<>();
+
+    for (Map.Entry<String, ClassMetrics> entry : classMetrics.entrySet()) {
+      classes.put(entry.getKey(), entry.getValue().snapshot());
+    }
+
+    return new Snapshot(queueDepth, running, classes);
+  }
+
+  private @NonNull ClassMetrics getClassMetrics(@NonNull Job job) {
+    String       name    = job.getClass().getSimpleName();
+    ClassMetrics metrics = classMetrics.get(name);
+
+    if (metrics == null) {
+      metrics = new ClassMetrics();
+      classMetrics.put(name, metrics);
+    }
+
+    return metrics;
+  }
+
+  public static class Snapshot {
+
+    private final int                        queueDepth;
+    private final int                        running;
+    private final Map<String, ClassSnapshot> classes;
+
+    private Snapshot(int queueDepth, int running, Map<String, ClassSnapshot> classes) {
+      this.queueDepth = queueDepth;
+      this.running    = running;
+      this.classes    = Collections.unmodifiableMap(classes);
+    }
+
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    public int getRunning() {
+      return running;
+    }
+
+    public Map<String, ClassSnapshot> getClasses() {
+      return classes;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      StringBuilder builder = new StringBuilder();
+
+      builder.append("Queued: ").append(queueDepth).append(", running: ").append(running).append('\n');
+
+      for (Map.Entry<String, ClassSnapshot> entry : classes.entrySet()) {
+        builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+
+      return builder.toString();
+    }
+  }
+
+  public static class ClassSnapshot {
+
+    private final long              started;
+    private final long              succeeded;
+    private final long              failed;
+    private final long              deferred;
+    private final long              retries;
+    private final HistogramSnapshot waitTime;
+    private final HistogramSnapshot groupBlockedTime;
+    private final HistogramSnapshot runTime;
+
+    private ClassSnapshot(long started, long succeeded, long failed, long deferred, long retries,
+                          HistogramSnapshot waitTime, HistogramSnapshot groupBlockedTime,
+                          HistogramSnapshot runTime)
+    {
+      this.started          = started;
+      this.succeeded        = succeeded;
+      this.failed           = failed;
+      this.deferred         = deferred;
+      this.retries          = retries;
+      this.waitTime         = waitTime;
+      this.groupBlockedTime = groupBlockedTime;
+      this.runTime          = runTime;
+    }
+
+    public long getStarted() {
+      return started;
+    }
+
+    public long getSucceeded() {
+      return succeeded;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+
+    public long getDeferred() {
+      return deferred;
+    }
+
+    public long getRetries() {
+      return retries;
+    }
+
+    public HistogramSnapshot getWaitTime() {
+      return waitTime;
+    }
+
+    public HistogramSnapshot getGroupBlockedTime() {
+      return groupBlockedTime;
+    }
+
+    public HistogramSnapshot getRunTime() {
+      return runTime;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "started %d, succeeded %d, failed %d, deferred %d, retries %d | wait %s | group blocked %s | run %s",
+                           started, succeeded, failed, deferred, retries, waitTime, groupBlockedTime, runTime);
+    }
+  }
+
+  /**
+   * A histogram of millisecond durations, bucketed by powers of two.
+   */
+  public static class HistogramSnapshot {
+
+    private final long   count;
+    private final long   sum;
+    private final long   max;
+    private final long[] buckets;
+
+    private HistogramSnapshot(long count, long sum, long max, long[] buckets) {
+      this.count   = count;
+      this.sum     = sum;
+      this.max     = max;
+      this.buckets = buckets;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * @return An upper bound for the given percentile, accurate to the bucket it falls in.
+     */
+    public long getPercentile(double percentile) {
+      if (count == 0) return 0;
+
+      long target     = (long)Math.ceil(count * percentile / 100);
+      long cumulative = 0;
+
+      for (int i=0;i<buckets.length;i++) {
+        cumulative += buckets[i];
+        if (cumulative >= target) return Math.min(Histogram.upperBound(i), max);
+      }
+
+      return max;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "n=%d mean=%dms p50=%dms p90=%dms p99=%dms max=%dms",
+                           count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+    }
+  }
+
+  private static class ClassMetrics {
+    private final Histogram waitTime         = new Histogram();
+    private final Histogram groupBlockedTime = new Histogram();
+    private final Histogram runTime          = new Histogram();
+
+    private long started;
+    private long succeeded;
+    private long failed;
+    private long deferred;
+    private long retries;
+
+    private ClassSnapshot snapshot() {
+      return new ClassSnapshot(started, succeeded, failed, deferred, retries,
+                               waitTime.snapshot(), groupBlockedTime.snapshot(), runTime.snapshot());
+    }
+  }
+
+  private static class Histogram {
+    private static final int BUCKETS = 32;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count;
+    private long sum;
+    private long max;
+
+    private void add(long millis) {
+      millis = Math.max(0, millis);
+
+      buckets[bucketFor(millis)]++;
+      count++;
+      sum += millis;
+      max  = Math.max(max, millis);
+    }
+
+    private HistogramSnapshot snapshot() {
+      return new HistogramSnapshot(count, sum, max, buckets.clone());
+    }
+
+    private static int bucketFor(long millis) {
+      return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    private static long upperBound(int bucket) {
+      return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+  }
+}
@@ -30,21 +30,26 @@ public class JobParameters implements Serializable {
 
   private static final long serialVersionUID = 4880456378402584584L;
 
+  public static final int PRIORITY_LOW     = -1;
+  public static final int PRIORITY_DEFAULT = 0;
+  public static final int PRIORITY_HIGH    = 1;
+
   private transient EncryptionKeys encryptionKeys;
 
   private final List<Requirement> requirements;
   private final boolean           isPersistent;
   private final int               retryCount;
-  private final long              retryUntil;
-  private final String            groupId;
+  private       long              retryUntil;
+  private       String            groupId;
   private final boolean           wakeLock;
   private final long              wakeLockTimeout;
+  private final int               priority;
 
   private JobParameters(List<Requirement> requirements,
                         boolean isPersistent, String groupId,
                         EncryptionKeys encryptionKeys,
                         int retryCount, long retryUntil, boolean wakeLock,
-                        long wakeLockTimeout)
+                        long wakeLockTimeout, int priority)
   {
     this.requirements    = requirements;
     this.isPersistent    = isPersistent;
@@ -54,6 +59,7 @@ public class JobParameters implements Serializable {
     this.retryUntil      = retryUntil;
     this.wakeLock        = wakeLock;
     this.wakeLockTimeout = wakeLockTimeout;
+    this.priority        = priority;
   }
 
   public List<Requirement> getRequirements() {
@@ -80,6 +86,14 @@ public class JobParameters implements Serializable {
     return retryUntil;
   }
 
+  void setRetryUntil(long retryUntil) {
+    this.retryUntil = retryUntil;
+  }
+
+  void setGroupId(String groupId) {
+    this.groupId = groupId;
+  }
+
   /**
    * @return a builder used to construct JobParameters.
    */
@@ -99,6 +113,10 @@ public class JobParameters implements Serializable {
     return wakeLockTimeout;
   }
 
+  public int getPriority() {
+    return priority;
+  }
+
   public static class Builder {
     private List<Requirement> requirements    = new LinkedList<>();
     private boolean           isPersistent    = false;
@@ -108,6 +126,7 @@ public class JobParameters implements Serializable {
     private String            groupId         = null;
     private boolean           wakeLock        = false;
     private long              wakeLockTimeout = 0;
+    private int               priority        = PRIORITY_DEFAULT;
 
     /**
      * Specify a {@link org.thoughtcrime.securesms.jobmanager.requirements.Requirement }that must be met
@@ -196,11 +215,24 @@ public class JobParameters implements Serializable {
       return withWakeLock(needsWakeLock, 0, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Specify the priority class of the job.  When several jobs are runnable, jobs with a higher
+     * priority are executed first.  Jobs with the same groupId are still executed serially in the
+     * order they were added.
+     *
+     * @param priority One of {@link #PRIORITY_LOW}, {@link #PRIORITY_DEFAULT}, or {@link #PRIORITY_HIGH}.
+     * @return the builder.
+     */
+    public Builder withPriority(int priority) {
+      this.priority = priority;
+      return this;
+    }
+
     /**
      * @return the JobParameters instance that describes a Job.
      */
     public JobParameters create() {
-      return new JobParameters(requirements, isPersistent, groupId, encryptionKeys, retryCount, System.currentTimeMillis() + retryDuration, wakeLock, wakeLockTimeout);
+      return new JobParameters(requirements, isPersistent, groupId, encryptionKeys, retryCount, System.currentTimeMillis() + retryDuration, wakeLock, wakeLockTimeout, priority);
     }
   }
 }
@@ -17,49 +17,108 @@
 package org.thoughtcrime.securesms.jobmanager;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+/**
+ * An indexed queue of pending {@link Job}s.
+ *
+ * Rather than scanning every queued job, the queue only tracks "candidates": jobs without a
+ * groupId, and the oldest job of each groupId that is not blocked by a running job. Candidates
+ * whose requirements were met the last time they were checked are kept ordered by priority and
+ * then insertion order, so selecting the next job is O(log n). Candidates whose requirements were
+ * not met are parked until a requirement status change, and only one consumer is woken for each
+ * job that becomes runnable.
+ */
 class JobQueue {
 
-  private final Map<String, Job> activeGroupIds = new HashMap<>();
-  private final LinkedList<Job>  jobQueue       = new LinkedList<>();
+  private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry lhs, Entry rhs) {
+      if (lhs.priority != rhs.priority) return lhs.priority > rhs.priority ? -1 : 1;
+      return compareSequence(lhs, rhs);
+    }
+  };
+
+  private static final Comparator<Entry> SEQUENCE_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry lhs, Entry rhs) {
+      return compareSequence(lhs, rhs);
+    }
+  };
+
+  private final JobMetrics metrics;
+
+  private final Map<String, Job>             activeGroupIds = new HashMap<>();
+  private final Map<String, TreeSet<Entry>>  groups         = new HashMap<>();
+  private final TreeSet<Entry>               runnable       = new TreeSet<>(PRIORITY_ORDER);
+  private final Set<Entry>                   unmet          = new LinkedHashSet<>();
+
+  private long nextSequence        = 0;
+  private long nextRestoreSequence = Long.MIN_VALUE / 2;
+  private long nextPushSequence    = Long.MIN_VALUE / 2 - 1;
+  private int  size                = 0;
+
+  JobQueue(@NonNull JobMetrics metrics) {
+    this.metrics = metrics;
+  }
 
   synchronized void onRequirementStatusChanged() {
-    notifyAll();
+    Iterator<Entry> iterator = unmet.iterator();
+
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+
+      if (entry.job.isRequirementsMet()) {
+        iterator.remove();
+        runnable.add(entry);
+        notify();
+      }
+    }
   }
 
   synchronized void add(Job job) {
-    jobQueue.add(job);
-    processJobAddition(job);
-    notifyAll();
+    if (processJobAddition(job)) enqueue(new Entry(job, nextPushSequence--));
+    else                         enqueue(new Entry(job, nextSequence++));
   }
 
-  synchronized void addAll(List<Job> jobs) {
-    jobQueue.addAll(jobs);
-
+  /**
+   * Queue jobs restored from persistent storage. Restored jobs are ordered ahead of every job
+   * added with {@link #add(Job)}, so a group's older jobs still run first even if newer jobs
+   * were added while the restore was in progress.
+   */
+  synchronized void addRestored(List<Job> jobs) {
     for (Job job : jobs) {
-      processJobAddition(job);
+      if (processJobAddition(job)) enqueue(new Entry(job, nextPushSequence--));
+      else                         enqueue(new Entry(job, nextRestoreSequence++));
     }
-
-    notifyAll();
   }
 
-  private void processJobAddition(@NonNull Job job) {
+  /**
+   * @return true if the job claimed its groupId and should be queued ahead of the rest of its group.
+   */
+  private boolean processJobAddition(@NonNull Job job) {
     if (isJobActive(job) && isGroupIdAvailable(job)) {
       setGroupIdUnavailable(job);
+      return job.getGroupId() != null;
     } else if (!isGroupIdAvailable(job)) {
       Job blockingJob = activeGroupIds.get(job.getGroupId());
       blockingJob.resetRunStats();
     }
+
+    return false;
   }
 
   synchronized void push(Job job) {
-    jobQueue.addFirst(job);
+    enqueue(new Entry(job, nextPushSequence--));
   }
 
   synchronized Job getNext() {
@@ -79,27 +138,89 @@ class JobQueue {
   synchronized void setGroupIdAvailable(String groupId) {
     if (groupId != null) {
       activeGroupIds.remove(groupId);
-      notifyAll();
+
+      TreeSet<Entry> group = groups.get(groupId);
+
+      if (group != null && !group.isEmpty()) {
+        offerCandidate(group.first());
+      }
     }
   }
 
-  private Job getNextAvailableJob() {
-    if (jobQueue.isEmpty()) return null;
+  private @Nullable Job getNextAvailableJob() {
+    Entry entry;
 
-    ListIterator<Job> iterator = jobQueue.listIterator();
-    while (iterator.hasNext()) {
-      Job job = iterator.next();
+    while ((entry = runnable.pollFirst()) != null) {
+      if (!entry.job.isRequirementsMet()) {
+        unmet.add(entry);
+        continue;
+      }
 
-      if (job.isRequirementsMet() && isGroupIdAvailable(job)) {
-        iterator.remove();
-        setGroupIdUnavailable(job);
-        return job;
+      String groupId = entry.job.getGroupId();
+      long   now     = System.currentTimeMillis();
+
+      if (groupId != null) {
+        TreeSet<Entry> group = groups.get(groupId);
+        group.remove(entry);
+
+        if (group.isEmpty()) groups.remove(groupId);
       }
+
+      metrics.onQueueDepthChanged(--size);
+      metrics.onJobStarted(entry.job, now - entry.queuedAt, entry.candidateAt - entry.queuedAt);
+
+      setGroupIdUnavailable(entry.job);
+      return entry.job;
     }
 
     return null;
   }
 
+  private void enqueue(@NonNull Entry entry) {
+    String groupId = entry.job.getGroupId();
+
+    metrics.onQueueDepthChanged(++size);
+
+    if (groupId == null) {
+      offerCandidate(entry);
+      return;
+    }
+
+    TreeSet<Entry> group = groups.get(groupId);
+
+    if (group == null) {
+      group = new TreeSet<>(SEQUENCE_ORDER);
+      groups.put(groupId, group);
+    }
+
+    Entry previousHead = group.isEmpty() ? null : group.first();
+    group.add(entry);
+
+    if (group.first() == entry) {
+      if (previousHead != null) {
+        runnable.remove(previousHead);
+        unmet.remove(previousHead);
+      }
+
+      if (isGroupIdAvailable(entry.job)) {
+        offerCandidate(entry);
+      }
+    }
+  }
+
+  private void offerCandidate(@NonNull Entry entry) {
+    if (entry.candidateAt == 0) {
+      entry.candidateAt = System.currentTimeMillis();
+    }
+
+    if (entry.job.isRequirementsMet()) {
+      runnable.add(entry);
+      notify();
+    } else {
+      unmet.add(entry);
+    }
+  }
+
   private boolean isJobActive(@NonNull Job job) {
     return job.getRetryUntil() > 0 && job.getRunIteration() > 0;
   }
@@ -115,4 +236,25 @@ class JobQueue {
       activeGroupIds.put(groupId, job);
     }
   }
+
+  private static int compareSequence(@NonNull Entry lhs, @NonNull Entry rhs) {
+    if (lhs.sequence == rhs.sequence) return 0;
+    return lhs.sequence < rhs.sequence ? -1 : 1;
+  }
+
+  private static class Entry {
+    private final Job  job;
+    private final int  priority;
+    private final long sequence;
+    private final long queuedAt;
+
+    private long candidateAt;
+
+    private Entry(@NonNull Job job, long sequence) {
+      this.job      = job;
+      this.priority = job.getPriority();
+      this.sequence = sequence;
+      this.queuedAt = System.currentTimeMillis();
+    }
+  }
 }
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014 Open Whisper Systems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.jobmanager.persistence.PersistentStorage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the inserts and deletes of persistent {@link Job}s into a single
+ * {@link PersistentStorage} transaction.
+ *
+ * A batch is committed once it holds maxBatchSize writes, or windowMillis after its first write.
+ * Added jobs are only handed to the {@link Callback} after the batch containing them has been
+ * committed, and always in the order they were added. Non-persistent jobs wait behind any
+ * pending persistent jobs so that ordering is preserved, but never open a batch on their own.
+ */
+class PersistentWriteBatcher {
+
+  private static final String TAG = PersistentWriteBatcher.class.getSimpleName();
+
+  interface Callback {
+    void onCommitted(@NonNull Job job);
+    void onFailed(@NonNull Job job);
+  }
+
+  private final PersistentStorage        persistentStorage;
+  private final ScheduledExecutorService executor;
+  private final Callback                 callback;
+  private final long                     windowMillis;
+  private final int                      maxBatchSize;
+
+  private final Runnable flushTask = this::flush;
+
+  private List<Job>  pendingJobs    = new LinkedList<>();
+  private List<Long> pendingRemoves = new LinkedList<>();
+  private int        pendingWrites  = 0;
+  private boolean    flushScheduled = false;
+
+  PersistentWriteBatcher(@NonNull PersistentStorage persistentStorage,
+                         @NonNull ScheduledExecutorService executor,
+                         @NonNull Callback callback,
+                         long windowMillis, int maxBatchSize)
+  {
+    this.persistentStorage = persistentStorage;
+    this.executor          = executor;
+    this.callback          = callback;
+    this.windowMillis      = windowMillis;
+    this.maxBatchSize      = maxBatchSize;
+  }
+
+  synchronized void add(@NonNull Job job) {
+    pendingJobs.add(job);
+
+    if (job.isPersistent()) pendingWrites++;
+
+    requestFlush();
+  }
+
+  synchronized void remove(long id) {
+    pendingRemoves.add(id);
+    pendingWrites++;
+
+    requestFlush();
+  }
+
+  private void requestFlush() {
+    if (pendingWrites == 0 || pendingWrites >= maxBatchSize) {
+      executor.execute(flushTask);
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(flushTask, windowMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flush() {
+    List<Job>  jobs;
+    List<Long> removes;
+
+    synchronized (this) {
+      jobs           = pendingJobs;
+      removes        = pendingRemoves;
+      pendingJobs    = new LinkedList<>();
+      pendingRemoves = new LinkedList<>();
+      pendingWrites  = 0;
+      flushScheduled = false;
+    }
+
+    if (jobs.isEmpty() && removes.isEmpty()) return;
+
+    List<Job> persistentJobs = new ArrayList<>(jobs.size());
+
+    for (Job job : jobs) {
+      if (job.isPersistent()) persistentJobs.add(job);
+    }
+
+    Set<Job> failed = new HashSet<>();
+
+    if (!persistentJobs.isEmpty() || !removes.isEmpty()) {
+      try {
+        failed.addAll(persistentStorage.storeAndRemove(persistentJobs, removes));
+      } catch (SQLiteException e) {
+        Log.w(TAG, "Failed to commit batch of " + jobs.size() + " jobs and " + removes.size() + " removals", e);
+        failed.addAll(jobs);
+      }
+    }
+
+    for (Job job : jobs) {
+      if (failed.contains(job)) callback.onFailed(job);
+      else                      callback.onCommitted(job);
+    }
+  }
+}
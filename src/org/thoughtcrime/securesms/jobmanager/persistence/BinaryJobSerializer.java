@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2014 Open Whisper Systems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thoughtcrime.securesms.jobmanager.persistence;
+
+import android.support.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobmanager.EncryptionKeys;
+import org.thoughtcrime.securesms.jobmanager.Job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary implementation of {@link org.thoughtcrime.securesms.jobmanager.persistence.JobSerializer}.
+ *
+ * Job types with a registered {@link JobCodec} are written as a one byte format marker, a
+ * two byte codec id, the job's retry state, and the fields written by the codec. Every other job type falls back to
+ * Java serialization behind the format marker.
+ *
+ * Codec ids are persisted, so an id must never be reassigned to a different job type.
+ *
+ * NOTE: This {@link JobSerializer} does not support encryption. Jobs will be serialized normally,
+ * but any corresponding {@link Job} encryption keys will be ignored.
+ */
+public class BinaryJobSerializer implements JobSerializer {
+
+  private static final byte FORMAT_JAVA  = 0;
+  private static final byte FORMAT_CODEC = 1;
+
+  private final Map<Class<? extends Job>, Short>    ids      = new HashMap<>();
+  private final Map<Short, JobCodec<? extends Job>> codecs   = new HashMap<>();
+  private final JavaJobSerializer                   fallback = new JavaJobSerializer();
+
+  public BinaryJobSerializer() {}
+
+  /**
+   * Register the codec used for a job type.
+   *
+   * @param id A persistent id for the job type, unique within this serializer.
+   * @param type The exact class of the jobs the codec handles.
+   * @param codec The codec.
+   * @return This serializer.
+   */
+  public <T extends Job> BinaryJobSerializer withCodec(int id, @NonNull Class<T> type, @NonNull JobCodec<T> codec) {
+    if (id < 0 || id > Short.MAX_VALUE || codecs.containsKey((short)id)) {
+      throw new IllegalArgumentException("Bad or duplicate codec id: " + id);
+    }
+
+    ids.put(type, (short)id);
+    codecs.put((short)id, codec);
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public byte[] serialize(Job job) throws IOException {
+    Short id = ids.get(job.getClass());
+
+    if (id == null) {
+      byte[] serialized = fallback.serialize(job);
+      byte[] result     = new byte[serialized.length + 1];
+
+      result[0] = FORMAT_JAVA;
+      System.arraycopy(serialized, 0, result, 1, serialized.length);
+
+      return result;
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+
+    out.writeByte(FORMAT_CODEC);
+    out.writeShort(id);
+    out.writeInt(job.getRunIteration());
+    out.writeLong(job.getRetryUntil());
+    ((JobCodec<Job>)codecs.get(id)).encode(job, out);
+    out.flush();
+
+    return baos.toByteArray();
+  }
+
+  @Override
+  public Job deserialize(EncryptionKeys keys, boolean encrypted, byte[] serialized) throws IOException {
+    if (serialized == null || serialized.length == 0) {
+      throw new IOException("Empty job!");
+    }
+
+    switch (serialized[0]) {
+      case FORMAT_JAVA:
+        return fallback.deserialize(keys, encrypted, Arrays.copyOfRange(serialized, 1, serialized.length));
+      case FORMAT_CODEC:
+        DataInputStream         in           = new DataInputStream(new ByteArrayInputStream(serialized, 1, serialized.length - 1));
+        short                   id           = in.readShort();
+        int                     runIteration = in.readInt();
+        long                    retryUntil   = in.readLong();
+        JobCodec<? extends Job> codec        = codecs.get(id);
+
+        if (codec == null) throw new IOException("No codec registered for id: " + id);
+
+        Job job = codec.decode(in);
+        job.restoreRetryState(runIteration, retryUntil);
+
+        return job;
+      default:
+        throw new IOException("Unknown job format: " + serialized[0]);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2014 Open Whisper Systems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thoughtcrime.securesms.jobmanager.persistence;
+
+import android.support.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobmanager.Job;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes the fields of a single {@link Job} type for the {@link BinaryJobSerializer}.
+ *
+ * Decoded jobs have not had their dependencies injected yet, in the same way as jobs restored
+ * through Java serialization.
+ */
+public interface JobCodec<T extends Job> {
+
+  /**
+   * Write the fields needed to reconstruct a job.
+   * @param job The Job to encode.
+   * @param out The stream to write to.
+   * @throws IOException if encoding fails.
+   */
+  void encode(@NonNull T job, @NonNull DataOutputStream out) throws IOException;
+
+  /**
+   * Reconstruct a job from the fields written by {@link #encode(Job, DataOutputStream)}.
+   * @param in The stream to read from.
+   * @return The decoded Job.
+   * @throws IOException if decoding fails.
+   */
+  @NonNull T decode(@NonNull DataInputStream in) throws IOException;
+
+}
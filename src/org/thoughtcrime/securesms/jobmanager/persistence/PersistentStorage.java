@@ -26,21 +26,26 @@ import android.util.Log;
 import org.thoughtcrime.securesms.jobmanager.EncryptionKeys;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.dependencies.AggregateDependencyInjector;
+import org.thoughtcrime.securesms.jobmanager.util.Base64;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 public class PersistentStorage {
 
-  private static final int DATABASE_VERSION = 1;
+  private static final int DATABASE_VERSION = 2;
+
+  private static final int BINARY_ITEMS_VERSION = 2;
 
   private static final String TABLE_NAME = "queue";
   private static final String ID         = "_id";
   private static final String ITEM       = "item";
   private static final String ENCRYPTED  = "encrypted";
 
-  private static final String DATABASE_CREATE = String.format("CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s TEXT NOT NULL, %s INTEGER DEFAULT 0);",
+  private static final String DATABASE_CREATE = String.format("CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s BLOB NOT NULL, %s INTEGER DEFAULT 0);",
                                                               TABLE_NAME, ID, ITEM, ENCRYPTED);
 
   private final Context                     context;
@@ -52,42 +57,115 @@ public class PersistentStorage {
                            JobSerializer serializer,
                            AggregateDependencyInjector dependencyInjector)
   {
-    this.databaseHelper     = new DatabaseHelper(context, "_jobqueue-" + name);
+    this.databaseHelper     = new DatabaseHelper(context, "_jobqueue-" + name, serializer);
     this.context            = context;
     this.jobSerializer      = serializer;
     this.dependencyInjector = dependencyInjector;
   }
 
   public void store(Job job) throws IOException {
+    long id = databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, getContentValues(job));
+    job.setPersistentId(id);
+  }
+
+  /**
+   * Stores the given jobs and removes the given ids in a single transaction. Each job is
+   * serialized before the transaction is opened, and jobs that fail to serialize are left out
+   * of the batch and returned to the caller.
+   *
+   * @return The jobs that could not be serialized.
+   */
+  public List<Job> storeAndRemove(List<Job> jobs, Collection<Long> removedIds) {
+    List<Job>           failed = new LinkedList<>();
+    List<Job>           stored = new ArrayList<>(jobs.size());
+    List<ContentValues> values = new ArrayList<>(jobs.size());
+
+    for (Job job : jobs) {
+      try {
+        values.add(getContentValues(job));
+        stored.add(job);
+      } catch (IOException e) {
+        Log.w("PersistentStore", e);
+        failed.add(job);
+      }
+    }
+
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.beginTransaction();
+
+    try {
+      for (int i=0;i<stored.size();i++) {
+        stored.get(i).setPersistentId(database.insert(TABLE_NAME, null, values.get(i)));
+      }
+
+      for (long id : removedIds) {
+        database.delete(TABLE_NAME, ID + " = ?", new String[] {String.valueOf(id)});
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
+    return failed;
+  }
+
+  private ContentValues getContentValues(Job job) throws IOException {
     ContentValues contentValues = new ContentValues();
     contentValues.put(ITEM, jobSerializer.serialize(job));
     contentValues.put(ENCRYPTED, job.getEncryptionKeys() != null);
 
-    long id = databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
-    job.setPersistentId(id);
+    return contentValues;
   }
 
-  public List<Job> getAllUnencrypted() {
-    return getJobs(null, ENCRYPTED + " = 0");
+  /**
+   * @return The id of the most recently stored job, or 0 if there are none.
+   */
+  public long getMaxId() {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.rawQuery("SELECT MAX(" + ID + ") FROM " + TABLE_NAME, null)) {
+      if (cursor.moveToFirst()) return cursor.getLong(0);
+      else                      return 0;
+    }
+  }
+
+  /**
+   * Read up to limit unencrypted jobs with an id greater than afterId and no greater than maxId,
+   * in id order.
+   *
+   * @return The id of the last row read, or -1 if there are no rows left.
+   */
+  public long getUnencrypted(long afterId, long maxId, int limit, List<Job> results) {
+    return getJobs(null, ENCRYPTED + " = 0", afterId, maxId, String.valueOf(limit), results);
   }
 
-  public List<Job> getAllEncrypted(EncryptionKeys keys) {
-    return getJobs(keys, ENCRYPTED + " = 1");
+  /**
+   * Read up to limit encrypted jobs with an id greater than afterId and no greater than maxId,
+   * in id order.
+   *
+   * @return The id of the last row read, or -1 if there are no rows left.
+   */
+  public long getEncrypted(EncryptionKeys keys, long afterId, long maxId, int limit, List<Job> results) {
+    return getJobs(keys, ENCRYPTED + " = 1", afterId, maxId, String.valueOf(limit), results);
   }
 
-  private List<Job> getJobs(EncryptionKeys keys, String where) {
-    List<Job>      results  = new LinkedList<>();
+  private long getJobs(EncryptionKeys keys, String where, long afterId, long maxId, String limit, List<Job> results) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    String[]       args     = new String[] {String.valueOf(afterId), String.valueOf(maxId)};
     Cursor         cursor   = null;
+    long           lastId   = -1;
 
     try {
-      cursor = database.query(TABLE_NAME, null, where, null, null, null, ID + " ASC", null);
+      cursor = database.query(TABLE_NAME, null, where + " AND " + ID + " > ? AND " + ID + " <= ?", args, null, null, ID + " ASC", limit);
 
       while (cursor.moveToNext()) {
         long    id        = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-        String  item      = cursor.getString(cursor.getColumnIndexOrThrow(ITEM));
+        byte[]  item      = cursor.getBlob(cursor.getColumnIndexOrThrow(ITEM));
         boolean encrypted = cursor.getInt(cursor.getColumnIndexOrThrow(ENCRYPTED)) == 1;
 
+        lastId = id;
+
         try{
           Job job = jobSerializer.deserialize(keys, encrypted, item);
 
@@ -106,7 +184,7 @@ public class PersistentStorage {
         cursor.close();
     }
 
-    return results;
+    return lastId;
   }
 
   public void remove(long id) {
@@ -116,8 +194,11 @@ public class PersistentStorage {
 
   private static class DatabaseHelper extends SQLiteOpenHelper {
 
-    public DatabaseHelper(Context context, String name) {
+    private final JobSerializer jobSerializer;
+
+    public DatabaseHelper(Context context, String name, JobSerializer jobSerializer) {
       super(context, name, null, DATABASE_VERSION);
+      this.jobSerializer = jobSerializer;
     }
 
     @Override
@@ -127,7 +208,43 @@ public class PersistentStorage {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      if (oldVersion < BINARY_ITEMS_VERSION) {
+        migrateToBinaryItems(db);
+      }
+    }
+
+    /**
+     * Items used to be Java serialized and Base64 encoded into a TEXT column. Re-encode every
+     * row with the current serializer into a BLOB column, dropping rows that can't be read.
+     */
+    private void migrateToBinaryItems(SQLiteDatabase db) {
+      JavaJobSerializer legacySerializer = new JavaJobSerializer();
+
+      db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + TABLE_NAME + "_legacy");
+      db.execSQL(DATABASE_CREATE);
+
+      try (Cursor cursor = db.query(TABLE_NAME + "_legacy", null, null, null, null, null, ID + " ASC")) {
+        while (cursor != null && cursor.moveToNext()) {
+          long    id        = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+          String  item      = cursor.getString(cursor.getColumnIndexOrThrow(ITEM));
+          boolean encrypted = cursor.getInt(cursor.getColumnIndexOrThrow(ENCRYPTED)) == 1;
+
+          try {
+            Job           job    = legacySerializer.deserialize(null, encrypted, Base64.decode(item, Base64.NO_WRAP));
+            ContentValues values = new ContentValues();
+
+            values.put(ID, id);
+            values.put(ITEM, jobSerializer.serialize(job));
+            values.put(ENCRYPTED, encrypted);
+
+            db.insert(TABLE_NAME, null, values);
+          } catch (IOException | IllegalArgumentException e) {
+            Log.w("PersistentStore", e);
+          }
+        }
+      }
 
+      db.execSQL("DROP TABLE " + TABLE_NAME + "_legacy");
     }
   }
 
@@ -30,6 +30,7 @@ public class DirectoryRefreshJob extends ContextJob {
     super(context, JobParameters.newBuilder()
                                 .withGroupId(DirectoryRefreshJob.class.getSimpleName())
                                 .withRequirement(new NetworkRequirement(context))
+                                .withPriority(JobParameters.PRIORITY_LOW)
                                 .create());
 
     this.recipient        = recipient;
@@ -4,9 +4,13 @@ package org.thoughtcrime.securesms.jobs;
 import android.Manifest;
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupCheckpoint;
 import org.thoughtcrime.securesms.backup.FullBackupExporter;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
@@ -29,6 +33,8 @@ public class LocalBackupJob extends ContextJob {
 
   private static final String TAG = LocalBackupJob.class.getSimpleName();
 
+  private static final int MAX_CHAIN_LENGTH = 7;
+
   public LocalBackupJob(@NonNull Context context) {
     super(context, JobParameters.newBuilder()
                                 .withGroupId("__LOCAL_BACKUP__")
@@ -51,11 +57,14 @@ public class LocalBackupJob extends ContextJob {
                                                  context.getString(R.string.LocalBackupJob_creating_backup));
 
     try {
-      String backupPassword  = TextSecurePreferences.getBackupPassphrase(context);
-      File   backupDirectory = StorageUtil.getBackupDirectory();
-      String timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
-      String fileName        = String.format("signal-%s.backup", timestamp);
-      File   backupFile      = new File(backupDirectory, fileName);
+      String           backupPassword  = TextSecurePreferences.getBackupPassphrase(context);
+      File             backupDirectory = StorageUtil.getBackupDirectory();
+      SQLiteDatabase   database        = DatabaseFactory.getBackupDatabase(context);
+      BackupCheckpoint previous        = getPreviousCheckpoint(backupDirectory, database.getVersion());
+      String           extension       = previous == null ? BackupUtil.FULL_BACKUP_EXTENSION : BackupUtil.DELTA_BACKUP_EXTENSION;
+      String           timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+      String           fileName        = String.format("signal-%s.%s", timestamp, extension);
+      File             backupFile      = new File(backupDirectory, fileName);
 
       if (backupFile.exists()) {
         throw new IOException("Backup file already exists?");
@@ -67,23 +76,57 @@ public class LocalBackupJob extends ContextJob {
 
       File tempFile = File.createTempFile("backup", "tmp", StorageUtil.getBackupCacheDirectory(context));
 
-      FullBackupExporter.export(context,
-                                AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                DatabaseFactory.getBackupDatabase(context),
-                                tempFile,
-                                backupPassword);
+      BackupCheckpoint checkpoint = FullBackupExporter.export(context,
+                                                              AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                              database,
+                                                              tempFile,
+                                                              backupPassword,
+                                                              previous);
 
       if (!tempFile.renameTo(backupFile)) {
         tempFile.delete();
         throw new IOException("Renaming temporary backup file failed!");
       }
 
+      checkpoint.addFile(fileName);
+      TextSecurePreferences.setBackupCheckpoint(context, checkpoint.serialize());
+
       BackupUtil.deleteOldBackups();
     } finally {
       GenericForegroundService.stopForegroundTask(context);
     }
   }
 
+  /**
+   * @return The checkpoint to write a delta against, or null if this backup should be a full one
+   *         because there is no chain to continue, the chain is long enough, the database was
+   *         upgraded, or a file in the chain has gone missing.
+   */
+  private @Nullable BackupCheckpoint getPreviousCheckpoint(@NonNull File backupDirectory, int databaseVersion) {
+    String serialized = TextSecurePreferences.getBackupCheckpoint(context);
+
+    if (serialized == null) return null;
+
+    try {
+      BackupCheckpoint checkpoint = BackupCheckpoint.fromString(serialized);
+
+      if (checkpoint.getSequence() + 1 >= MAX_CHAIN_LENGTH)   return null;
+      if (checkpoint.getDatabaseVersion() != databaseVersion) return null;
+
+      for (String file : checkpoint.getFiles()) {
+        if (!new File(backupDirectory, file).exists()) {
+          Log.w(TAG, "Backup chain is missing " + file + ", starting a new one.");
+          return null;
+        }
+      }
+
+      return checkpoint;
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return null;
+    }
+  }
+
   @Override
   public boolean onShouldRetry(Exception e) {
     return false;
@@ -63,6 +63,7 @@ public class MmsSendJob extends SendJob {
                                 .withRequirement(new NetworkRequirement(context))
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withPersistence()
+                                .withPriority(JobParameters.PRIORITY_HIGH)
                                 .create());
 
     this.messageId = messageId;
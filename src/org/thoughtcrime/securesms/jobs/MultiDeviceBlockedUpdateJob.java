@@ -37,6 +37,7 @@ public class MultiDeviceBlockedUpdateJob extends MasterSecretJob implements Inje
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withGroupId(MultiDeviceBlockedUpdateJob.class.getSimpleName())
                                 .withPersistence()
+                                .withPriority(JobParameters.PRIORITY_LOW)
                                 .create());
   }
 
@@ -68,6 +68,7 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withGroupId(MultiDeviceContactUpdateJob.class.getSimpleName())
                                 .withPersistence()
+                                .withPriority(JobParameters.PRIORITY_LOW)
                                 .create());
 
     if (address != null) this.address = address.serialize();
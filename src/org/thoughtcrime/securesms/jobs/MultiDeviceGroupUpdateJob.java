@@ -47,6 +47,7 @@ public class MultiDeviceGroupUpdateJob extends MasterSecretJob implements Inject
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withGroupId(MultiDeviceGroupUpdateJob.class.getSimpleName())
                                 .withPersistence()
+                                .withPriority(JobParameters.PRIORITY_LOW)
                                 .create());
   }
 
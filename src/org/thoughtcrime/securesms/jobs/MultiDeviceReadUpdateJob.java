@@ -1,12 +1,14 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.jobmanager.JobParameters;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobCodec;
 import org.thoughtcrime.securesms.jobmanager.requirements.NetworkRequirement;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -16,6 +18,8 @@ import org.whispersystems.signalservice.api.messages.multidevice.ReadMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SignalServiceSyncMessage;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.LinkedList;
@@ -33,17 +37,27 @@ public class MultiDeviceReadUpdateJob extends MasterSecretJob implements Injecta
   @Inject transient SignalServiceMessageSender messageSender;
 
   public MultiDeviceReadUpdateJob(Context context, List<SyncMessageId> messageIds) {
+    this(context, toSerializable(messageIds));
+  }
+
+  private MultiDeviceReadUpdateJob(Context context, LinkedList<SerializableSyncMessageId> messageIds) {
     super(context, JobParameters.newBuilder()
                                 .withRequirement(new NetworkRequirement(context))
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withPersistence()
                                 .create());
 
-    this.messageIds = new LinkedList<>();
+    this.messageIds = messageIds;
+  }
+
+  private static LinkedList<SerializableSyncMessageId> toSerializable(List<SyncMessageId> messageIds) {
+    LinkedList<SerializableSyncMessageId> results = new LinkedList<>();
 
     for (SyncMessageId messageId : messageIds) {
-      this.messageIds.add(new SerializableSyncMessageId(messageId.getAddress().toPhoneString(), messageId.getTimetamp()));
+      results.add(new SerializableSyncMessageId(messageId.getAddress().toPhoneString(), messageId.getTimetamp()));
     }
+
+    return results;
   }
 
 
@@ -78,6 +92,31 @@ public class MultiDeviceReadUpdateJob extends MasterSecretJob implements Injecta
 
   }
 
+  public static class Codec implements JobCodec<MultiDeviceReadUpdateJob> {
+
+    @Override
+    public void encode(@NonNull MultiDeviceReadUpdateJob job, @NonNull DataOutputStream out) throws IOException {
+      out.writeInt(job.messageIds.size());
+
+      for (SerializableSyncMessageId messageId : job.messageIds) {
+        out.writeUTF(messageId.sender);
+        out.writeLong(messageId.timestamp);
+      }
+    }
+
+    @Override
+    public @NonNull MultiDeviceReadUpdateJob decode(@NonNull DataInputStream in) throws IOException {
+      int                                   count      = in.readInt();
+      LinkedList<SerializableSyncMessageId> messageIds = new LinkedList<>();
+
+      for (int i=0;i<count;i++) {
+        messageIds.add(new SerializableSyncMessageId(in.readUTF(), in.readLong()));
+      }
+
+      return new MultiDeviceReadUpdateJob(null, messageIds);
+    }
+  }
+
   private static class SerializableSyncMessageId implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 import android.util.Log;
@@ -38,6 +39,7 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.groups.GroupMessageProcessor;
 import org.thoughtcrime.securesms.jobmanager.JobParameters;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobCodec;
 import org.thoughtcrime.securesms.mms.IncomingMediaMessage;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.OutgoingExpirationUpdateMessage;
@@ -92,6 +94,9 @@ import org.whispersystems.signalservice.api.messages.multidevice.VerifiedMessage
 import org.whispersystems.signalservice.api.messages.shared.SharedContact;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -105,21 +110,64 @@ public class PushDecryptJob extends ContextJob {
 
   public static final String TAG = PushDecryptJob.class.getSimpleName();
 
-  private final long messageId;
-  private final long smsMessageId;
+  private static final String GROUP_ID = "__PUSH_DECRYPT_JOB__";
+
+  private final long   messageId;
+  private final long   smsMessageId;
+  private       String source;
+
+  private transient SignalServiceEnvelope envelope;
 
   public PushDecryptJob(Context context, long pushMessageId) {
     this(context, pushMessageId, -1);
   }
 
   public PushDecryptJob(Context context, long pushMessageId, long smsMessageId) {
+    this(context, pushMessageId, smsMessageId, null);
+  }
+
+  /**
+   * Decrypt an envelope that was just stored in the {@link PushDatabase}, without reading it
+   * back. Envelopes from the same sender are decrypted in the order they were received, while
+   * envelopes from different senders are decrypted in parallel.
+   */
+  public PushDecryptJob(Context context, long pushMessageId, @NonNull SignalServiceEnvelope envelope) {
+    this(context, pushMessageId, -1, envelope.getSource());
+    this.envelope = envelope;
+  }
+
+  /**
+   * Decrypt an envelope from the given sender that is stored in the {@link PushDatabase}.
+   */
+  public PushDecryptJob(Context context, long pushMessageId, long smsMessageId, @Nullable String source) {
     super(context, JobParameters.newBuilder()
                                 .withPersistence()
-                                .withGroupId("__PUSH_DECRYPT_JOB__")
+                                .withGroupId(source != null ? GROUP_ID + source : GROUP_ID)
                                 .withWakeLock(true, 5, TimeUnit.SECONDS)
                                 .create());
     this.messageId    = pushMessageId;
     this.smsMessageId = smsMessageId;
+    this.source       = source;
+  }
+
+  /**
+   * Jobs persisted before decryption was grouped by sender don't know their sender, and would
+   * otherwise run in parallel with the newer jobs for that sender. Their dependencies are injected
+   * before they are queued, so they are moved into their sender's group here. Restored jobs are
+   * queued ahead of new ones, so they still run first.
+   */
+  @Override
+  public void setContext(Context context) {
+    super.setContext(context);
+
+    if (source == null && !TextSecurePreferences.getNeedsSqlCipherMigration(context)) {
+      try {
+        source = DatabaseFactory.getPushDatabase(context).get(messageId).getSource();
+        setGroupId(GROUP_ID + source);
+      } catch (NoSuchMessageException e) {
+        Log.w(TAG, "No push message for legacy job, leaving it in the shared group.", e);
+      }
+    }
   }
 
   @Override
@@ -148,7 +196,7 @@ public class PushDecryptJob extends ContextJob {
     }
 
     PushDatabase          database             = DatabaseFactory.getPushDatabase(context);
-    SignalServiceEnvelope envelope             = database.get(messageId);
+    SignalServiceEnvelope envelope             = this.envelope != null ? this.envelope : database.get(messageId);
     Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
 
     handleMessage(envelope, optionalSmsMessageId);
@@ -213,6 +261,8 @@ public class PushDecryptJob extends ContextJob {
 
         if      (message.isReadReceipt())     handleReadReceipt(envelope, message);
         else if (message.isDeliveryReceipt()) handleDeliveryReceipt(envelope, message);
+
+        DatabaseFactory.getMmsSmsDatabase(context).flushReceipts();
       } else {
         Log.w(TAG, "Got unrecognized message...");
       }
@@ -938,4 +988,26 @@ public class PushDecryptJob extends ContextJob {
       return Recipient.from(context, Address.fromExternal(context, envelope.getSource()), false);
     }
   }
+
+  public static class Codec implements JobCodec<PushDecryptJob> {
+
+    @Override
+    public void encode(@NonNull PushDecryptJob job, @NonNull DataOutputStream out) throws IOException {
+      out.writeLong(job.messageId);
+      out.writeLong(job.smsMessageId);
+
+      if (job.source != null) {
+        out.writeUTF(job.source);
+      }
+    }
+
+    @Override
+    public @NonNull PushDecryptJob decode(@NonNull DataInputStream in) throws IOException {
+      long   messageId    = in.readLong();
+      long   smsMessageId = in.readLong();
+      String source       = in.available() > 0 ? in.readUTF() : null;
+
+      return new PushDecryptJob(null, messageId, smsMessageId, source);
+    }
+  }
 }
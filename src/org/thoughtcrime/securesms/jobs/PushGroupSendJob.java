@@ -66,6 +66,7 @@ public class PushGroupSendJob extends PushSendJob implements InjectableType {
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withRequirement(new NetworkRequirement(context))
                                 .withRetryCount(5)
+                                .withPriority(JobParameters.PRIORITY_HIGH)
                                 .create());
 
     this.messageId         = messageId;
@@ -8,10 +8,13 @@ import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.JobParameters;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 public abstract class PushReceivedJob extends ContextJob {
@@ -22,11 +25,18 @@ public abstract class PushReceivedJob extends ContextJob {
     super(context, parameters);
   }
 
+  /**
+   * Persist an envelope and hand it to a {@link PushDecryptJob}. This runs on the thread that
+   * reads from the server, which acknowledges the envelope as soon as this returns, so it only
+   * does the work needed to store the envelope durably and leaves decryption to the job.
+   */
   public void handle(SignalServiceEnvelope envelope) {
-    Address   source    = Address.fromExternal(context, envelope.getSource());
-    Recipient recipient = Recipient.from(context, source, false);
+    Address                     source   = Address.fromExternal(context, envelope.getSource());
+    Optional<RecipientSettings> settings = DatabaseFactory.getRecipientDatabase(context).getRecipientSettings(source);
+
+    if (!isActiveNumber(settings)) {
+      Recipient recipient = Recipient.from(context, source, settings, Optional.absent(), true);
 
-    if (!isActiveNumber(recipient)) {
       DatabaseFactory.getRecipientDatabase(context).setRegistered(recipient, RecipientDatabase.RegisteredState.REGISTERED);
       ApplicationContext.getInstance(context).getJobManager().add(new DirectoryRefreshJob(context, recipient, false));
     }
@@ -34,19 +44,18 @@ public abstract class PushReceivedJob extends ContextJob {
     if (envelope.isReceipt()) {
       handleReceipt(envelope);
     } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage()) {
-      handleMessage(envelope, source);
+      handleMessage(envelope, settings);
     } else {
       Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
     }
   }
 
-  private void handleMessage(SignalServiceEnvelope envelope, Address source) {
-    Recipient  recipients = Recipient.from(context, source, false);
+  private void handleMessage(SignalServiceEnvelope envelope, Optional<RecipientSettings> settings) {
     JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
 
-    if (!recipients.isBlocked()) {
+    if (!settings.isPresent() || !settings.get().isBlocked()) {
       long messageId = DatabaseFactory.getPushDatabase(context).insert(envelope);
-      jobManager.add(new PushDecryptJob(context, messageId));
+      jobManager.add(new PushDecryptJob(context, messageId, envelope));
     } else {
       Log.w(TAG, "*** Received blocked push message, ignoring...");
     }
@@ -54,12 +63,17 @@ public abstract class PushReceivedJob extends ContextJob {
 
   private void handleReceipt(SignalServiceEnvelope envelope) {
     Log.w(TAG, String.format("Received receipt: (XXXXX, %d)", envelope.getTimestamp()));
-    DatabaseFactory.getMmsSmsDatabase(context).incrementDeliveryReceiptCount(new SyncMessageId(Address.fromExternal(context, envelope.getSource()),
-                                                                                               envelope.getTimestamp()), System.currentTimeMillis());
+    MmsSmsDatabase database = DatabaseFactory.getMmsSmsDatabase(context);
+
+    database.incrementDeliveryReceiptCount(new SyncMessageId(Address.fromExternal(context, envelope.getSource()),
+                                                             envelope.getTimestamp()), System.currentTimeMillis());
+
+    // The envelope is acknowledged once we return, so the receipt can't wait in the buffer.
+    database.flushReceipts();
   }
 
-  private boolean isActiveNumber(@NonNull Recipient recipient) {
-    return recipient.resolve().getRegistered() == RecipientDatabase.RegisteredState.REGISTERED;
+  private boolean isActiveNumber(@NonNull Optional<RecipientSettings> settings) {
+    return settings.isPresent() && settings.get().getRegistered() == RecipientDatabase.RegisteredState.REGISTERED;
   }
 
 
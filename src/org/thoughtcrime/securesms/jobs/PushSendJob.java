@@ -56,6 +56,7 @@ public abstract class PushSendJob extends SendJob {
     builder.withRequirement(new MasterSecretRequirement(context));
     builder.withRequirement(new NetworkBackoffRequirement(context));
     builder.withRetryDuration(TimeUnit.DAYS.toMillis(1));
+    builder.withPriority(JobParameters.PRIORITY_HIGH);
 
     return builder.create();
   }
@@ -2,11 +2,13 @@ package org.thoughtcrime.securesms.jobs;
 
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.jobmanager.JobParameters;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobCodec;
 import org.thoughtcrime.securesms.jobmanager.requirements.NetworkRequirement;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
@@ -15,7 +17,10 @@ import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -33,14 +38,18 @@ public class SendReadReceiptJob extends ContextJob implements InjectableType {
   private final long       timestamp;
 
   public SendReadReceiptJob(Context context, Address address, List<Long> messageIds) {
+    this(context, address.serialize(), messageIds, System.currentTimeMillis());
+  }
+
+  private SendReadReceiptJob(Context context, String address, List<Long> messageIds, long timestamp) {
     super(context, JobParameters.newBuilder()
                                 .withRequirement(new NetworkRequirement(context))
                                 .withPersistence()
                                 .create());
 
-    this.address    = address.serialize();
+    this.address    = address;
     this.messageIds = messageIds;
-    this.timestamp  = System.currentTimeMillis();
+    this.timestamp  = timestamp;
   }
 
   @Override
@@ -66,4 +75,32 @@ public class SendReadReceiptJob extends ContextJob implements InjectableType {
   public void onCanceled() {
     Log.w(TAG, "Failed to send read receipts to: " + address);
   }
+
+  public static class Codec implements JobCodec<SendReadReceiptJob> {
+
+    @Override
+    public void encode(@NonNull SendReadReceiptJob job, @NonNull DataOutputStream out) throws IOException {
+      out.writeUTF(job.address);
+      out.writeLong(job.timestamp);
+      out.writeInt(job.messageIds.size());
+
+      for (long messageId : job.messageIds) {
+        out.writeLong(messageId);
+      }
+    }
+
+    @Override
+    public @NonNull SendReadReceiptJob decode(@NonNull DataInputStream in) throws IOException {
+      String     address    = in.readUTF();
+      long       timestamp  = in.readLong();
+      int        count      = in.readInt();
+      List<Long> messageIds = new ArrayList<>(count);
+
+      for (int i=0;i<count;i++) {
+        messageIds.add(in.readLong());
+      }
+
+      return new SendReadReceiptJob(null, address, messageIds, timestamp);
+    }
+  }
 }
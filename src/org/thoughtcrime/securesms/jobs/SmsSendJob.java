@@ -193,7 +193,8 @@ public class SmsSendJob extends SendJob {
                                                  .withPersistence()
                                                  .withRequirement(new MasterSecretRequirement(context))
                                                  .withRetryCount(15)
-                                                 .withGroupId(name);
+                                                 .withGroupId(name)
+                                                 .withPriority(JobParameters.PRIORITY_HIGH);
 
     if (TextSecurePreferences.isWifiSmsEnabled(context)) {
       builder.withRequirement(new NetworkOrServiceRequirement(context));
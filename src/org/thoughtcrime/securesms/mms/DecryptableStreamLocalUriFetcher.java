@@ -9,6 +9,7 @@ import android.util.Log;
 import com.bumptech.glide.load.data.StreamLocalUriFetcher;
 
 import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
 import java.io.ByteArrayInputStream;
@@ -16,6 +17,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
 
@@ -23,6 +27,9 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
 
   private Context context;
 
+  private volatile boolean         cancelled;
+  private volatile Future<Boolean> thumbnailRequest;
+
   DecryptableStreamLocalUriFetcher(Context context, Uri uri) {
     super(context.getContentResolver(), uri);
     this.context      = context;
@@ -40,6 +47,10 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
       }
     }
 
+    if (PartAuthority.isThumbnailUri(uri)) {
+      awaitThumbnail(uri);
+    }
+
     try {
       return PartAuthority.getAttachmentStream(context, uri);
     } catch (IOException ioe) {
@@ -47,4 +58,40 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
       throw new FileNotFoundException("PartAuthority couldn't load Uri resource.");
     }
   }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+
+    Future<Boolean> request = thumbnailRequest;
+
+    if (request != null) {
+      request.cancel(false);
+    }
+  }
+
+  /**
+   * Waits for the thumbnail to be generated, giving up as soon as Glide cancels the load so that
+   * views which have scrolled away don't hold up the rest.
+   */
+  private void awaitThumbnail(Uri uri) throws FileNotFoundException {
+    Future<Boolean> request = DatabaseFactory.getAttachmentDatabase(context).requestThumbnail(new PartUriParser(uri).getPartId());
+
+    thumbnailRequest = request;
+
+    if (cancelled) {
+      request.cancel(false);
+    }
+
+    try {
+      request.get();
+    } catch (CancellationException e) {
+      throw new FileNotFoundException("Thumbnail request cancelled.");
+    } catch (InterruptedException | ExecutionException e) {
+      Log.w(TAG, e);
+      throw new FileNotFoundException("Thumbnail generation failed.");
+    } finally {
+      thumbnailRequest = null;
+    }
+  }
 }
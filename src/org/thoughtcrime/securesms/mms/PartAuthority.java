@@ -58,6 +58,38 @@ public class PartAuthority {
     }
   }
 
+  /**
+   * Like {@link #getAttachmentStream(Context, Uri)}, but starting at the given offset. Parts are
+   * decrypted from there directly, everything else is read up to it.
+   */
+  public static InputStream getAttachmentStream(@NonNull Context context, @NonNull Uri uri, long offset)
+      throws IOException
+  {
+    if (uriMatcher.match(uri) == PART_ROW) {
+      try {
+        return DatabaseFactory.getAttachmentDatabase(context).getAttachmentChannel(new PartUriParser(uri).getPartId()).createInputStream(offset);
+      } catch (SecurityException se) {
+        throw new IOException(se);
+      }
+    }
+
+    InputStream inputStream = getAttachmentStream(context, uri);
+    long        remaining   = offset;
+
+    while (remaining > 0) {
+      long skipped = inputStream.skip(remaining);
+
+      if (skipped <= 0) {
+        if (inputStream.read() == -1) break;
+        skipped = 1;
+      }
+
+      remaining -= skipped;
+    }
+
+    return inputStream;
+  }
+
   public static @Nullable String getAttachmentFileName(@NonNull Context context, @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
 
@@ -127,6 +159,10 @@ public class PartAuthority {
     return ContentUris.withAppendedId(uri, attachmentId.getRowId());
   }
 
+  public static boolean isThumbnailUri(@NonNull Uri uri) {
+    return uriMatcher.match(uri) == THUMB_ROW;
+  }
+
   public static boolean isLocalUri(final @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
     switch (match) {
@@ -21,6 +21,7 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.Log;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.color.MaterialColor;
@@ -30,25 +31,40 @@ import org.thoughtcrime.securesms.database.GroupDatabase.GroupRecord;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RegisteredState;
 import org.thoughtcrime.securesms.database.RecipientDatabase.VibrateState;
+import org.thoughtcrime.securesms.util.FutureTaskListener;
 import org.thoughtcrime.securesms.util.ListenableFutureTask;
-import org.thoughtcrime.securesms.util.SoftHashMap;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 
 class RecipientProvider {
 
-  @SuppressWarnings("unused")
   private static final String TAG = RecipientProvider.class.getSimpleName();
 
+  private static final int RESOLVER_THREADS    = 4;
+  private static final int SETTINGS_BATCH_SIZE = 50;
+
   private static final RecipientCache  recipientCache         = new RecipientCache();
-  private static final ExecutorService asyncRecipientResolver = Util.newSingleThreadedLifoExecutor();
+  private static final ExecutorService asyncRecipientResolver = Util.newLifoExecutor(RESOLVER_THREADS);
+
+  private final Map<Address, ListenableFutureTask<RecipientDetails>> inFlight = new HashMap<>();
+
+  private final Object                                    settingsLock     = new Object();
+  private final Set<Address>                              pendingSettings  = new LinkedHashSet<>();
+  private final Set<Address>                              claimedSettings  = new HashSet<>();
+  private final Map<Address, Optional<RecipientSettings>> batchedSettings  = new HashMap<>();
 
   private static final Map<String, RecipientDetails> STATIC_DETAILS = new HashMap<String, RecipientDetails>() {{
     put("262966", new RecipientDetails("Amazon", null, false, null, null));
@@ -66,7 +82,7 @@ class RecipientProvider {
     if (asynchronous) {
       cachedRecipient = new Recipient(address, cachedRecipient, prefetchedRecipientDetails, getRecipientDetailsAsync(context, address, settings, groupRecord));
     } else {
-      cachedRecipient = new Recipient(address, getRecipientDetailsSync(context, address, settings, groupRecord, false));
+      cachedRecipient = new Recipient(address, getRecipientDetailsSync(context, address, settings, groupRecord));
     }
 
     recipientCache.set(address, cachedRecipient);
@@ -77,6 +93,10 @@ class RecipientProvider {
     return Optional.fromNullable(recipientCache.get(address));
   }
 
+  @NonNull String getCacheStatistics() {
+    return recipientCache.getStatistics();
+  }
+
   private @NonNull Optional<RecipientDetails> createPrefetchedRecipientDetails(@NonNull Context context, @NonNull Address address,
                                                                                @NonNull Optional<RecipientSettings> settings,
                                                                                @NonNull Optional<GroupRecord> groupRecord)
@@ -90,25 +110,145 @@ class RecipientProvider {
     return Optional.absent();
   }
 
+  /**
+   * Resolve a recipient on the resolver pool. Concurrent requests for the same address share a
+   * single resolution, and individual recipients without prefetched settings have their settings
+   * looked up in batches with the other addresses that are waiting to be resolved.
+   */
   private @NonNull ListenableFutureTask<RecipientDetails> getRecipientDetailsAsync(final Context context, final @NonNull Address address, final @NonNull Optional<RecipientSettings> settings, final @NonNull Optional<GroupRecord> groupRecord)
   {
-    Callable<RecipientDetails> task = () -> getRecipientDetailsSync(context, address, settings, groupRecord, true);
+    final ListenableFutureTask<RecipientDetails> future;
+
+    synchronized (inFlight) {
+      ListenableFutureTask<RecipientDetails> existing = inFlight.get(address);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      Callable<RecipientDetails> task;
+
+      if (!address.isGroup() && !settings.isPresent()) {
+        synchronized (settingsLock) {
+          pendingSettings.add(address);
+        }
+
+        task = () -> createIndividualRecipientDetails(address, getBatchedSettings(context, address));
+      } else {
+        task = () -> getRecipientDetails(context, address, settings, groupRecord, true);
+      }
+
+      future = new ListenableFutureTask<>(task);
+      inFlight.put(address, future);
+    }
+
+    future.addListener(new FutureTaskListener<RecipientDetails>() {
+      @Override
+      public void onSuccess(RecipientDetails result) {
+        removeInFlight(address, future);
+      }
+
+      @Override
+      public void onFailure(ExecutionException error) {
+        removeInFlight(address, future);
+      }
+    });
 
-    ListenableFutureTask<RecipientDetails> future = new ListenableFutureTask<>(task);
     asyncRecipientResolver.submit(future);
     return future;
   }
 
-  private @NonNull RecipientDetails getRecipientDetailsSync(Context context, @NonNull Address address, Optional<RecipientSettings> settings, Optional<GroupRecord> groupRecord, boolean nestedAsynchronous) {
+  private void removeInFlight(@NonNull Address address, @NonNull ListenableFutureTask<RecipientDetails> future) {
+    synchronized (inFlight) {
+      if (inFlight.get(address) == future) {
+        inFlight.remove(address);
+      }
+    }
+  }
+
+  private @NonNull RecipientDetails getRecipientDetailsSync(Context context, @NonNull Address address, Optional<RecipientSettings> settings, Optional<GroupRecord> groupRecord) {
+    ListenableFutureTask<RecipientDetails> pending;
+
+    synchronized (inFlight) {
+      pending = address.isGroup() ? null : inFlight.get(address);
+    }
+
+    if (pending != null) {
+      pending.run();
+
+      try {
+        return pending.get();
+      } catch (InterruptedException | ExecutionException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    return getRecipientDetails(context, address, settings, groupRecord, false);
+  }
+
+  private @NonNull RecipientDetails getRecipientDetails(Context context, @NonNull Address address, Optional<RecipientSettings> settings, Optional<GroupRecord> groupRecord, boolean nestedAsynchronous) {
     if (address.isGroup()) return getGroupRecipientDetails(context, address, groupRecord, settings, nestedAsynchronous);
     else                   return getIndividualRecipientDetails(context, address, settings);
   }
 
+  /**
+   * Look up the settings for an address together with up to {@link #SETTINGS_BATCH_SIZE} other
+   * addresses that are queued for resolution, or take them from an earlier batch that already
+   * included this address.
+   */
+  private @NonNull Optional<RecipientSettings> getBatchedSettings(@NonNull Context context, @NonNull Address address) {
+    List<Address> batch = new LinkedList<>();
+
+    synchronized (settingsLock) {
+      while (claimedSettings.contains(address)) {
+        Util.wait(settingsLock, 0);
+      }
+
+      if (batchedSettings.containsKey(address)) {
+        return batchedSettings.remove(address);
+      }
+
+      pendingSettings.remove(address);
+      batch.add(address);
+
+      Iterator<Address> iterator = pendingSettings.iterator();
+
+      while (iterator.hasNext() && batch.size() < SETTINGS_BATCH_SIZE) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+
+      claimedSettings.addAll(batch);
+    }
+
+    Map<Address, RecipientSettings> results = null;
+
+    try {
+      results = DatabaseFactory.getRecipientDatabase(context).getRecipientSettings(batch);
+      return Optional.fromNullable(results.get(address));
+    } finally {
+      synchronized (settingsLock) {
+        if (results != null) {
+          for (Address batchAddress : batch.subList(1, batch.size())) {
+            batchedSettings.put(batchAddress, Optional.fromNullable(results.get(batchAddress)));
+          }
+        }
+
+        claimedSettings.removeAll(batch);
+        settingsLock.notifyAll();
+      }
+    }
+  }
+
   private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull Address address, Optional<RecipientSettings> settings) {
     if (!settings.isPresent()) {
       settings = DatabaseFactory.getRecipientDatabase(context).getRecipientSettings(address);
     }
 
+    return createIndividualRecipientDetails(address, settings);
+  }
+
+  private @NonNull RecipientDetails createIndividualRecipientDetails(@NonNull Address address, @NonNull Optional<RecipientSettings> settings) {
     if (!settings.isPresent() && STATIC_DETAILS.containsKey(address.serialize())) {
       return STATIC_DETAILS.get(address.serialize());
     } else {
@@ -206,18 +346,47 @@ class RecipientProvider {
     }
   }
 
+  /**
+   * A size-bounded, least-recently-used cache of resolved recipients that keeps hit, miss and
+   * eviction counts for diagnostics.
+   */
   private static class RecipientCache {
 
-    private final Map<Address,Recipient> cache = new SoftHashMap<>(1000);
+    private static final int MAX_SIZE = 1000;
+
+    private final Map<Address,Recipient> cache = new LinkedHashMap<Address, Recipient>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Address, Recipient> eldest) {
+        if (size() > MAX_SIZE) {
+          evictions++;
+          return true;
+        }
+
+        return false;
+      }
+    };
+
+    private long hits;
+    private long misses;
+    private long evictions;
 
     public synchronized Recipient get(Address address) {
-      return cache.get(address);
+      Recipient recipient = cache.get(address);
+
+      if (recipient != null) hits++;
+      else                   misses++;
+
+      return recipient;
     }
 
     public synchronized void set(Address address, Recipient recipient) {
       cache.put(address, recipient);
     }
 
+    public synchronized String getStatistics() {
+      return "size: " + cache.size() + "/" + MAX_SIZE + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+    }
+
   }
 
 }
\ No newline at end of file
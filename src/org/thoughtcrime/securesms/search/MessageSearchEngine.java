@@ -0,0 +1,91 @@
+package org.thoughtcrime.securesms.search;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.SearchDatabase;
+import org.thoughtcrime.securesms.database.SearchDatabase.MessageMatches;
+import org.thoughtcrime.securesms.database.SearchDatabase.Order;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs message searches as the user types.
+ *
+ * Each search is started with {@link #begin()}, which cancels the one before it. A cancelled search
+ * stops at its next step and returns nothing. When a query only extends the previous one, every
+ * message it can match also matched the previous query, so if that earlier result was small and
+ * complete only those messages are searched again instead of the whole index.
+ */
+class MessageSearchEngine {
+
+  private static final int REFINE_LIMIT = 1000;
+
+  private final SearchDatabase searchDatabase;
+  private final AtomicLong     generation = new AtomicLong();
+
+  private MessageMatches previous;
+  private long           previousVersion;
+
+  MessageSearchEngine(@NonNull SearchDatabase searchDatabase) {
+    this.searchDatabase = searchDatabase;
+  }
+
+  /**
+   * Cancel the search in progress, if any.
+   *
+   * @return A token identifying the search that starts now.
+   */
+  long begin() {
+    return generation.incrementAndGet();
+  }
+
+  boolean isCancelled(long token) {
+    return generation.get() != token;
+  }
+
+  /**
+   * @return The matches for the query, or null if the search was cancelled.
+   */
+  @Nullable MessageMatches search(@NonNull String query, @NonNull Order order, long token) {
+    if (isCancelled(token)) return null;
+
+    long           version;
+    MessageMatches refinable;
+
+    synchronized (this) {
+      version   = previousVersion;
+      refinable = getRefinable(query);
+    }
+
+    MessageMatches matches = searchDatabase.queryMessageMatches(query, order, refinable);
+
+    synchronized (this) {
+      if (version == previousVersion) {
+        previous = matches;
+      }
+    }
+
+    return isCancelled(token) ? null : matches;
+  }
+
+  /**
+   * Forget the previous result, so that the next search reads the whole index. Call this when the
+   * messages change.
+   */
+  synchronized void invalidate() {
+    previous = null;
+    previousVersion++;
+  }
+
+  private @Nullable MessageMatches getRefinable(@NonNull String query) {
+    if (previous == null)                               return null;
+    if (!previous.isComplete())                         return null;
+    if (previous.size() > REFINE_LIMIT)                 return null;
+    if (previous.getQuery().trim().isEmpty())           return null;
+    if (query.length() <= previous.getQuery().length()) return null;
+    if (!query.startsWith(previous.getQuery()))         return null;
+
+    return previous;
+  }
+}
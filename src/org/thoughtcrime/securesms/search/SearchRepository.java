@@ -16,7 +16,9 @@ import org.thoughtcrime.securesms.contacts.ContactsDatabase;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.CursorList;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.PagedCursorList;
 import org.thoughtcrime.securesms.database.SearchDatabase;
+import org.thoughtcrime.securesms.database.SearchDatabase.MessageMatches;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.permissions.Permissions;
@@ -34,6 +36,8 @@ import java.util.concurrent.Executor;
  */
 class SearchRepository {
 
+  private static final int MESSAGE_PAGE_SIZE = 50;
+
   private static final Set<Character> BANNED_CHARACTERS = new HashSet<>();
   static {
     // Several ranges of invalid ASCII characters
@@ -51,12 +55,13 @@ class SearchRepository {
     }
   }
 
-  private final Context          context;
-  private final SearchDatabase   searchDatabase;
-  private final ContactsDatabase contactsDatabase;
-  private final ThreadDatabase   threadDatabase;
-  private final ContactAccessor  contactAccessor;
-  private final Executor         executor;
+  private final Context             context;
+  private final SearchDatabase      searchDatabase;
+  private final ContactsDatabase    contactsDatabase;
+  private final ThreadDatabase      threadDatabase;
+  private final ContactAccessor     contactAccessor;
+  private final Executor            executor;
+  private final MessageSearchEngine messageSearchEngine;
 
   SearchRepository(@NonNull Context          context,
                    @NonNull SearchDatabase   searchDatabase,
@@ -71,24 +76,62 @@ class SearchRepository {
     this.threadDatabase   = threadDatabase;
     this.contactAccessor  = contactAccessor;
     this.executor         = executor;
+
+    this.messageSearchEngine = new MessageSearchEngine(searchDatabase);
   }
 
   void query(@NonNull String query, @NonNull Callback callback) {
+    query(query, SearchDatabase.Order.RECENT, callback);
+  }
+
+  /**
+   * Start a search, cancelling the one in progress. The callback is only invoked if the search
+   * isn't itself cancelled before it completes.
+   */
+  void query(@NonNull String query, @NonNull SearchDatabase.Order order, @NonNull Callback callback) {
+    long token = messageSearchEngine.begin();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
     executor.execute(() -> {
-      String                    cleanQuery    = sanitizeQuery(query);
-      CursorList<Recipient>     contacts      = queryContacts(cleanQuery);
-      CursorList<ThreadRecord>  conversations = queryConversations(cleanQuery);
-      CursorList<MessageResult> messages      = queryMessages(cleanQuery);
+      if (messageSearchEngine.isCancelled(token)) return;
+
+      String         cleanQuery = sanitizeQuery(query);
+      MessageMatches matches    = messageSearchEngine.search(cleanQuery, order, token);
+
+      if (matches == null) return;
+
+      CursorList<Recipient>          contacts      = queryContacts(cleanQuery);
+      CursorList<ThreadRecord>       conversations = queryConversations(cleanQuery);
+      PagedCursorList<MessageResult> messages      = queryMessages(matches);
+      SearchResult                   result        = new SearchResult(cleanQuery, contacts, conversations, messages);
 
-      callback.onResult(new SearchResult(cleanQuery, contacts, conversations, messages));
+      if (messageSearchEngine.isCancelled(token)) {
+        result.close();
+        return;
+      }
+
+      callback.onResult(result);
     });
   }
 
+  /**
+   * Cancel the search in progress, if any.
+   */
+  void cancel() {
+    messageSearchEngine.begin();
+  }
+
+  /**
+   * Called when messages have changed, so that earlier results aren't reused.
+   */
+  void invalidate() {
+    messageSearchEngine.invalidate();
+  }
+
   private CursorList<Recipient> queryContacts(String query) {
     if (!Permissions.hasAny(context, Manifest.permission.READ_CONTACTS, Manifest.permission.WRITE_CONTACTS)) {
       return CursorList.emptyList();
@@ -110,10 +153,11 @@ class SearchRepository {
                                  : CursorList.emptyList();
   }
 
-  private CursorList<MessageResult> queryMessages(@NonNull String query) {
-    Cursor messages = searchDatabase.queryMessages(query);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
-                            : CursorList.emptyList();
+  private PagedCursorList<MessageResult> queryMessages(@NonNull MessageMatches matches) {
+    return new PagedCursorList<>(matches.size(), MESSAGE_PAGE_SIZE,
+                                 (offset, limit) -> searchDatabase.getMessagePage(matches, offset, limit),
+                                 new MessageModelBuilder(context),
+                                 executor);
   }
 
   /**
@@ -36,6 +36,8 @@ class SearchViewModel extends ViewModel {
     searchResult.registerContentObserver(new ContentObserver(new Handler()) {
       @Override
       public void onChange(boolean selfChange) {
+        searchRepository.invalidate();
+
         if (!TextUtils.isEmpty(getLastQuery())) {
           searchRepository.query(getLastQuery(), searchResult::postValue);
         }
@@ -49,6 +51,7 @@ class SearchViewModel extends ViewModel {
 
   void updateQuery(String query) {
     lastQuery = query;
+    searchRepository.cancel();
     debouncer.publish(() -> searchRepository.query(query, searchResult::postValue));
   }
 
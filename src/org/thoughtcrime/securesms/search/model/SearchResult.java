@@ -5,6 +5,7 @@ import android.database.DataSetObserver;
 import android.support.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.CursorList;
+import org.thoughtcrime.securesms.database.PagedCursorList;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.recipients.Recipient;
 
@@ -16,17 +17,17 @@ import java.util.List;
  */
 public class SearchResult {
 
-  public static final SearchResult EMPTY = new SearchResult("", CursorList.emptyList(), CursorList.emptyList(), CursorList.emptyList());
+  public static final SearchResult EMPTY = new SearchResult("", CursorList.emptyList(), CursorList.emptyList(), PagedCursorList.emptyList());
 
-  private final String                    query;
-  private final CursorList<Recipient>     contacts;
-  private final CursorList<ThreadRecord>  conversations;
-  private final CursorList<MessageResult> messages;
+  private final String                         query;
+  private final CursorList<Recipient>          contacts;
+  private final CursorList<ThreadRecord>       conversations;
+  private final PagedCursorList<MessageResult> messages;
 
-  public SearchResult(@NonNull String                    query,
-                      @NonNull CursorList<Recipient>     contacts,
-                      @NonNull CursorList<ThreadRecord>  conversations,
-                      @NonNull CursorList<MessageResult> messages)
+  public SearchResult(@NonNull String                         query,
+                      @NonNull CursorList<Recipient>          contacts,
+                      @NonNull CursorList<ThreadRecord>       conversations,
+                      @NonNull PagedCursorList<MessageResult> messages)
   {
     this.query         = query;
     this.contacts      = contacts;
@@ -4,32 +4,47 @@ import android.content.Context;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.database.MmsDatabase;
-import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
-
-import java.util.Comparator;
-import java.util.TreeSet;
+import org.thoughtcrime.securesms.database.MessagingDatabase.ExpirationInfo;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.util.TimingWheel;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes disappearing messages once their timers run out.
+ *
+ * Pending deletions are kept in a {@link TimingWheel} with a one second tick, and everything that
+ * falls due within the same tick is deleted as one batch. Rather than loading every running timer
+ * at startup, only the timers that run out within the next {@link #LOAD_WINDOW} are read from the
+ * database, and the window is moved forward as it's used up. Deletions scheduled directly through
+ * {@link #scheduleDeletion(long, boolean, long, long)} are always kept, whatever the window.
+ */
 public class ExpiringMessageManager {
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
-  private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
-  private final Executor                          executor                  = Executors.newSingleThreadExecutor();
+  private static final long TICK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final long LOAD_WINDOW = TimeUnit.MINUTES.toMillis(10);
 
-  private final SmsDatabase smsDatabase;
-  private final MmsDatabase mmsDatabase;
-  private final Context     context;
+  private final Object                                lock      = new Object();
+  private final TimingWheel<ExpiringMessageReference> wheel     = new TimingWheel<>(TICK_MILLIS, System.currentTimeMillis());
+  private final Set<ExpiringMessageReference>         scheduled = new HashSet<>();
+  private final List<ExpiringMessageReference>        due       = new LinkedList<>();
+  private final Executor                              executor  = Executors.newSingleThreadExecutor();
+
+  private final MmsSmsDatabase database;
+  private final Context        context;
 
   public ExpiringMessageManager(Context context) {
-    this.context     = context.getApplicationContext();
-    this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
-    this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+    this.context  = context.getApplicationContext();
+    this.database = DatabaseFactory.getMmsSmsDatabase(context);
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
@@ -40,73 +55,96 @@ public class ExpiringMessageManager {
   public void scheduleDeletion(long id, boolean mms, long startedAtTimestamp, long expiresInMillis) {
     long expiresAtMillis = startedAtTimestamp + expiresInMillis;
 
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
-      expiringMessageReferences.notifyAll();
+    synchronized (lock) {
+      schedule(new ExpiringMessageReference(id, mms, expiresAtMillis));
+      lock.notifyAll();
     }
   }
 
   public void checkSchedule() {
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.notifyAll();
+    synchronized (lock) {
+      lock.notifyAll();
     }
   }
 
-  private class LoadTask implements Runnable {
-    public void run() {
-      SmsDatabase.Reader smsReader = smsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = mmsDatabase.getExpireStartedMessages();
-
-      MessageRecord messageRecord;
-
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
-
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
+  private void schedule(ExpiringMessageReference reference) {
+    if (!scheduled.add(reference)) return;
 
-      smsReader.close();
-      mmsReader.close();
+    if (!wheel.add(reference, reference.expiresAtMillis)) {
+      due.add(reference);
     }
   }
 
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
-      while (true) {
-        ExpiringMessageReference expiredMessage = null;
+      long loadedUntil = 0;
 
-        synchronized (expiringMessageReferences) {
-          try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
+      while (true) {
+        long now = System.currentTimeMillis();
 
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+        if (now >= loadedUntil) {
+          loadedUntil = load(now);
+        }
 
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+        List<ExpiringMessageReference> expired;
+
+        synchronized (lock) {
+          expired = new LinkedList<>(due);
+          expired.addAll(wheel.advance(now));
+          due.clear();
+
+          if (expired.isEmpty()) {
+            try {
+              long nextDeadline = wheel.getNextDeadline();
+              long wakeAt       = nextDeadline == -1 ? loadedUntil : Math.min(nextDeadline, loadedUntil);
+              long waitTime     = wakeAt - now;
+
+              if (waitTime > 0) {
+                ExpirationListener.setAlarm(context, waitTime);
+                lock.wait(waitTime);
+              }
+            } catch (InterruptedException e) {
+              Log.w(TAG, e);
             }
 
-          } catch (InterruptedException e) {
-            Log.w(TAG, e);
+            continue;
           }
+
+          scheduled.removeAll(expired);
         }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.delete(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+        delete(expired);
+      }
+    }
+
+    private long load(long now) {
+      long nextExpiration = database.getNextExpiration();
+      long loadUntil      = Math.max(now, nextExpiration) + LOAD_WINDOW;
+
+      List<ExpirationInfo> expiring = nextExpiration == -1 ? new LinkedList<>()
+                                                           : database.getExpiringMessagesBefore(loadUntil);
+
+      synchronized (lock) {
+        for (ExpirationInfo info : expiring) {
+          schedule(new ExpiringMessageReference(info.getId(), info.isMms(), info.getExpireStarted() + info.getExpiresIn()));
         }
       }
+
+      return loadUntil;
+    }
+
+    private void delete(List<ExpiringMessageReference> expired) {
+      Set<Long> smsIds = new HashSet<>();
+      Set<Long> mmsIds = new HashSet<>();
+
+      for (ExpiringMessageReference reference : expired) {
+        if (reference.mms) mmsIds.add(reference.id);
+        else               smsIds.add(reference.id);
+      }
+
+      Log.i(TAG, "Deleting " + smsIds.size() + " sms and " + mmsIds.size() + " mms expired messages");
+      database.deleteExpiredMessages(smsIds, mmsIds);
     }
   }
 
@@ -136,17 +174,4 @@ public class ExpiringMessageManager {
     }
   }
 
-  private static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
-    @Override
-    public int compare(ExpiringMessageReference lhs, ExpiringMessageReference rhs) {
-      if      (lhs.expiresAtMillis < rhs.expiresAtMillis) return -1;
-      else if (lhs.expiresAtMillis > rhs.expiresAtMillis) return 1;
-      else if (lhs.id < rhs.id)                           return -1;
-      else if (lhs.id > rhs.id)                           return 1;
-      else if (!lhs.mms && rhs.mms)                       return -1;
-      else if (lhs.mms && !rhs.mms)                       return 1;
-      else                                                return 0;
-    }
-  }
-
 }
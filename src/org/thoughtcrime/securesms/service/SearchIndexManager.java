@@ -0,0 +1,87 @@
+package org.thoughtcrime.securesms.service;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.SearchDatabase;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the full-text search index up to date in the background.
+ *
+ * Message bodies are only journaled as they change (see {@link SearchDatabase#CREATE_TABLE}), so
+ * whenever messages may have changed a pass is scheduled that applies the journal in batches.
+ * Everything that changes within {@link #MAX_LAG} of the first change is applied together, so
+ * search results trail the messages by no more than that. Each pass leaves more small segments in
+ * the index, so they're merged a little at a time as changes add up, and the whole index is
+ * optimized after a large number of them.
+ */
+public class SearchIndexManager {
+
+  private static final String TAG = SearchIndexManager.class.getSimpleName();
+
+  private static final long MAX_LAG           = TimeUnit.SECONDS.toMillis(2);
+  private static final int  BATCH_SIZE        = 500;
+  private static final int  MERGE_INTERVAL    = 1000;
+  private static final int  MERGE_PAGES       = 500;
+  private static final int  OPTIMIZE_INTERVAL = 50000;
+
+  private final ScheduledExecutorService executor  = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicBoolean            scheduled = new AtomicBoolean(false);
+  private final SearchDatabase           searchDatabase;
+
+  private int changesSinceMerge;
+  private int changesSinceOptimize;
+
+  public SearchIndexManager(Context context) {
+    this.searchDatabase = DatabaseFactory.getSearchDatabase(context);
+
+    searchDatabase.registerJournalObserver(new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        schedule();
+      }
+    });
+
+    schedule();
+  }
+
+  public void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      executor.schedule(this::process, MAX_LAG, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void process() {
+    scheduled.set(false);
+
+    int applied;
+    int total = 0;
+
+    do {
+      applied  = searchDatabase.applyJournal(BATCH_SIZE);
+      total   += applied;
+    } while (applied == BATCH_SIZE);
+
+    if (total == 0) return;
+
+    changesSinceMerge    += total;
+    changesSinceOptimize += total;
+
+    if (changesSinceOptimize >= OPTIMIZE_INTERVAL) {
+      Log.i(TAG, "Optimizing search index after " + changesSinceOptimize + " changes.");
+      searchDatabase.optimizeIndex();
+      changesSinceOptimize = 0;
+      changesSinceMerge    = 0;
+    } else if (changesSinceMerge >= MERGE_INTERVAL) {
+      searchDatabase.mergeIndex(MERGE_PAGES);
+      changesSinceMerge = 0;
+    }
+  }
+}
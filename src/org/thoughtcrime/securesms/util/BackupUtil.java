@@ -14,12 +14,18 @@ import java.io.File;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 
 public class BackupUtil {
 
   private static final String TAG = BackupUtil.class.getSimpleName();
 
+  public static final String FULL_BACKUP_EXTENSION  = "backup";
+  public static final String DELTA_BACKUP_EXTENSION = "delta";
+
   public static @NonNull String getLastBackupTime(@NonNull Context context, @NonNull Locale locale) {
     try {
       BackupInfo backup = getLatestBackup();
@@ -62,6 +68,9 @@ public class BackupUtil {
     }
   }
 
+  /**
+   * Keep the two most recent full backups, along with the deltas written after each of them.
+   */
   public static void deleteOldBackups() {
     try {
       File   backupDirectory = StorageUtil.getBackupDirectory();
@@ -76,14 +85,21 @@ public class BackupUtil {
           else if (leftTimestamp == -1)                         return 1;
           else if (rightTimestamp == -1)                        return -1;
 
-          return (int)(rightTimestamp - leftTimestamp);
+          return compare(rightTimestamp, leftTimestamp);
         });
 
-        for (int i=2;i<backups.length;i++) {
-          Log.w(TAG, "Deleting: " + backups[i].getAbsolutePath());
+        int fullBackups = 0;
 
-          if (!backups[i].delete()) {
-            Log.w(TAG, "Delete failed: " + backups[i].getAbsolutePath());
+        for (File backup : backups) {
+          if (fullBackups < 2) {
+            if (!isDeltaBackup(backup)) fullBackups++;
+            continue;
+          }
+
+          Log.w(TAG, "Deleting: " + backup.getAbsolutePath());
+
+          if (!backup.delete()) {
+            Log.w(TAG, "Delete failed: " + backup.getAbsolutePath());
           }
         }
       }
@@ -92,6 +108,48 @@ public class BackupUtil {
     }
   }
 
+  /**
+   * @return The files needed to restore a backup, oldest first. For a full backup that's just the
+   *         backup itself, and for a delta it's the full backup the delta was written against,
+   *         followed by every delta up to and including this one.
+   */
+  public static @NonNull List<File> getBackupChain(@NonNull File backup) {
+    if (!isDeltaBackup(backup)) return Collections.singletonList(backup);
+
+    long       timestamp = getBackupTimestamp(backup);
+    File[]     backups   = backup.getParentFile().listFiles();
+    List<File> chain     = new LinkedList<>();
+
+    if (backups == null) return Collections.singletonList(backup);
+
+    Arrays.sort(backups, (left, right) -> compare(getBackupTimestamp(left), getBackupTimestamp(right)));
+
+    for (File candidate : backups) {
+      long candidateTimestamp = getBackupTimestamp(candidate);
+
+      if (candidateTimestamp == -1 || candidateTimestamp > timestamp) continue;
+
+      if (!isDeltaBackup(candidate)) chain.clear();
+      chain.add(candidate);
+    }
+
+    return chain;
+  }
+
+  /**
+   * Backup timestamps are far enough apart that their difference doesn't fit in an int, and
+   * Long.compare() isn't available before API 19.
+   */
+  private static int compare(long left, long right) {
+    if      (left < right) return -1;
+    else if (left > right) return 1;
+    else                   return 0;
+  }
+
+  public static boolean isDeltaBackup(@NonNull File backup) {
+    return backup.getName().endsWith("." + DELTA_BACKUP_EXTENSION);
+  }
+
   public static @NonNull String[] generateBackupPassphrase() {
     String[] result = new String[6];
     byte[]   random = new byte[30];
@@ -0,0 +1,110 @@
+package org.thoughtcrime.securesms.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.annimon.stream.function.Function;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache that can be shared between threads. Keys are spread over a number of
+ * independently locked {@link LRUCache} segments, so threads rarely wait on each other, and each
+ * segment evicts its own least recently used entries.
+ *
+ * Values are computed outside of any lock, so two threads that miss on the same key at once may
+ * both compute it. That's fine for the pure functions this is meant to memoize.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+  private final LRUCache<K, V>[] segments;
+  private final AtomicLong       hits   = new AtomicLong();
+  private final AtomicLong       misses = new AtomicLong();
+
+  @SuppressWarnings("unchecked")
+  public ConcurrentLRUCache(int maxSize, int segmentCount) {
+    this.segments = new LRUCache[segmentCount];
+
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new LRUCache<>(Math.max(1, maxSize / segmentCount));
+    }
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    LRUCache<K, V> segment = getSegment(key);
+    V              value;
+
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+
+    if (value != null) hits.incrementAndGet();
+    else               misses.incrementAndGet();
+
+    return value;
+  }
+
+  public @NonNull V get(@NonNull K key, @NonNull Function<K, V> loader) {
+    V value = get(key);
+
+    if (value == null) {
+      value = loader.apply(key);
+      put(key, value);
+    }
+
+    return value;
+  }
+
+  public void put(@NonNull K key, @NonNull V value) {
+    LRUCache<K, V> segment = getSegment(key);
+
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  public void clear() {
+    for (LRUCache<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+
+    for (LRUCache<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return The fraction of lookups that were found in the cache, or 0 if there haven't been any.
+   */
+  public double getHitRate() {
+    long hitCount = hits.get();
+    long total    = hitCount + misses.get();
+
+    return total == 0 ? 0 : (double)hitCount / total;
+  }
+
+  private @NonNull LRUCache<K, V> getSegment(@NonNull K key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+
+    return segments[(hash & 0x7fffffff) % segments.length];
+  }
+}
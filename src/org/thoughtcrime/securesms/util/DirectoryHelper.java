@@ -77,12 +77,14 @@ public class DirectoryHelper {
       return new LinkedList<>();
     }
 
+    long              startMillis                             = System.currentTimeMillis();
     RecipientDatabase recipientDatabase                       = DatabaseFactory.getRecipientDatabase(context);
     Stream<String>    eligibleRecipientDatabaseContactNumbers = Stream.of(recipientDatabase.getAllAddresses()).filter(Address::isPhone).map(Address::toPhoneString);
     Stream<String>    eligibleSystemDatabaseContactNumbers    = Stream.of(ContactAccessor.getInstance().getAllContactsWithNumbers(context)).map(Address::serialize);
     Set<String>       eligibleContactNumbers                  = Stream.concat(eligibleRecipientDatabaseContactNumbers, eligibleSystemDatabaseContactNumbers).collect(Collectors.toSet());
 
     List<ContactTokenDetails> activeTokens = accountManager.getContacts(eligibleContactNumbers);
+    long                      fetchMillis  = System.currentTimeMillis();
 
     if (activeTokens != null) {
       List<Address> activeAddresses   = new LinkedList<>();
@@ -107,7 +109,15 @@ public class DirectoryHelper {
                                                    .toList();
 
       recipientDatabase.setRegistered(activeAddresses, inactiveAddresses);
+      long registeredMillis = System.currentTimeMillis();
+
       updateContactsDatabase(context, activeAddresses, true);
+      long contactsMillis = System.currentTimeMillis();
+
+      Log.i(TAG, "refreshDirectory() -> " + eligibleContactNumbers.size() + " numbers" +
+                 ", fetch: " + (fetchMillis - startMillis) + "ms" +
+                 ", recipients: " + (registeredMillis - fetchMillis) + "ms" +
+                 ", contacts: " + (contactsMillis - registeredMillis) + "ms");
 
       if (TextSecurePreferences.hasSuccessfullyRetrievedDirectory(context)) {
         return newlyActiveAddresses;
@@ -141,6 +141,7 @@ public class TextSecurePreferences {
   public  static final String BACKUP_ENABLED    = "pref_backup_enabled";
   private static final String BACKUP_PASSPHRASE = "pref_backup_passphrase";
   private static final String BACKUP_TIME       = "pref_backup_next_time";
+  private static final String BACKUP_CHECKPOINT = "pref_backup_checkpoint";
   public  static final String BACKUP_NOW        = "pref_backup_create";
 
   public static final String SCREEN_LOCK         = "pref_android_screen_lock";
@@ -204,6 +205,7 @@ public class TextSecurePreferences {
 
   public static void setBackupPassphrase(@NonNull Context context, @Nullable String passphrase) {
     setStringPreference(context, BACKUP_PASSPHRASE, passphrase);
+    setBackupCheckpoint(context, null);
   }
 
   public static @Nullable String getBackupPassphrase(@NonNull Context context) {
@@ -226,6 +228,14 @@ public class TextSecurePreferences {
     return getLongPreference(context, BACKUP_TIME, -1);
   }
 
+  public static void setBackupCheckpoint(@NonNull Context context, @Nullable String checkpoint) {
+    setStringPreference(context, BACKUP_CHECKPOINT, checkpoint);
+  }
+
+  public static @Nullable String getBackupCheckpoint(@NonNull Context context) {
+    return getStringPreference(context, BACKUP_CHECKPOINT, null);
+  }
+
   public static int getNextPreKeyId(@NonNull Context context) {
     return getIntegerPreference(context, NEXT_PRE_KEY_ID, new SecureRandom().nextInt(Medium.MAX_VALUE));
   }
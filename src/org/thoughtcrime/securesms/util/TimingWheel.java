@@ -0,0 +1,164 @@
+package org.thoughtcrime.securesms.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel that buckets items by deadline at a fixed tick resolution.
+ *
+ * Each of the {@link #LEVELS} levels has {@link #SLOTS} slots, and a slot on level n spans
+ * SLOTS^n ticks. An item is placed on the lowest level whose current rotation still contains its
+ * deadline, and is moved down a level each time the wheel reaches its slot, so scheduling and
+ * expiring an item are both O(1) regardless of how many items are pending. Items due beyond the
+ * current rotation of the top level are parked in its first slot and re-placed when the next
+ * rotation starts.
+ *
+ * Deadlines are rounded up to the next tick, so an item is never expired early, and everything
+ * that falls due within one tick is returned together.
+ *
+ * This class is not thread safe.
+ */
+public class TimingWheel<T> {
+
+  private static final int BITS   = 6;
+  private static final int SLOTS  = 1 << BITS;
+  private static final int MASK   = SLOTS - 1;
+  private static final int LEVELS = 4;
+
+  private final long                tickMillis;
+  private final List<Entry<T>>[][] wheel;
+
+  private long currentTick;
+  private int  size;
+
+  @SuppressWarnings("unchecked")
+  public TimingWheel(long tickMillis, long nowMillis) {
+    this.tickMillis  = tickMillis;
+    this.wheel       = new List[LEVELS][SLOTS];
+    this.currentTick = nowMillis / tickMillis;
+
+    for (int level = 0; level < LEVELS; level++) {
+      for (int slot = 0; slot < SLOTS; slot++) {
+        wheel[level][slot] = new LinkedList<>();
+      }
+    }
+  }
+
+  /**
+   * @return false if the deadline has already passed, in which case the item is not added and
+   *         should be handled by the caller right away.
+   */
+  public boolean add(@NonNull T item, long deadlineMillis) {
+    long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+
+    if (deadlineTick <= currentTick) {
+      return false;
+    }
+
+    place(new Entry<>(item, deadlineTick));
+    size++;
+    return true;
+  }
+
+  /**
+   * Turn the wheel forward to the given time.
+   *
+   * @return Every item whose deadline is at or before that time.
+   */
+  public @NonNull List<T> advance(long nowMillis) {
+    List<T> expired = new LinkedList<>();
+    long    nowTick = nowMillis / tickMillis;
+
+    while (currentTick < nowTick && size > 0) {
+      currentTick++;
+
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+          cascade(level);
+        }
+      }
+
+      List<Entry<T>> slot = wheel[0][(int)(currentTick & MASK)];
+
+      for (Entry<T> entry : slot) {
+        expired.add(entry.item);
+      }
+
+      size -= slot.size();
+      slot.clear();
+    }
+
+    if (currentTick < nowTick) {
+      currentTick = nowTick;
+    }
+
+    return expired;
+  }
+
+  /**
+   * @return The earliest time at which {@link #advance(long)} can return or move an item, or -1
+   *         if the wheel is empty. For items above the lowest level this is the time they are
+   *         moved down, which is never later than their deadline.
+   */
+  public long getNextDeadline() {
+    if (size == 0) return -1;
+
+    for (int level = 0; level < LEVELS; level++) {
+      long levelTick = currentTick >> (BITS * level);
+      int  current   = (int)(levelTick & MASK);
+
+      for (int slot = current + 1; slot < SLOTS; slot++) {
+        if (!wheel[level][slot].isEmpty()) {
+          return (((levelTick & ~MASK) + slot) << (BITS * level)) * tickMillis;
+        }
+      }
+    }
+
+    long topShift = BITS * LEVELS;
+    return (((currentTick >> topShift) + 1) << topShift) * tickMillis;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void cascade(int level) {
+    List<Entry<T>> slot    = wheel[level][(int)((currentTick >> (BITS * level)) & MASK)];
+    List<Entry<T>> entries = new LinkedList<>(slot);
+
+    slot.clear();
+
+    for (Entry<T> entry : entries) {
+      place(entry);
+    }
+  }
+
+  private void place(@NonNull Entry<T> entry) {
+    for (int level = 0; level < LEVELS; level++) {
+      int parentShift = BITS * (level + 1);
+
+      if ((entry.deadlineTick >> parentShift) == (currentTick >> parentShift)) {
+        wheel[level][(int)((entry.deadlineTick >> (BITS * level)) & MASK)].add(entry);
+        return;
+      }
+    }
+
+    wheel[LEVELS - 1][0].add(entry);
+  }
+
+  private static class Entry<T> {
+    private final T    item;
+    private final long deadlineTick;
+
+    private Entry(T item, long deadlineTick) {
+      this.item         = item;
+      this.deadlineTick = deadlineTick;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs keyed tasks on a bounded pool of threads, running each key at most once at a time no matter
+ * how many callers ask for it while it's queued or running.
+ *
+ * Tasks that someone is waiting for run before background tasks, and the most recently requested
+ * run first within each group, which suits work driven by whatever is on screen right now. Every
+ * caller gets its own {@link Future}: cancelling it only stops waiting, and the task itself is
+ * dropped once everyone waiting on it has cancelled before it started. Background tasks are never
+ * dropped.
+ */
+public class DeduplicatingExecutor<K, V> {
+
+  private final Map<K, Task>       tasks = new HashMap<>();
+  private final ThreadPoolExecutor executor;
+
+  private long sequence;
+
+  public DeduplicatingExecutor(int threads) {
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Runs the task for this key ahead of any background work, unless it's already queued or running.
+   */
+  public @NonNull Future<V> submit(@NonNull K key, @NonNull Callable<V> callable) {
+    synchronized (tasks) {
+      Task task = getOrCreate(key, callable);
+
+      task.waiters++;
+
+      if (!task.foreground || task.sequence != sequence) {
+        reschedule(task, true);
+      }
+
+      return new Request(task);
+    }
+  }
+
+  /**
+   * Runs the task for this key once there's no waiting work left, unless it's already queued or running.
+   */
+  public void submitInBackground(@NonNull K key, @NonNull Callable<V> callable) {
+    synchronized (tasks) {
+      Task task = getOrCreate(key, callable);
+
+      task.pinned = true;
+
+      if (task.sequence == 0) {
+        reschedule(task, false);
+      }
+    }
+  }
+
+  private @NonNull Task getOrCreate(@NonNull K key, @NonNull Callable<V> callable) {
+    Task task = tasks.get(key);
+
+    if (task == null) {
+      task = new Task(key, callable);
+      tasks.put(key, task);
+    }
+
+    return task;
+  }
+
+  private void reschedule(@NonNull Task task, boolean foreground) {
+    if (task.started) return;
+
+    if (task.sequence == 0 || executor.remove(task)) {
+      task.foreground = foreground;
+      task.sequence   = ++sequence;
+      executor.execute(task);
+    }
+  }
+
+  private void onRequestCancelled(@NonNull Task task) {
+    synchronized (tasks) {
+      if (--task.waiters == 0 && !task.pinned && !task.started) {
+        executor.remove(task);
+        task.cancel(false);
+      }
+    }
+  }
+
+  private class Task extends FutureTask<V> implements Comparable<Task> {
+
+    private final K key;
+
+    private boolean          foreground;
+    private long             sequence;
+    private boolean          pinned;
+    private int              waiters;
+    private volatile boolean started;
+
+    private Task(@NonNull K key, @NonNull Callable<V> callable) {
+      super(callable);
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      synchronized (tasks) {
+        if (isCancelled()) return;
+        started = true;
+      }
+
+      super.run();
+    }
+
+    @Override
+    protected void done() {
+      synchronized (tasks) {
+        if (tasks.get(key) == this) tasks.remove(key);
+      }
+
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    @Override
+    public int compareTo(@NonNull Task other) {
+      if      (foreground != other.foreground) return foreground ? -1 : 1;
+      else if (sequence > other.sequence)      return -1;
+      else if (sequence < other.sequence)      return 1;
+      else                                     return 0;
+    }
+  }
+
+  private class Request implements Future<V> {
+
+    private final Task task;
+
+    private volatile boolean cancelled;
+
+    private Request(@NonNull Task task) {
+      this.task = task;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (task) {
+        if (cancelled || task.isDone()) return false;
+
+        cancelled = true;
+        task.notifyAll();
+      }
+
+      onRequestCancelled(task);
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled || task.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      synchronized (task) {
+        while (!cancelled && !task.isDone()) task.wait();
+      }
+
+      if (cancelled) throw new CancellationException();
+      else           return task.get();
+    }
+
+    @Override
+    public V get(long timeout, @NonNull TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+      long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+      synchronized (task) {
+        while (!cancelled && !task.isDone()) {
+          long remaining = deadline - System.currentTimeMillis();
+
+          if (remaining <= 0) throw new TimeoutException();
+
+          task.wait(remaining);
+        }
+      }
+
+      if (cancelled) throw new CancellationException();
+      else           return task.get();
+    }
+  }
+}
@@ -42,7 +42,7 @@ public class PartDataSource implements DataSource {
 
     if (attachment == null) throw new IOException("Attachment not found");
 
-    this.inputSteam = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+    this.inputSteam = attachmentDatabase.getAttachmentChannel(partUri.getPartId()).createInputStream(dataSpec.position);
 
     if (listener != null) {
       listener.onTransferStart(this, dataSpec);
@@ -0,0 +1,159 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.SmsDatabase;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Exports a synthetic database of messages and attachments and logs the backup throughput.
+ *
+ * Run with:
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=org.thoughtcrime.securesms.backup.FullBackupExporterBenchmark
+ */
+public class FullBackupExporterBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = FullBackupExporterBenchmark.class.getSimpleName();
+
+  private static final String PASSPHRASE = "000000000000000000000000000000";
+
+  private static final int SMS_COUNT       = 20000;
+  private static final int MMS_COUNT       = 2000;
+  private static final int ATTACHMENT_SIZE = 256 * 1024;
+
+  private Context          context;
+  private AttachmentSecret attachmentSecret;
+  private File             directory;
+  private SQLiteDatabase   database;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+
+    context          = getInstrumentation().getTargetContext();
+    attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+    directory        = new File(context.getCacheDir(), "backup-benchmark");
+
+    delete(directory);
+    assertTrue(directory.mkdirs());
+
+    SQLiteDatabase.loadLibs(context);
+    database = SQLiteDatabase.openOrCreateDatabase(new File(directory, "benchmark.db"), "benchmark", null);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    database.close();
+    delete(directory);
+    super.tearDown();
+  }
+
+  public void testExportThroughput() throws Exception {
+    populate(new Random(42));
+
+    File backup = new File(directory, "benchmark.backup");
+
+    long keyStart = SystemClock.elapsedRealtime();
+    FullBackupBase.BackupStream.getBackupKey(PASSPHRASE, new byte[32]);
+    long keyMillis = SystemClock.elapsedRealtime() - keyStart;
+
+    long start = SystemClock.elapsedRealtime();
+    FullBackupExporter.export(context, attachmentSecret, database, backup, PASSPHRASE);
+    long millis = Math.max(1, SystemClock.elapsedRealtime() - start - keyMillis);
+
+    double megabytes = backup.length() / (1024.0 * 1024.0);
+
+    Log.i(TAG, String.format(Locale.US, "Exported %.1f MB in %d ms, excluding %d ms of key derivation: %.2f MB/s",
+                             megabytes, millis, keyMillis, megabytes * 1000 / millis));
+
+    assertTrue(backup.length() > (long)MMS_COUNT * ATTACHMENT_SIZE);
+  }
+
+  private void populate(Random random) throws Exception {
+    database.execSQL("CREATE TABLE " + SmsDatabase.TABLE_NAME + " (_id INTEGER PRIMARY KEY, thread_id INTEGER, address TEXT, date INTEGER, body TEXT, " + MmsSmsColumns.EXPIRES_IN + " INTEGER DEFAULT 0)");
+    database.execSQL("CREATE TABLE " + MmsDatabase.TABLE_NAME + " (_id INTEGER PRIMARY KEY, thread_id INTEGER, address TEXT, date INTEGER, body TEXT, " + MmsSmsColumns.EXPIRES_IN + " INTEGER DEFAULT 0)");
+    database.execSQL("CREATE TABLE " + AttachmentDatabase.TABLE_NAME + " (" + AttachmentDatabase.ROW_ID + " INTEGER PRIMARY KEY, " +
+                     AttachmentDatabase.MMS_ID + " INTEGER, " + AttachmentDatabase.UNIQUE_ID + " INTEGER, " +
+                     AttachmentDatabase.DATA + " TEXT, " + AttachmentDatabase.SIZE + " INTEGER, " +
+                     AttachmentDatabase.DATA_RANDOM + " BLOB)");
+
+    database.beginTransaction();
+
+    try {
+      for (int i = 0; i < SMS_COUNT; i++) {
+        database.insert(SmsDatabase.TABLE_NAME, null, getMessageValues(random, i));
+      }
+
+      byte[] attachment = new byte[ATTACHMENT_SIZE];
+
+      for (int i = 0; i < MMS_COUNT; i++) {
+        long mmsId = database.insert(MmsDatabase.TABLE_NAME, null, getMessageValues(random, i));
+        File file  = new File(directory, "part" + i + ".mms");
+
+        Pair<byte[], OutputStream> out = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false);
+        random.nextBytes(attachment);
+        out.second.write(attachment);
+        out.second.close();
+
+        ContentValues values = new ContentValues();
+        values.put(AttachmentDatabase.MMS_ID, mmsId);
+        values.put(AttachmentDatabase.UNIQUE_ID, System.currentTimeMillis());
+        values.put(AttachmentDatabase.DATA, file.getAbsolutePath());
+        values.put(AttachmentDatabase.SIZE, attachment.length);
+        values.put(AttachmentDatabase.DATA_RANDOM, out.first);
+
+        database.insert(AttachmentDatabase.TABLE_NAME, null, values);
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private ContentValues getMessageValues(Random random, int index) {
+    StringBuilder body = new StringBuilder();
+
+    for (int i = 20 + random.nextInt(400); i > 0; i--) {
+      body.append((char)('a' + random.nextInt(26)));
+    }
+
+    ContentValues values = new ContentValues();
+    values.put("thread_id", index % 100);
+    values.put("address", "+1555" + (1000000 + index % 100));
+    values.put("date", System.currentTimeMillis() - index * 60000L);
+    values.put("body", body.toString());
+
+    return values;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
@@ -0,0 +1,87 @@
+package org.thoughtcrime.securesms.database;
+
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.util.ConcurrentLRUCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the per-call cost of formatting numbers with and without the normalization cache, for
+ * a workload where a few hundred contacts account for every call, and logs both.
+ *
+ * Run with:
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=org.thoughtcrime.securesms.database.AddressFormatterBenchmark
+ */
+public class AddressFormatterBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = AddressFormatterBenchmark.class.getSimpleName();
+
+  private static final int CONTACTS = 300;
+  private static final int CALLS    = 30000;
+
+  public void testCachedFormatting() {
+    Address.ExternalAddressFormatter   formatter = new Address.ExternalAddressFormatter("+14152222222");
+    ConcurrentLRUCache<String, String> cache     = Address.ExternalAddressFormatter.getCache();
+    List<String>                       numbers   = getWorkload(new Random(42));
+
+    cache.clear();
+
+    for (String number : numbers.subList(0, 1000)) {
+      assertEquals(formatter.formatUncached(number), formatter.format(number));
+    }
+
+    long uncached   = measure(numbers, formatter::formatUncached);
+    long hitsBefore = cache.getHitCount();
+    long missBefore = cache.getMissCount();
+    long cached     = measure(numbers, formatter::format);
+
+    long   hits    = cache.getHitCount() - hitsBefore;
+    long   misses  = cache.getMissCount() - missBefore;
+    double hitRate = (double)hits / (hits + misses);
+
+    Log.i(TAG, String.format(Locale.US, "Uncached: %d ns/call, cached: %d ns/call, hit rate: %.3f",
+                             uncached / numbers.size(), cached / numbers.size(), hitRate));
+
+    assertTrue(hitRate > 0.95);
+  }
+
+  private static long measure(List<String> numbers, Formatter formatter) {
+    long start = System.nanoTime();
+
+    for (String number : numbers) {
+      formatter.format(number);
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  private static List<String> getWorkload(Random random) {
+    String[]     contacts = new String[CONTACTS];
+    List<String> numbers  = new ArrayList<>(CALLS);
+
+    for (int i = 0; i < CONTACTS; i++) {
+      String digits = String.format(Locale.US, "%03d%07d", 200 + random.nextInt(700), random.nextInt(10000000));
+
+      switch (i % 3) {
+        case 0:  contacts[i] = "+1" + digits;                                                                          break;
+        case 1:  contacts[i] = "(" + digits.substring(0, 3) + ") " + digits.substring(3, 6) + "-" + digits.substring(6); break;
+        default: contacts[i] = digits.substring(0, 3) + "." + digits.substring(3, 6) + "." + digits.substring(6);        break;
+      }
+    }
+
+    for (int i = 0; i < CALLS; i++) {
+      numbers.add(contacts[random.nextInt(CONTACTS)]);
+    }
+
+    return numbers;
+  }
+
+  private interface Formatter {
+    String format(String number);
+  }
+}
@@ -0,0 +1,121 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.persistence.BinaryJobSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.JavaJobSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSerializer;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Serializes and deserializes the jobs that have binary codecs with both the binary and the Java
+ * serializer, and logs the throughput and bytes per job of each.
+ *
+ * Run with:
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=org.thoughtcrime.securesms.jobs.BinaryJobSerializerBenchmark
+ */
+public class BinaryJobSerializerBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = BinaryJobSerializerBenchmark.class.getSimpleName();
+
+  private static final int WARMUP_ITERATIONS = 500;
+  private static final int ITERATIONS        = 5000;
+
+  private Context             context;
+  private BinaryJobSerializer binarySerializer;
+  private JavaJobSerializer   javaSerializer;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+
+    context          = getInstrumentation().getTargetContext();
+    javaSerializer   = new JavaJobSerializer();
+    binarySerializer = new BinaryJobSerializer().withCodec(1, PushDecryptJob.class, new PushDecryptJob.Codec())
+                                                .withCodec(2, SendReadReceiptJob.class, new SendReadReceiptJob.Codec())
+                                                .withCodec(3, MultiDeviceReadUpdateJob.class, new MultiDeviceReadUpdateJob.Codec());
+  }
+
+  public void testAgainstJavaSerialization() throws Exception {
+    for (Job job : createJobs()) {
+      Result java   = benchmark(javaSerializer, job);
+      Result binary = benchmark(binarySerializer, job);
+
+      Log.i(TAG, String.format(Locale.US, "%s: java %d bytes, %.0f ser/s, %.0f deser/s | binary %d bytes, %.0f ser/s, %.0f deser/s",
+                               job.getClass().getSimpleName(),
+                               java.bytes, java.serializePerSecond, java.deserializePerSecond,
+                               binary.bytes, binary.serializePerSecond, binary.deserializePerSecond));
+
+      assertTrue(binary.bytes < java.bytes);
+    }
+  }
+
+  private Result benchmark(JobSerializer serializer, Job job) throws Exception {
+    byte[] serialized = serializer.serialize(job);
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      serializer.deserialize(null, false, serializer.serialize(job));
+    }
+
+    long serializeStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) serializer.serialize(job);
+    long serializeTime = Math.max(1, System.nanoTime() - serializeStart);
+
+    long deserializeStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) serializer.deserialize(null, false, serialized);
+    long deserializeTime = Math.max(1, System.nanoTime() - deserializeStart);
+
+    return new Result(serialized.length,
+                      ITERATIONS * 1e9 / serializeTime,
+                      ITERATIONS * 1e9 / deserializeTime);
+  }
+
+  private List<Job> createJobs() throws Exception {
+    List<Job> jobs = new LinkedList<>();
+
+    jobs.add(new PushDecryptJob(context, 1234, 5678));
+    jobs.add(new PushDecryptJob(context, 1234, new SignalServiceEnvelope(1, "+14152222222", 1, "", 1000, null, new byte[] {1, 2, 3})));
+    jobs.add(new SendReadReceiptJob(context, Address.fromSerialized("+14152222222"), Arrays.asList(1L, 2L, 3L)));
+    jobs.add(createReadUpdateJob());
+
+    return jobs;
+  }
+
+  private MultiDeviceReadUpdateJob createReadUpdateJob() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+
+    out.writeInt(2);
+    out.writeUTF("+14152222222");
+    out.writeLong(1000);
+    out.writeUTF("+14153333333");
+    out.writeLong(2000);
+
+    return new MultiDeviceReadUpdateJob.Codec().decode(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+  }
+
+  private static class Result {
+    private final int    bytes;
+    private final double serializePerSecond;
+    private final double deserializePerSecond;
+
+    private Result(int bytes, double serializePerSecond, double deserializePerSecond) {
+      this.bytes                = bytes;
+      this.serializePerSecond   = serializePerSecond;
+      this.deserializePerSecond = deserializePerSecond;
+    }
+  }
+}
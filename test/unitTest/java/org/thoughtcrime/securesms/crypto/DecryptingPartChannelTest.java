@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DecryptingPartChannelTest extends BaseUnitTest {
+
+  private static final int[] LENGTHS = {1, 15, 16, 17, 64 * 1024, 200 * 1024 + 5};
+
+  private final Random           random           = new Random(42);
+  private final AttachmentSecret attachmentSecret = new AttachmentSecret(randomBytes(32), randomBytes(32), randomBytes(32));
+
+  @Test public void testModernRandomAccess() throws Exception {
+    for (int length : LENGTHS) {
+      byte[] plaintext  = randomBytes(length);
+      byte[] partRandom = randomBytes(32);
+      File   file       = writeModern(plaintext, partRandom);
+
+      try (DecryptingPartChannel channel = DecryptingPartChannel.createFor(attachmentSecret, file, partRandom)) {
+        assertRandomAccess(plaintext, channel);
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  @Test public void testClassicRandomAccess() throws Exception {
+    for (int length : LENGTHS) {
+      byte[] plaintext = randomBytes(length);
+      File   file      = writeClassic(plaintext);
+
+      try (DecryptingPartChannel channel = DecryptingPartChannel.createFor(attachmentSecret, file, null)) {
+        assertRandomAccess(plaintext, channel);
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testClassicBadMac() throws Exception {
+    File file = writeClassic(randomBytes(100));
+
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(0);
+    }
+
+    try {
+      DecryptingPartChannel.createFor(attachmentSecret, file, null);
+    } finally {
+      file.delete();
+    }
+  }
+
+  private void assertRandomAccess(byte[] plaintext, DecryptingPartChannel channel) throws IOException {
+    assertEquals(plaintext.length, channel.size());
+
+    for (int i = 0; i < 50; i++) {
+      int    position = random.nextInt(plaintext.length);
+      int    length   = Math.min(1 + random.nextInt(4096), plaintext.length - position);
+      byte[] buffer   = new byte[length];
+      int    read     = channel.read(position, buffer, 0, length);
+
+      assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + read),
+                        Arrays.copyOf(buffer, read));
+    }
+
+    assertEquals(-1, channel.read(plaintext.length, new byte[1], 0, 1));
+
+    int          position = plaintext.length / 3;
+    InputStream  in       = channel.createInputStream(position);
+    byte[]       rest     = new byte[plaintext.length - position];
+    int          offset   = 0;
+    int          read;
+
+    while ((read = in.read(rest, offset, rest.length - offset)) > 0) {
+      offset += read;
+    }
+
+    assertEquals(rest.length, offset);
+    assertArrayEquals(Arrays.copyOfRange(plaintext, position, plaintext.length), rest);
+  }
+
+  private File writeModern(byte[] plaintext, byte[] partRandom) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(partRandom), "AES"), new IvParameterSpec(new byte[16]));
+
+    return write(cipher.doFinal(plaintext));
+  }
+
+  private File writeClassic(byte[] plaintext) throws Exception {
+    byte[] iv     = randomBytes(16);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES"), new IvParameterSpec(iv));
+
+    byte[] ciphertext = cipher.doFinal(plaintext);
+
+    Mac mac = Mac.getInstance("HmacSHA1");
+    mac.init(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
+    mac.update(iv);
+    mac.update(ciphertext);
+
+    byte[] macBytes = mac.doFinal();
+    byte[] file     = new byte[iv.length + ciphertext.length + macBytes.length];
+
+    System.arraycopy(iv, 0, file, 0, iv.length);
+    System.arraycopy(ciphertext, 0, file, iv.length, ciphertext.length);
+    System.arraycopy(macBytes, 0, file, iv.length + ciphertext.length, macBytes.length);
+
+    return write(file);
+  }
+
+  private File write(byte[] data) throws IOException {
+    File file = File.createTempFile("part", ".mms");
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(data);
+    }
+
+    return file;
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,97 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.database.GroupReceiptDatabase.MemberList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupReceiptDatabaseTest extends BaseUnitTest {
+
+  private static final int MEMBER_COUNT = 70;
+
+  @Test public void testMemberListIsSorted() {
+    List<Address> members = createMembers();
+    List<Address> sorted  = new ArrayList<>(members);
+
+    Collections.sort(sorted);
+    Collections.shuffle(members, new Random(42));
+
+    MemberList memberList = MemberList.fromAddresses(members);
+
+    assertEquals(sorted, memberList.addresses);
+
+    for (int i = 0; i < sorted.size(); i++) {
+      assertEquals(i, (int)memberList.indexes.get(sorted.get(i)));
+    }
+  }
+
+  @Test public void testMemberListIsSharedAcrossOrders() {
+    List<Address> members  = createMembers();
+    List<Address> reversed = new ArrayList<>(members);
+
+    Collections.reverse(reversed);
+
+    assertEquals(MemberList.fromAddresses(members).serialize(), MemberList.fromAddresses(reversed).serialize());
+  }
+
+  @Test public void testMemberListRoundTrip() {
+    List<Address> members = createMembers();
+    members.add(Address.fromSerialized("with,delimiter@example.com"));
+
+    MemberList original = MemberList.fromAddresses(members);
+    MemberList restored = new MemberList(original.serialize());
+
+    assertEquals(original.addresses, restored.addresses);
+    assertEquals(original.indexes, restored.indexes);
+    assertTrue(new MemberList(null).addresses.isEmpty());
+  }
+
+  @Test public void testBitmapsPastThirtyTwoMembers() {
+    byte[] delivered = new byte[(MEMBER_COUNT + 7) / 8];
+    byte[] read      = new byte[(MEMBER_COUNT + 7) / 8];
+
+    GroupReceiptDatabase.set(delivered, 0);
+    GroupReceiptDatabase.set(delivered, 33);
+    GroupReceiptDatabase.set(delivered, MEMBER_COUNT - 1);
+    GroupReceiptDatabase.set(read, 33);
+
+    for (int i = 0; i < MEMBER_COUNT; i++) {
+      int expected;
+
+      if      (i == 33)                           expected = GroupReceiptDatabase.STATUS_READ;
+      else if (i == 0 || i == MEMBER_COUNT - 1)   expected = GroupReceiptDatabase.STATUS_DELIVERED;
+      else                                        expected = GroupReceiptDatabase.STATUS_UNDELIVERED;
+
+      assertEquals(expected, GroupReceiptDatabase.getStatus(delivered, read, i));
+    }
+  }
+
+  @Test public void testBitmapBounds() {
+    byte[] bitmap = new byte[5];
+
+    GroupReceiptDatabase.set(bitmap, 39);
+
+    assertTrue(GroupReceiptDatabase.isSet(bitmap, 39));
+    assertFalse(GroupReceiptDatabase.isSet(bitmap, 40));
+    assertFalse(GroupReceiptDatabase.isSet(null, 0));
+    assertEquals(GroupReceiptDatabase.STATUS_UNDELIVERED, GroupReceiptDatabase.getStatus(null, null, 0));
+  }
+
+  private List<Address> createMembers() {
+    List<Address> members = new ArrayList<>(MEMBER_COUNT);
+
+    for (int i = 0; i < MEMBER_COUNT; i++) {
+      members.add(Address.fromSerialized("+1415555" + String.format("%04d", (i * 7919) % 10000)));
+    }
+
+    return members;
+  }
+}
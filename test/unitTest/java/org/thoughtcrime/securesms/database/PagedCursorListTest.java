@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PagedCursorListTest extends BaseUnitTest {
+
+  private static final int PAGE_SIZE = 10;
+  private static final int SIZE      = 35;
+
+  private final List<Integer>         loadedOffsets = new LinkedList<>();
+  private final Map<Integer, Cursor>  loadedPages   = new HashMap<>();
+  private final Map<Integer, Integer> pageCounts    = new HashMap<>();
+  private final List<Runnable>        prefetches    = new LinkedList<>();
+
+  @Test
+  public void testLoadsFirstPageUpFront() {
+    createList();
+
+    assertEquals(Arrays.asList(0), loadedOffsets);
+    assertTrue(prefetches.isEmpty());
+  }
+
+  @Test
+  public void testPrefetchesNextPage() {
+    PagedCursorList<Integer> list = createList();
+
+    assertEquals(5, (int)list.get(5));
+    assertEquals(1, prefetches.size());
+    assertEquals(Arrays.asList(0), loadedOffsets);
+
+    runPrefetches();
+
+    assertEquals(Arrays.asList(0, 10), loadedOffsets);
+    assertEquals(15, (int)list.get(15));
+    assertEquals(Arrays.asList(0, 10), loadedOffsets);
+    assertEquals(1, prefetches.size());
+  }
+
+  @Test
+  public void testDoesNotPrefetchPastEnd() {
+    PagedCursorList<Integer> list = createList();
+
+    assertEquals(34, (int)list.get(34));
+    assertEquals(Arrays.asList(0, 30), loadedOffsets);
+    assertTrue(prefetches.isEmpty());
+  }
+
+  @Test
+  public void testLoadsMissingPageOnCallingThread() {
+    PagedCursorList<Integer> list = createList();
+
+    assertEquals(25, (int)list.get(25));
+    assertEquals(Arrays.asList(0, 20), loadedOffsets);
+
+    runPrefetches();
+
+    assertEquals(Arrays.asList(0, 20, 30), loadedOffsets);
+  }
+
+  @Test
+  public void testShortPageRepeatsLastRow() {
+    pageCounts.put(10, 3);
+
+    PagedCursorList<Integer> list = createList();
+
+    assertEquals(12, (int)list.get(12));
+    assertEquals(12, (int)list.get(17));
+  }
+
+  @Test
+  public void testEmptyPageReturnsNull() {
+    pageCounts.put(10, 0);
+
+    PagedCursorList<Integer> list = createList();
+
+    assertNull(list.get(10));
+    assertNull(list.get(19));
+    assertEquals(20, (int)list.get(20));
+  }
+
+  @Test
+  public void testCloseSkipsQueuedPrefetch() {
+    PagedCursorList<Integer> list = createList();
+
+    list.get(0);
+    list.close();
+    runPrefetches();
+
+    verify(loadedPages.get(0)).close();
+    assertEquals(Arrays.asList(0), loadedOffsets);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetAfterClose() {
+    PagedCursorList<Integer> list = createList();
+
+    list.close();
+    list.get(0);
+  }
+
+  private PagedCursorList<Integer> createList() {
+    return new PagedCursorList<>(SIZE, PAGE_SIZE, this::loadPage, cursor -> cursor.getInt(0), prefetches::add);
+  }
+
+  private Cursor loadPage(int offset, int limit) {
+    Integer count = pageCounts.get(offset);
+    Cursor  page  = createPage(offset, count != null ? count : Math.min(limit, SIZE - offset));
+
+    loadedOffsets.add(offset);
+    loadedPages.put(offset, page);
+
+    return page;
+  }
+
+  private void runPrefetches() {
+    while (!prefetches.isEmpty()) {
+      prefetches.remove(0).run();
+    }
+  }
+
+  private static Cursor createPage(int offset, int count) {
+    Cursor cursor   = mock(Cursor.class);
+    int[]  position = new int[] {-1};
+
+    when(cursor.getCount()).thenReturn(count);
+    when(cursor.moveToPosition(anyInt())).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) {
+        position[0] = (Integer)invocation.getArguments()[0];
+        return position[0] >= 0 && position[0] < count;
+      }
+    });
+    when(cursor.getInt(0)).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) {
+        return offset + position[0];
+      }
+    });
+
+    return cursor;
+  }
+}
@@ -0,0 +1,42 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushDatabaseTest extends BaseUnitTest {
+
+  private static final byte[] CONTENT = new byte[] {1, 2, 3, 4};
+
+  @Test public void testContentHashIsStable() {
+    byte[] first  = PushDatabase.getContentHash(1, "+14152222222", 1, 1000, null, CONTENT);
+    byte[] second = PushDatabase.getContentHash(1, "+14152222222", 1, 1000, null, CONTENT.clone());
+
+    assertEquals(32, first.length);
+    assertArrayEquals(first, second);
+  }
+
+  @Test public void testContentHashCoversEveryField() {
+    byte[] hash = PushDatabase.getContentHash(1, "+14152222222", 1, 1000, null, CONTENT);
+
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(2, "+14152222222", 1, 1000, null, CONTENT)));
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(1, "+14153333333", 1, 1000, null, CONTENT)));
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(1, "+14152222222", 2, 1000, null, CONTENT)));
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(1, "+14152222222", 1, 1001, null, CONTENT)));
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(1, "+14152222222", 1, 1000, new byte[0], CONTENT)));
+    assertFalse(Arrays.equals(hash, PushDatabase.getContentHash(1, "+14152222222", 1, 1000, null, new byte[] {1, 2, 3})));
+  }
+
+  @Test public void testContentHashSeparatesFields() {
+    byte[] legacy  = PushDatabase.getContentHash(1, "+14152222222", 1, 1000, CONTENT, null);
+    byte[] content = PushDatabase.getContentHash(1, "+14152222222", 1, 1000, null, CONTENT);
+
+    assertTrue(!Arrays.equals(legacy, content));
+  }
+}
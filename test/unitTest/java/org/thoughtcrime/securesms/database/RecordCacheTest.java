@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RecordCacheTest extends BaseUnitTest {
+
+  @Test public void testMissAndAbsent() {
+    RecordCache<Integer, String> cache = new RecordCache<>(10);
+
+    assertNull(cache.get(1));
+
+    cache.putIfCurrent(1, Optional.absent(), cache.getGeneration());
+
+    assertFalse(cache.get(1).isPresent());
+  }
+
+  @Test public void testStaleReadDoesNotReplaceWrite() {
+    RecordCache<Integer, String> cache = new RecordCache<>(10);
+
+    long generation = cache.getGeneration();
+
+    cache.put(1, Optional.of("written"));
+    cache.putIfCurrent(1, Optional.of("stale"), generation);
+
+    assertEquals("written", cache.get(1).get());
+  }
+
+  @Test public void testStaleReadAfterRemoveIsDropped() {
+    RecordCache<Integer, String> cache = new RecordCache<>(10);
+
+    cache.put(1, Optional.of("first"));
+
+    long generation = cache.getGeneration();
+
+    cache.remove(1);
+    cache.putIfCurrent(1, Optional.of("first"), generation);
+
+    assertNull(cache.get(1));
+  }
+
+  @Test public void testRemoveIf() {
+    RecordCache<Integer, String> cache = new RecordCache<>(10);
+
+    for (int i = 0; i < 4; i++) {
+      cache.put(i, Optional.of(String.valueOf(i)));
+    }
+
+    cache.removeIf(key -> key % 2 == 0);
+
+    assertNull(cache.get(0));
+    assertEquals("1", cache.get(1).get());
+    assertNull(cache.get(2));
+    assertEquals("3", cache.get(3).get());
+  }
+
+  @Test public void testBounded() {
+    RecordCache<Integer, String> cache = new RecordCache<>(2);
+
+    cache.put(1, Optional.of("1"));
+    cache.put(2, Optional.of("2"));
+    cache.put(3, Optional.of("3"));
+
+    assertNull(cache.get(1));
+    assertEquals("3", cache.get(3).get());
+  }
+}
@@ -0,0 +1,134 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.requirements.Requirement;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertSame;
+
+public class JobQueueTest {
+
+  @Test
+  public void testHigherPriorityRunsFirst() {
+    JobQueue queue = new JobQueue(new JobMetrics());
+    TestJob  low   = new TestJob(JobParameters.newBuilder().withPriority(JobParameters.PRIORITY_LOW).create());
+    TestJob  plain = new TestJob(JobParameters.newBuilder().create());
+    TestJob  high  = new TestJob(JobParameters.newBuilder().withPriority(JobParameters.PRIORITY_HIGH).create());
+
+    queue.add(low);
+    queue.add(plain);
+    queue.add(high);
+
+    assertSame(high, queue.getNext());
+    assertSame(plain, queue.getNext());
+    assertSame(low, queue.getNext());
+  }
+
+  @Test
+  public void testGroupRunsSerially() {
+    JobQueue queue  = new JobQueue(new JobMetrics());
+    TestJob  first  = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+    TestJob  second = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+    TestJob  other  = new TestJob(JobParameters.newBuilder().create());
+
+    queue.add(first);
+    queue.add(second);
+    queue.add(other);
+
+    assertSame(first, queue.getNext());
+    assertSame(other, queue.getNext());
+
+    queue.setGroupIdAvailable("group");
+
+    assertSame(second, queue.getNext());
+  }
+
+  @Test
+  public void testUnmetRequirementIsSkippedUntilStatusChange() {
+    JobQueue        queue       = new JobQueue(new JobMetrics());
+    TestRequirement requirement = new TestRequirement();
+    TestJob         blocked     = new TestJob(JobParameters.newBuilder().withRequirement(requirement).create());
+    TestJob         ready       = new TestJob(JobParameters.newBuilder().create());
+
+    queue.add(blocked);
+    queue.add(ready);
+
+    assertSame(ready, queue.getNext());
+
+    requirement.present = true;
+    queue.onRequirementStatusChanged();
+
+    assertSame(blocked, queue.getNext());
+  }
+
+  @Test
+  public void testDeferredJobKeepsItsGroup() {
+    JobQueue queue  = new JobQueue(new JobMetrics());
+    TestJob  first  = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+    TestJob  second = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+
+    queue.add(first);
+    queue.add(second);
+
+    assertSame(first, queue.getNext());
+
+    queue.push(first);
+
+    assertSame(first, queue.getNext());
+
+    queue.setGroupIdAvailable("group");
+
+    assertSame(second, queue.getNext());
+  }
+
+  @Test
+  public void testRestoredJobsRunBeforeNewerJobsInGroup() {
+    JobQueue queue    = new JobQueue(new JobMetrics());
+    TestJob  newer    = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+    TestJob  restored = new TestJob(JobParameters.newBuilder().withGroupId("group").create());
+
+    queue.add(newer);
+    queue.addRestored(Collections.<Job>singletonList(restored));
+
+    assertSame(restored, queue.getNext());
+
+    queue.setGroupIdAvailable("group");
+
+    assertSame(newer, queue.getNext());
+  }
+
+  private static class TestRequirement implements Requirement {
+    private boolean present;
+
+    @Override
+    public boolean isPresent(@NonNull Job job) {
+      return present;
+    }
+
+    @Override
+    public void onRetry(@NonNull Job job) {}
+  }
+
+  private static class TestJob extends Job {
+    TestJob(JobParameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public void onAdded() {}
+
+    @Override
+    protected void onRun() {}
+
+    @Override
+    public boolean onShouldRetry(Exception exception) {
+      return false;
+    }
+
+    @Override
+    public void onCanceled() {}
+  }
+}
@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.jobs;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.persistence.BinaryJobSerializer;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinaryJobSerializerTest extends BaseUnitTest {
+
+  private final BinaryJobSerializer binarySerializer = new BinaryJobSerializer().withCodec(1, PushDecryptJob.class, new PushDecryptJob.Codec())
+                                                                                .withCodec(2, SendReadReceiptJob.class, new SendReadReceiptJob.Codec())
+                                                                                .withCodec(3, MultiDeviceReadUpdateJob.class, new MultiDeviceReadUpdateJob.Codec());
+
+  @Test
+  public void testCodecRoundTrip() throws Exception {
+    for (Job job : createJobs()) {
+      byte[] serialized = binarySerializer.serialize(job);
+      Job    decoded    = binarySerializer.deserialize(null, false, serialized);
+
+      assertEquals(job.getClass(), decoded.getClass());
+      assertArrayEquals(serialized, binarySerializer.serialize(decoded));
+    }
+  }
+
+  @Test
+  public void testDecryptJobKeepsSenderGroup() throws Exception {
+    Job legacy = new PushDecryptJob(context, 1234, 5678);
+    Job sender = createDecryptJob("+14152222222");
+
+    assertEquals(legacy.getGroupId(), binarySerializer.deserialize(null, false, binarySerializer.serialize(legacy)).getGroupId());
+    assertEquals(sender.getGroupId(), binarySerializer.deserialize(null, false, binarySerializer.serialize(sender)).getGroupId());
+    assertFalse(legacy.getGroupId().equals(sender.getGroupId()));
+  }
+
+  @Test
+  public void testJavaFallbackRoundTrip() throws Exception {
+    Job    job        = new DirectoryRefreshJob(context, false);
+    byte[] serialized = binarySerializer.serialize(job);
+
+    assertEquals(DirectoryRefreshJob.class, binarySerializer.deserialize(null, false, serialized).getClass());
+  }
+
+  @Test
+  public void testCodecKeepsRetryState() throws Exception {
+    for (Job job : createJobs()) {
+      job.restoreRetryState(3, 1234567890L);
+
+      Job decoded = binarySerializer.deserialize(null, false, binarySerializer.serialize(job));
+
+      assertEquals(3, decoded.getRunIteration());
+      assertEquals(1234567890L, decoded.getRetryUntil());
+    }
+  }
+
+  private List<Job> createJobs() throws Exception {
+    List<Job> jobs = new LinkedList<>();
+
+    jobs.add(new PushDecryptJob(context, 1234, 5678));
+    jobs.add(createDecryptJob("+14152222222"));
+    jobs.add(new SendReadReceiptJob(context, Address.fromSerialized("+14152222222"), Arrays.asList(1L, 2L, 3L)));
+    jobs.add(createReadUpdateJob("+14152222222", 1000, "+14153333333", 2000));
+
+    return jobs;
+  }
+
+  private PushDecryptJob createDecryptJob(String source) {
+    return new PushDecryptJob(context, 1234, new SignalServiceEnvelope(1, source, 1, "", 1000, null, new byte[] {1, 2, 3}));
+  }
+
+  private MultiDeviceReadUpdateJob createReadUpdateJob(String sender1, long timestamp1, String sender2, long timestamp2) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+
+    out.writeInt(2);
+    out.writeUTF(sender1);
+    out.writeLong(timestamp1);
+    out.writeUTF(sender2);
+    out.writeLong(timestamp2);
+
+    return new MultiDeviceReadUpdateJob.Codec().decode(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+  }
+}
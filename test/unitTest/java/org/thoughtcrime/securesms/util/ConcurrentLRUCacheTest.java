@@ -0,0 +1,39 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentLRUCacheTest extends BaseUnitTest {
+
+  @Test public void testLoadsOnlyOnMiss() {
+    ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<>(16, 4);
+    AtomicInteger                      loads = new AtomicInteger();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals("A", cache.get("a", key -> { loads.incrementAndGet(); return key.toUpperCase(); }));
+    }
+
+    assertEquals(1, loads.get());
+    assertEquals(9, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.9, cache.getHitRate(), 0.0001);
+  }
+
+  @Test public void testStaysBounded() {
+    ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(64, 8);
+
+    for (int i = 0; i < 10000; i++) {
+      cache.put(i, i);
+    }
+
+    assertTrue(cache.size() <= 64);
+    assertEquals(Integer.valueOf(9999), cache.get(9999));
+    assertNull(cache.get(0));
+  }
+}
@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest extends BaseUnitTest {
+
+  @Test public void testPastDeadlineIsRejected() {
+    TimingWheel<Integer> wheel = new TimingWheel<>(1000, 10000);
+
+    assertFalse(wheel.add(1, 9000));
+    assertFalse(wheel.add(2, 10000));
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test public void testItemsInSameTickExpireTogether() {
+    TimingWheel<Integer> wheel = new TimingWheel<>(1000, 0);
+
+    wheel.add(1, 4200);
+    wheel.add(2, 4900);
+    wheel.add(3, 5100);
+
+    assertTrue(wheel.advance(4999).isEmpty());
+    assertEquals(Arrays.asList(1, 2), sorted(wheel.advance(5000)));
+    assertEquals(1, wheel.size());
+    assertEquals(Collections.singletonList(3), wheel.advance(6000));
+    assertEquals(-1, wheel.getNextDeadline());
+  }
+
+  @Test public void testNeverExpiresEarlyOrLate() {
+    Random            random    = new Random(42);
+    long              start     = 123456789L;
+    TimingWheel<Long> wheel     = new TimingWheel<>(1000, start);
+    List<Long>        deadlines = new LinkedList<>();
+
+    for (int i = 0; i < 2000; i++) {
+      long deadline = start + 1 + (long)(random.nextDouble() * 30L * 24 * 60 * 60 * 1000);
+      deadline     += i % 5 == 0 ? 400L * 24 * 60 * 60 * 1000 : 0;
+
+      assertTrue(wheel.add(deadline, deadline));
+      deadlines.add(deadline);
+    }
+
+    long now   = start;
+    int  count = 0;
+
+    while (!wheel.isEmpty()) {
+      long next = wheel.getNextDeadline();
+
+      assertTrue(next > now);
+
+      now = next;
+
+      for (long deadline : wheel.advance(now)) {
+        assertTrue(deadline <= now);
+        assertTrue(deadline > now - 1000);
+        count++;
+      }
+    }
+
+    assertEquals(deadlines.size(), count);
+  }
+
+  private static List<Integer> sorted(List<Integer> list) {
+    Collections.sort(list);
+    return list;
+  }
+}
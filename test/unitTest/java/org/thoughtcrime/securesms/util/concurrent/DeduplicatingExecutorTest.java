@@ -0,0 +1,82 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeduplicatingExecutorTest extends BaseUnitTest {
+
+  @Test public void testSharesInFlightTasks() throws Exception {
+    DeduplicatingExecutor<String, Integer> executor = new DeduplicatingExecutor<>(2);
+    CountDownLatch                         release  = new CountDownLatch(1);
+    AtomicInteger                          runs     = new AtomicInteger();
+
+    Future<Integer> first  = executor.submit("a", () -> { release.await(); return runs.incrementAndGet(); });
+    Future<Integer> second = executor.submit("a", () -> { release.await(); return runs.incrementAndGet(); });
+
+    executor.submitInBackground("a", runs::incrementAndGet);
+    release.countDown();
+
+    assertEquals(1, (int)first.get(5, TimeUnit.SECONDS));
+    assertEquals(1, (int)second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, runs.get());
+  }
+
+  @Test public void testDropsTasksOnceEveryoneCancels() throws Exception {
+    DeduplicatingExecutor<String, Integer> executor = new DeduplicatingExecutor<>(1);
+    CountDownLatch                         release  = new CountDownLatch(1);
+    AtomicInteger                          runs     = new AtomicInteger();
+
+    Future<Integer> blocker = executor.submit("blocker", () -> { release.await(); return 0; });
+    Future<Integer> first   = executor.submit("a", runs::incrementAndGet);
+    Future<Integer> second  = executor.submit("a", runs::incrementAndGet);
+
+    assertTrue(first.cancel(false));
+    assertFalse(second.isDone());
+    assertTrue(second.cancel(false));
+
+    release.countDown();
+    blocker.get(5, TimeUnit.SECONDS);
+
+    assertEquals(1, (int)executor.submit("b", () -> 1).get(5, TimeUnit.SECONDS));
+    assertEquals(0, runs.get());
+
+    try {
+      first.get();
+      throw new AssertionError("Expected a cancellation");
+    } catch (CancellationException e) {
+      // Expected
+    }
+  }
+
+  @Test public void testRunsNewestWaitingTasksFirst() throws Exception {
+    DeduplicatingExecutor<String, Integer> executor = new DeduplicatingExecutor<>(1);
+    CountDownLatch                         release  = new CountDownLatch(1);
+    StringBuffer                           order    = new StringBuffer();
+
+    executor.submit("blocker", () -> { release.await(); return 0; });
+    executor.submitInBackground("background", () -> { order.append('b'); return 0; });
+    executor.submitInBackground("idle", () -> { order.append('i'); return 0; });
+    Future<Integer> older = executor.submit("older", () -> { order.append('o'); return 0; });
+    Future<Integer> newer = executor.submit("newer", () -> { order.append('n'); return 0; });
+    Future<Integer> last  = executor.submit("background", () -> { order.append('x'); return 0; });
+
+    release.countDown();
+
+    last.get(5, TimeUnit.SECONDS);
+    newer.get(5, TimeUnit.SECONDS);
+    older.get(5, TimeUnit.SECONDS);
+    Thread.sleep(100);
+
+    assertEquals("bnoi", order.toString());
+  }
+}